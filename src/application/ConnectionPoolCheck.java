@@ -0,0 +1,183 @@
+package application;
+
+import fdbs.Topology;
+import fdbs.fjdbc.ConnectionPool;
+import fdbs.fjdbc.FedException;
+import fdbs.fjdbc.FedPseudoDriver;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the pooled mode of FedPseudoDriver against StandInDatabases:
+ * <ul>
+ * <li>a released connection is borrowed again, no connection is opened for
+ * it, also when a pooled FedConnection is closed and a new one opened</li>
+ * <li>with fdbs.poolMaxSize 1 a second borrow fails after fdbs.poolMaxWait
+ * milliseconds</li>
+ * <li>a connection idle for longer than fdbs.poolIdleTimeout is closed</li>
+ * <li>release turns auto commit on again</li>
+ * <li>a closed pool closes its idle connections, stops borrowing and
+ * closes the borrowed ones when they are returned</li>
+ * <li>a wrong password drops the pool FedPseudoDriver made for it</li>
+ * </ul>
+ * The pool properties are set by the check. A failed check throws a
+ * FedException.
+ * <p>
+ * Usage: ConnectionPoolCheck
+ */
+public class ConnectionPoolCheck {
+
+    private static final long MAX_WAIT = 200;
+    private static final long IDLE_TIMEOUT = 100;
+    // The evictor runs every second at the shortest
+    private static final long EVICTION_WAIT = 2500;
+
+    public static void main(String[] args) throws Exception {
+        StandInDatabase.register();
+        System.setProperty(ConnectionPool.MAX_SIZE_PROPERTY, "1");
+        System.setProperty(ConnectionPool.MAX_WAIT_PROPERTY, String.valueOf(MAX_WAIT));
+        System.setProperty(ConnectionPool.IDLE_TIMEOUT_PROPERTY, String.valueOf(IDLE_TIMEOUT));
+
+        checkReuse(createPool("POOL1"));
+        checkPooledConnections();
+        checkMaxWait(createPool("POOL2"));
+        checkAutoCommit(createPool("POOL3"));
+        checkEviction(createPool("POOL4"));
+        checkClose(createPool("POOL5"), createPool("POOL6"));
+        checkAuthenticationFailure();
+        System.out.println("Connection pool: OK");
+    }
+
+    private static ConnectionPool createPool(String database) {
+        return new ConnectionPool(StandInDatabase.URL_PREFIX + database, "CHECK", "CHECK");
+    }
+
+    private static void checkReuse(ConnectionPool pool) throws SQLException, FedException {
+        Connection connection = pool.borrow();
+        pool.release(connection);
+        Connection borrowed = pool.borrow();
+        pool.release(borrowed);
+        if (borrowed != connection || pool.getCreatedCount() != 1 || pool.getBorrowCount() != 2) {
+            throw new FedException(new Throwable("Released connection not borrowed again: " + pool));
+        }
+    }
+
+    /*
+     * Closing a pooled FedConnection returns its connections, the next one
+     * borrows them.
+     */
+    private static void checkPooledConnections() throws IOException, SQLException, FedException {
+        if (System.getProperty(Topology.TOPOLOGY_PROPERTY) == null) {
+            FedBenchmark.useStandInDatabases(3);
+        }
+        FedPseudoDriver driver = new FedPseudoDriver(true);
+        driver.getConnection("CHECK", "CHECK").close();
+        long created = getCreatedCount();
+        for (int i = 0; i < 3; i++) {
+            driver.getConnection("CHECK", "CHECK").close();
+        }
+        if (getCreatedCount() != created) {
+            throw new FedException(new Throwable("Pooled FedConnections opened " + (getCreatedCount() - created)
+                    + " connections: " + FedPseudoDriver.getPools()));
+        }
+    }
+
+    /*
+     * The pools hold at most one connection, one is closed with it idle, the
+     * other one with it borrowed.
+     */
+    private static void checkClose(ConnectionPool pool, ConnectionPool borrowedFrom)
+            throws SQLException, FedException {
+        Connection idle = pool.borrow();
+        pool.release(idle);
+        pool.close();
+        if (!idle.isClosed() || pool.getIdleCount() != 0) {
+            throw new FedException(new Throwable("Closed pool keeps its idle connection: " + pool));
+        }
+
+        Connection borrowed = borrowedFrom.borrow();
+        borrowedFrom.close();
+        borrowedFrom.release(borrowed);
+        if (!borrowed.isClosed() || borrowedFrom.getIdleCount() != 0) {
+            throw new FedException(new Throwable("Closed pool took a connection back: " + borrowedFrom));
+        }
+        try {
+            pool.borrow();
+        } catch (SQLException e) {
+            return;
+        }
+        throw new FedException(new Throwable("Closed pool lent a connection: " + pool));
+    }
+
+    private static void checkAuthenticationFailure() throws FedException {
+        int poolCount = FedPseudoDriver.getPools().size();
+        boolean isConnected = false;
+        try {
+            new FedPseudoDriver(true).getConnection("CHECK", StandInDatabase.INVALID_PASSWORD).close();
+            isConnected = true;
+        } catch (FedException e) {
+            // Expected
+        }
+        if (isConnected || FedPseudoDriver.getPools().size() != poolCount) {
+            throw new FedException(new Throwable("Pool of an invalid password connected or kept: "
+                    + FedPseudoDriver.getPools()));
+        }
+    }
+
+    private static long getCreatedCount() {
+        long created = 0;
+        for (ConnectionPool pool : FedPseudoDriver.getPools()) {
+            created += pool.getCreatedCount();
+        }
+        return created;
+    }
+
+    private static void checkMaxWait(ConnectionPool pool) throws SQLException, FedException {
+        Connection connection = pool.borrow();
+        long start = System.nanoTime();
+        try {
+            pool.borrow();
+            throw new FedException(new Throwable("Full pool lent a second connection: " + pool));
+        } catch (SQLException e) {
+            long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (waited < MAX_WAIT) {
+                throw new FedException(new Throwable("Full pool failed after " + waited + " ms instead of "
+                        + MAX_WAIT + " ms: " + e.getMessage()));
+            }
+        } finally {
+            pool.release(connection);
+        }
+    }
+
+    private static void checkAutoCommit(ConnectionPool pool) throws SQLException, FedException {
+        Connection connection = pool.borrow();
+        connection.setAutoCommit(false);
+        pool.release(connection);
+        connection = pool.borrow();
+        try {
+            if (!connection.getAutoCommit()) {
+                throw new FedException(new Throwable("Released connection keeps auto commit off: " + pool));
+            }
+        } finally {
+            pool.release(connection);
+        }
+    }
+
+    private static void checkEviction(ConnectionPool pool) throws SQLException, FedException,
+            InterruptedException {
+        Connection connection = pool.borrow();
+        pool.release(connection);
+        Thread.sleep(EVICTION_WAIT);
+        if (pool.getIdleCount() != 0 || !connection.isClosed()) {
+            throw new FedException(new Throwable("Idle connection not closed after " + EVICTION_WAIT + " ms: "
+                    + pool));
+        }
+        pool.release(pool.borrow());
+        if (pool.getCreatedCount() != 2) {
+            throw new FedException(new Throwable("No connection opened after eviction: " + pool));
+        }
+    }
+}
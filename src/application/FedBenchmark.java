@@ -0,0 +1,412 @@
+package application;
+
+import fdbs.Topology;
+import fdbs.fjdbc.FedConnection;
+import fdbs.fjdbc.FedException;
+import fdbs.fjdbc.FedPseudoDriver;
+import fdbs.fjdbc.FedResultSet;
+import fdbs.fjdbc.FedStatement;
+import fdbs.metrics.Histogram;
+import fdbs.metrics.MetricsRegistry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Measures the FJDBC stack end to end: throughput and latency of
+ * executeUpdate and executeQuery for CREATE with HORIZONTAL, single row
+ * INSERT, COUNT(*), a SELECT of one row, a join, a SELECT of all orders and
+ * DELETE. The results are
+ * the baseline for performance changes: run it with the same arguments
+ * before and after a change.
+ * <p>
+ * At the end one and then several sessions, each on its own FedConnection
+ * and thread, insert, read back and delete rows of their own. A session
+ * that reads a row of another one, or misses its own, fails the benchmark.
+ * <p>
+ * Usage: FedBenchmark [iterations [warmup [sessions]]], default 2000, 500
+ * and 4. CREATE runs a tenth of the iterations, as it reloads the catalog,
+ * and so does SCAN, as it reads every order. The fetch size and read-ahead
+ * of SCAN are the ones of FedStatement, set with fdbs.fetchSize,
+ * fdbs.prefetchRows and fdbs.unionQueueRows; fdbs.standin.latencyMicros
+ * makes the stand-in databases wait like remote ones.
+ * <p>
+ * Without the system property fdbs.topology the federation is three
+ * StandInDatabases in this JVM, so the numbers are the cost of the
+ * federation layer alone. With it the members of the topology are used,
+ * with the user and password of fdbs.benchmark.user and
+ * fdbs.benchmark.password. The tables BENCH_KUNDE, BENCH_AUFTRAG and
+ * BENCH_DDL are created and dropped.
+ */
+public class FedBenchmark {
+
+    public static final String USER_PROPERTY = "fdbs.benchmark.user";
+    public static final String PASSWORD_PROPERTY = "fdbs.benchmark.password";
+
+    private static final int DEFAULT_ITERATIONS = 2000;
+    private static final int DEFAULT_WARMUP = 500;
+    private static final int DEFAULT_SESSIONS = 4;
+
+    private final FedConnection connection;
+    private final FedStatement statement;
+    private final int iterations;
+    private final int warmup;
+    private final int sessions;
+    // Customers 1 to rows, one order each
+    private final int rows;
+
+    public FedBenchmark(FedConnection connection, int iterations, int warmup, int sessions) {
+        this.connection = connection;
+        this.statement = connection.getStatement();
+        this.iterations = iterations;
+        this.warmup = warmup;
+        this.sessions = Math.max(1, sessions);
+        this.rows = Math.max(iterations + warmup, 3 * this.sessions);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+        int warmup = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_WARMUP;
+        int sessions = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SESSIONS;
+
+        if (System.getProperty(Topology.TOPOLOGY_PROPERTY) == null) {
+            useStandInDatabases(3);
+        }
+        FedConnection connection = connect();
+        try {
+            FedBenchmark benchmark = new FedBenchmark(connection, iterations, warmup, sessions);
+            List<Result> results = benchmark.run();
+            System.out.printf("%-18s %8s %10s %9s %9s %9s %9s%n", "Benchmark", "ops", "ops/s", "mean ms",
+                    "p50 ms", "p99 ms", "max ms");
+            for (Result result : results) {
+                System.out.println(result);
+            }
+            System.out.println();
+            System.out.println("Federation layer metrics, including warmup:");
+            System.out.print(MetricsRegistry.dump());
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static FedConnection connect() throws FedException {
+        return new FedPseudoDriver().getConnection(System.getProperty(USER_PROPERTY, "BENCH"),
+                System.getProperty(PASSWORD_PROPERTY, "BENCH"));
+    }
+
+    /*
+     * Makes the StandInDatabases DB1 to DBn the members of the federation.
+     */
+    static void useStandInDatabases(int count) throws IOException, SQLException, FedException {
+        StandInDatabase.register();
+        Properties topology = new Properties();
+        for (int number = 1; number <= count; number++) {
+            topology.setProperty("member." + number + ".url", StandInDatabase.URL_PREFIX + "DB" + number);
+            topology.setProperty("member." + number + ".name", "standin" + number);
+        }
+        File file = File.createTempFile("fdbs-benchmark", ".properties");
+        file.deleteOnExit();
+        OutputStream output = new FileOutputStream(file);
+        try {
+            topology.store(output, "Stand-in databases of FedBenchmark");
+        } finally {
+            output.close();
+        }
+        Topology.setTopology(file.getPath());
+    }
+
+    /**
+     * Runs every benchmark and returns their results in order. The tables of
+     * the benchmark are dropped at the end.
+     */
+    public List<Result> run() throws FedException {
+        List<Result> results = new ArrayList<Result>();
+        dropTables();
+        try {
+            results.add(measure("CREATE HORIZONTAL", Math.max(1, iterations / 10), Math.max(1, warmup / 10),
+                    new Operation() {
+                        @Override
+                        public void run(int i) throws FedException {
+                            statement.executeUpdate("CREATE TABLE BENCH_DDL (ID integer, NAME varchar(30), "
+                                    + "constraint BENCH_DDL_PS primary key (ID)) HORIZONTAL (ID(100,200))");
+                        }
+
+                        @Override
+                        public void cleanUp(int i) throws FedException {
+                            statement.executeUpdate("DROP TABLE BENCH_DDL CASCADE CONSTRAINTS");
+                        }
+                    }));
+
+            createTables();
+            results.add(measure("INSERT", iterations, warmup, new Operation() {
+                @Override
+                public void run(int i) throws FedException {
+                    statement.executeUpdate("INSERT INTO BENCH_KUNDE VALUES (" + (i + 1) + ", 'Kunde " + (i + 1)
+                            + "', 'Fulda')");
+                }
+            }));
+            loadOrders();
+
+            results.add(measure("COUNT(*)", iterations, warmup, new Operation() {
+                @Override
+                public void run(int i) throws FedException {
+                    read(statement.executeQuery("SELECT COUNT(*) FROM BENCH_KUNDE"));
+                }
+            }));
+            results.add(measure("SELECT one row", iterations, warmup, new Operation() {
+                @Override
+                public void run(int i) throws FedException {
+                    read(statement.executeQuery("SELECT BENCH_KUNDE.KNR, BENCH_KUNDE.NAME FROM BENCH_KUNDE "
+                            + "WHERE (BENCH_KUNDE.KNR = " + (i % rows + 1) + ")"));
+                }
+            }));
+            results.add(measure("JOIN", iterations, warmup, new Operation() {
+                @Override
+                public void run(int i) throws FedException {
+                    read(statement.executeQuery("SELECT BENCH_KUNDE.NAME, BENCH_AUFTRAG.ANR, BENCH_AUFTRAG.BETRAG "
+                            + "FROM BENCH_KUNDE, BENCH_AUFTRAG WHERE (BENCH_KUNDE.KNR = BENCH_AUFTRAG.KNR) "
+                            + "AND (BENCH_KUNDE.KNR = " + (i % rows + 1) + ")"));
+                }
+            }));
+            results.add(measure("SCAN", Math.max(1, iterations / 10), Math.max(1, warmup / 10), new Operation() {
+                @Override
+                public void run(int i) throws FedException {
+                    read(statement.executeQuery("SELECT * FROM BENCH_AUFTRAG"));
+                }
+            }));
+            results.add(measure("DELETE", iterations, warmup, new Operation() {
+                @Override
+                public void run(int i) throws FedException {
+                    statement.executeUpdate("DELETE FROM BENCH_KUNDE WHERE KNR = " + (i + 1));
+                }
+            }));
+
+            results.add(measureSessions(1));
+            if (sessions > 1) {
+                results.add(measureSessions(sessions));
+            }
+        } finally {
+            dropTables();
+        }
+        return results;
+    }
+
+    /*
+     * Both tables have three partitions of about the same number of rows.
+     * The orders are partitioned by their own number, so the join is done by
+     * the federation layer.
+     */
+    private void createTables() throws FedException {
+        String boundaries = "(" + rows / 3 + "," + 2 * rows / 3 + ")";
+        statement.executeUpdate("CREATE TABLE BENCH_KUNDE (KNR integer, NAME varchar(30), ORT varchar(30), "
+                + "constraint BENCH_KUNDE_PS primary key (KNR)) HORIZONTAL (KNR" + boundaries + ")");
+        statement.executeUpdate("CREATE TABLE BENCH_AUFTRAG (ANR integer, KNR integer, BETRAG integer, "
+                + "constraint BENCH_AUFTRAG_PS primary key (ANR)) HORIZONTAL (ANR" + boundaries + ")");
+    }
+
+    private void loadOrders() throws FedException {
+        for (int i = 1; i <= rows; i++) {
+            statement.addBatch("INSERT INTO BENCH_AUFTRAG VALUES (" + i + ", " + i + ", " + (i % 500) + ")");
+        }
+        statement.executeBatch();
+        commit();
+    }
+
+    private void dropTables() {
+        for (String table : new String[]{"BENCH_DDL", "BENCH_AUFTRAG", "BENCH_KUNDE"}) {
+            try {
+                statement.executeUpdate("DROP TABLE " + table + " CASCADE CONSTRAINTS");
+            } catch (FedException e) {
+                // Not there
+            }
+        }
+    }
+
+    private Result measure(String name, int count, int warmupCount, Operation operation) throws FedException {
+        int i = 0;
+        for (; i < warmupCount; i++) {
+            operation.run(i);
+            operation.cleanUp(i);
+        }
+        commit();
+
+        Histogram latencies = new Histogram(Histogram.NANOSECONDS);
+        long total = 0;
+        for (int end = i + count; i < end; i++) {
+            long start = System.nanoTime();
+            operation.run(i);
+            long nanos = System.nanoTime() - start;
+            latencies.record(nanos);
+            total += nanos;
+            operation.cleanUp(i);
+        }
+        commit();
+        return new Result(name, latencies, total);
+    }
+
+    /*
+     * Runs the sessions after a warmup. Every operation is recorded, the
+     * throughput is the one of all sessions together.
+     */
+    private Result measureSessions(int count) throws FedException {
+        runSessions(count, warmup, null);
+        Histogram latencies = new Histogram(Histogram.NANOSECONDS);
+        long nanos = runSessions(count, iterations, latencies);
+        return new Result("SESSIONS x" + count, latencies, nanos);
+    }
+
+    /*
+     * Session s inserts, selects and deletes the keys s, s + count, s + 2 *
+     * count and so on, spread over all partitions, so the sessions never
+     * touch the same row. Returns the time until the last session is done.
+     */
+    private long runSessions(final int count, final int operations, final Histogram latencies)
+            throws FedException {
+        final int keys = rows - rows % count;
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int session = 0; session < count; session++) {
+            final int s = session;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runSession(s, count, keys, operations, latencies);
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            }, "fdbs-benchmark-session-" + session));
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FedException(e);
+        }
+        long nanos = System.nanoTime() - start;
+        if (!failures.isEmpty()) {
+            throw new FedException(new Throwable(failures.size() + " of " + count + " sessions failed: "
+                    + failures.get(0), failures.get(0)));
+        }
+        return nanos;
+    }
+
+    private static void runSession(int session, int count, int keys, int operations, Histogram latencies)
+            throws FedException {
+        FedConnection sessionConnection = connect();
+        try {
+            FedStatement sessionStatement = sessionConnection.getStatement();
+            for (int i = 0; i < operations; i++) {
+                int key = (i * count + session) % keys + 1;
+                long start = System.nanoTime();
+                sessionStatement.executeUpdate("INSERT INTO BENCH_KUNDE VALUES (" + key + ", 'Sitzung "
+                        + session + "', 'Fulda')");
+                long selected = System.nanoTime();
+                FedResultSet resultSet = sessionStatement.executeQuery("SELECT BENCH_KUNDE.KNR, BENCH_KUNDE.NAME "
+                        + "FROM BENCH_KUNDE WHERE (BENCH_KUNDE.KNR = " + key + ")");
+                int found = 0;
+                while (resultSet.next()) {
+                    if (resultSet.getInt(1) != key || !resultSet.getString(2).equals("Sitzung " + session)) {
+                        throw new FedException(new Throwable("Session " + session + " read "
+                                + resultSet.getInt(1) + ", " + resultSet.getString(2) + " for key " + key));
+                    }
+                    found++;
+                }
+                resultSet.close();
+                if (found != 1) {
+                    throw new FedException(new Throwable("Session " + session + " read " + found
+                            + " rows for key " + key));
+                }
+                long deleted = System.nanoTime();
+                sessionStatement.executeUpdate("DELETE FROM BENCH_KUNDE WHERE KNR = " + key);
+                if (latencies != null) {
+                    latencies.record(selected - start);
+                    latencies.record(deleted - selected);
+                    latencies.record(System.nanoTime() - deleted);
+                }
+            }
+            if (!sessionConnection.getAutoCommit()) {
+                sessionConnection.commit();
+            }
+        } finally {
+            sessionConnection.close();
+        }
+    }
+
+    private void commit() throws FedException {
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    /*
+     * A query is only done when its rows are read.
+     */
+    private static void read(FedResultSet resultSet) throws FedException {
+        while (resultSet.next()) {
+            resultSet.getString(1);
+        }
+        resultSet.close();
+    }
+
+    /*
+     * The statement measured, i is counted from 0 over warmup and measurement.
+     * cleanUp is not measured.
+     */
+    private abstract static class Operation {
+        abstract void run(int i) throws FedException;
+
+        void cleanUp(int i) throws FedException {
+        }
+    }
+
+    /**
+     * The latencies of one benchmark. The throughput is given by the time all
+     * operations took, for sessions the time until the last one was done.
+     */
+    public static class Result {
+        private final String name;
+        private final Histogram latencies;
+        private final long totalNanos;
+
+        Result(String name, Histogram latencies, long totalNanos) {
+            this.name = name;
+            this.latencies = latencies;
+            this.totalNanos = totalNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Histogram getLatencies() {
+            return latencies;
+        }
+
+        public double getOperationsPerSecond() {
+            return totalNanos == 0 ? 0 : latencies.getCount() / (totalNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-18s %8d %10.1f %9.3f %9.3f %9.3f %9.3f", name, latencies.getCount(),
+                    getOperationsPerSecond(), latencies.getMean() / 1e6, latencies.getValueAtPercentile(50) / 1e6,
+                    latencies.getValueAtPercentile(99) / 1e6, latencies.getMax() / 1e6);
+        }
+    }
+}
@@ -0,0 +1,682 @@
+package application;
+
+import fdbs.Predicate;
+import fdbs.QueryClauses;
+import fdbs.RowResultSet;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLSyntaxErrorException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * In-process stand-in for an Oracle database of the federation, used by
+ * FedBenchmark instead of the university hosts. Every URL
+ * jdbc:fdbs-standin:name is a database of its own holding its tables in
+ * memory. Any user and password connect, except the password INVALID.
+ * <p>
+ * It understands what the federation layer sends for the benchmark: CREATE
+ * and DROP TABLE with named CHECK constraints, INSERT ... VALUES, DELETE,
+ * SELECT of columns or COUNT(*) from one table, and the catalog queries of
+ * DatabaseCatalog. WHERE and CHECK conditions are evaluated by Predicate;
+ * a violated _HORIZ check is rejected like Oracle does, so inserts are
+ * routed the same way. Other statements, e.g. ALTER SESSION, are accepted
+ * and ignored, and there are no transactions.
+ * <p>
+ * With fdbs.standin.latencyMicros set, every statement and every fetch of
+ * rows waits that long like a round trip to a remote host. Result sets
+ * fetch 10 rows per round trip unless a fetch size is set, like Oracle.
+ */
+public class StandInDatabase {
+
+    public static final String URL_PREFIX = "jdbc:fdbs-standin:";
+    public static final String LATENCY_PROPERTY = "fdbs.standin.latencyMicros";
+    public static final int DEFAULT_FETCH_SIZE = 10;
+    // Rejected like a wrong password by Oracle
+    public static final String INVALID_PASSWORD = "INVALID";
+
+    private static final long latencyNanos = TimeUnit.MICROSECONDS.toNanos(Long.getLong(LATENCY_PROPERTY, 0));
+
+    private static final Map<String, StandInDatabase> databases = new HashMap<String, StandInDatabase>();
+    private static boolean isRegistered;
+
+    private final String name;
+    private final Map<String, Table> tables = new TreeMap<String, Table>();
+
+    private StandInDatabase(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Registers the driver of the stand-in URLs with the DriverManager.
+     */
+    public static synchronized void register() throws SQLException {
+        if (!isRegistered) {
+            DriverManager.registerDriver(new StandInDriver());
+            isRegistered = true;
+        }
+    }
+
+    /**
+     * Returns the database of the name, an empty one the first time.
+     */
+    public static synchronized StandInDatabase getDatabase(String name) {
+        StandInDatabase database = databases.get(name);
+        if (database == null) {
+            database = new StandInDatabase(name);
+            databases.put(name, database);
+        }
+        return database;
+    }
+
+    // Waits for the simulated network, outside of the lock of the database
+    private static void roundTrip() {
+        if (latencyNanos <= 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + latencyNanos;
+        for (long left = latencyNanos; left > 0; left = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(left);
+        }
+    }
+
+    /**
+     * Opens a connection to the database, like DriverManager does for its URL.
+     */
+    public Connection connect() {
+        return (Connection) Proxy.newProxyInstance(StandInDatabase.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandler());
+    }
+
+    public synchronized int executeUpdate(String sql) throws SQLException {
+        String query = sql.trim();
+        String upperQuery = query.toUpperCase();
+        if (upperQuery.startsWith("CREATE TABLE")) {
+            createTable(query);
+            return 0;
+        } else if (upperQuery.startsWith("DROP TABLE")) {
+            tables.remove(getTable(query.substring("DROP TABLE".length())).name);
+            return 0;
+        } else if (upperQuery.startsWith("INSERT")) {
+            return insert(query);
+        } else if (upperQuery.startsWith("DELETE")) {
+            return delete(query);
+        } else if (upperQuery.startsWith("SELECT")) {
+            throw new SQLException("Use executeQuery for " + sql);
+        }
+        // SET, ALTER SESSION and the like
+        return 0;
+    }
+
+    public synchronized ResultSet executeQuery(String sql) throws SQLException {
+        String query = sql.trim();
+        if (query.endsWith(";")) {
+            query = query.substring(0, query.length() - 1).trim();
+        }
+        String upperQuery = query.toUpperCase();
+        if (upperQuery.contains("FROM USER_CONSTRAINTS")) {
+            return getConstraints(getCatalogTable(upperQuery), upperQuery.contains("CONSTRAINT_TYPE = 'R'"));
+        }
+        if (upperQuery.contains("FROM USER_TAB_COLUMNS")) {
+            return getColumns(getCatalogTable(upperQuery));
+        }
+        if (!upperQuery.startsWith("SELECT") || !QueryClauses.isSingleTable(query)
+                || QueryClauses.indexOfKeyword(query, "GROUP") >= 0) {
+            throw new SQLSyntaxErrorException("Not supported by the stand-in database: " + sql);
+        }
+
+        Table table = getTable(QueryClauses.getClause(query, "FROM", "WHERE", "ORDER"));
+        List<Object[]> matches = table.select(getCondition(query));
+        String selectList = QueryClauses.getClause(query, "SELECT", "FROM");
+        if (selectList.replace(" ", "").equalsIgnoreCase("COUNT(*)")) {
+            List<Object[]> count = new ArrayList<Object[]>();
+            count.add(new Object[]{BigDecimal.valueOf(matches.size())});
+            return new StandInResultSet(new String[]{"COUNT(*)"}, count);
+        }
+
+        List<String> columns = new ArrayList<String>();
+        if (selectList.equals("*")) {
+            columns.addAll(table.columns);
+        } else {
+            for (String item : QueryClauses.split(selectList, ',')) {
+                columns.add(item.trim());
+            }
+        }
+        int[] indexes = new int[columns.size()];
+        String[] labels = new String[columns.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = table.indexOf(columns.get(i));
+            if (indexes[i] < 0) {
+                throw new SQLSyntaxErrorException("ORA-00904: \"" + columns.get(i) + "\": invalid identifier");
+            }
+            labels[i] = table.columns.get(indexes[i]);
+        }
+        List<Object[]> rows = new ArrayList<Object[]>(matches.size());
+        for (Object[] match : matches) {
+            Object[] row = new Object[indexes.length];
+            for (int i = 0; i < indexes.length; i++) {
+                row[i] = match[indexes[i]];
+            }
+            rows.add(row);
+        }
+        return new StandInResultSet(labels, rows);
+    }
+
+    private void createTable(String query) throws SQLException {
+        String tableName = firstWord(query.substring("CREATE TABLE".length())).toUpperCase();
+        if (tables.containsKey(tableName)) {
+            throw new SQLException("ORA-00955: name is already used by an existing object");
+        }
+        String definition = query.substring(query.indexOf('(') + 1, query.lastIndexOf(')'));
+        Table table = new Table(tableName);
+        for (String item : QueryClauses.split(definition, ',')) {
+            String element = item.trim();
+            String upperElement = element.toUpperCase();
+            if (upperElement.startsWith("CONSTRAINT")) {
+                String constraintName = firstWord(element.substring("CONSTRAINT".length())).toUpperCase();
+                int check = QueryClauses.indexOfKeyword(element, "CHECK");
+                String condition = null;
+                if (check >= 0) {
+                    condition = element.substring(element.indexOf('(', check) + 1, element.lastIndexOf(')')).trim();
+                }
+                table.addConstraint(constraintName, condition);
+            } else if (!upperElement.startsWith("PRIMARY") && !upperElement.startsWith("FOREIGN")
+                    && !upperElement.startsWith("UNIQUE") && !upperElement.startsWith("CHECK")) {
+                table.columns.add(firstWord(element).toUpperCase());
+            }
+        }
+        tables.put(tableName, table);
+    }
+
+    private int insert(String query) throws SQLException {
+        int values = QueryClauses.indexOfKeyword(query, "VALUES");
+        if (values < 0) {
+            throw new SQLSyntaxErrorException("Not supported by the stand-in database: " + query);
+        }
+        Table table = getTable(firstWord(query.substring(query.toUpperCase().indexOf("INTO") + "INTO".length())));
+        String valueList = query.substring(query.indexOf('(', values) + 1, query.lastIndexOf(')'));
+        List<String> literals = QueryClauses.split(valueList, ',');
+        if (literals.size() != table.columns.size()) {
+            throw new SQLSyntaxErrorException("ORA-00913: too many or not enough values");
+        }
+        Object[] row = new Object[literals.size()];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = toValue(literals.get(i).trim());
+        }
+        table.insert(row);
+        return 1;
+    }
+
+    private int delete(String query) throws SQLException {
+        Table table = getTable(QueryClauses.getClause(query, "FROM", "WHERE"));
+        Predicate condition = getCondition(query);
+        int count = 0;
+        for (Iterator<Object[]> rows = table.rows.iterator(); rows.hasNext(); ) {
+            if (table.matches(condition, rows.next())) {
+                rows.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Table of a catalog query "... WHERE TABLE_NAME = 'X'", null for all
+     * tables.
+     */
+    private static String getCatalogTable(String upperQuery) {
+        String condition = "TABLE_NAME = '";
+        int start = upperQuery.indexOf(condition);
+        if (start < 0) {
+            return null;
+        }
+        start += condition.length();
+        return upperQuery.substring(start, upperQuery.indexOf('\'', start));
+    }
+
+    private ResultSet getConstraints(String tableName, boolean isReferential) {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        if (!isReferential) {
+            for (Table table : getTables(tableName)) {
+                // Every table has a primary key in the test schemas, the catalog finds tables by their constraints
+                rows.add(new Object[]{table.name, null, table.name + "_PK"});
+                for (Map.Entry<String, String> constraint : table.constraints.entrySet()) {
+                    rows.add(new Object[]{table.name, constraint.getValue(), constraint.getKey()});
+                }
+            }
+        }
+        return new StandInResultSet(isReferential ? new String[]{"CONSTRAINT_NAME"}
+                : new String[]{"TABLE_NAME", "SEARCH_CONDITION", "CONSTRAINT_NAME"}, rows);
+    }
+
+    private ResultSet getColumns(String tableName) {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (Table table : getTables(tableName)) {
+            for (String column : table.columns) {
+                rows.add(new Object[]{table.name, column});
+            }
+        }
+        return new StandInResultSet(new String[]{"TABLE_NAME", "COLUMN_NAME"}, rows);
+    }
+
+    private Collection<Table> getTables(String tableName) {
+        if (tableName == null) {
+            return tables.values();
+        }
+        Table table = tables.get(tableName);
+        return table == null ? Collections.<Table>emptyList() : Collections.singletonList(table);
+    }
+
+    private Table getTable(String tableName) throws SQLException {
+        Table table = tableName == null ? null : tables.get(firstWord(tableName).toUpperCase());
+        if (table == null) {
+            throw new SQLSyntaxErrorException("ORA-00942: table or view " + tableName + " does not exist");
+        }
+        return table;
+    }
+
+    private static Predicate getCondition(String query) throws SQLException {
+        String where = QueryClauses.getWhereCondition(query);
+        if (where == null) {
+            return null;
+        }
+        int orderBy = QueryClauses.indexOfOrderBy(where);
+        Predicate condition = Predicate.parse(orderBy < 0 ? where : where.substring(0, orderBy));
+        if (condition == null) {
+            throw new SQLSyntaxErrorException("Not supported by the stand-in database: " + where);
+        }
+        return condition;
+    }
+
+    private static String firstWord(String text) {
+        String trimmed = text.trim();
+        int end = 0;
+        while (end < trimmed.length() && " (,;\t\r\n".indexOf(trimmed.charAt(end)) < 0) {
+            end++;
+        }
+        return trimmed.substring(0, end);
+    }
+
+    private static Object toValue(String literal) throws SQLException {
+        if (literal.equalsIgnoreCase("NULL")) {
+            return null;
+        }
+        if (literal.startsWith("'") && literal.endsWith("'") && literal.length() > 1) {
+            return literal.substring(1, literal.length() - 1).replace("''", "'");
+        }
+        try {
+            return new BigDecimal(literal);
+        } catch (NumberFormatException e) {
+            throw new SQLSyntaxErrorException("ORA-00984: column not allowed here: " + literal);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StandInDatabase[" + name + " " + tables.keySet() + "]";
+    }
+
+    /*
+     * Rows of one table. CHECK constraints are evaluated on insert, an unknown
+     * result passes like in SQL.
+     */
+    private static class Table {
+        final String name;
+        final List<String> columns = new ArrayList<String>();
+        final Map<String, String> constraints = new LinkedHashMap<String, String>();
+        final Map<String, Predicate> checks = new LinkedHashMap<String, Predicate>();
+        final List<Object[]> rows = new ArrayList<Object[]>();
+
+        Table(String name) {
+            this.name = name;
+        }
+
+        void addConstraint(String constraintName, String condition) {
+            constraints.put(constraintName, condition);
+            Predicate check = condition == null ? null : Predicate.parse(condition);
+            if (check != null) {
+                checks.put(constraintName, check);
+            }
+        }
+
+        int indexOf(String column) {
+            String name = column.substring(column.indexOf('.') + 1).replace("\"", "").trim();
+            for (int i = 0; i < columns.size(); i++) {
+                if (columns.get(i).equalsIgnoreCase(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void insert(Object[] row) throws SQLException {
+            for (Map.Entry<String, Predicate> check : checks.entrySet()) {
+                if (Boolean.FALSE.equals(check.getValue().evaluate(getValues(row)))) {
+                    throw new SQLIntegrityConstraintViolationException("ORA-02290: check constraint ("
+                            + check.getKey() + ") violated");
+                }
+            }
+            rows.add(row);
+        }
+
+        List<Object[]> select(Predicate condition) {
+            List<Object[]> matches = new ArrayList<Object[]>();
+            for (Object[] row : rows) {
+                if (matches(condition, row)) {
+                    matches.add(row);
+                }
+            }
+            return matches;
+        }
+
+        boolean matches(Predicate condition, Object[] row) {
+            return condition == null || Boolean.TRUE.equals(condition.evaluate(getValues(row)));
+        }
+
+        Predicate.Values getValues(final Object[] row) {
+            return new Predicate.Values() {
+                @Override
+                public Object getValue(String operand) {
+                    int index = indexOf(operand);
+                    return index < 0 ? null : row[index];
+                }
+            };
+        }
+    }
+
+    /*
+     * Rows of a query, read by the federation layer like the rows of Oracle.
+     */
+    private static class StandInResultSet extends RowResultSet {
+        private final String[] labels;
+        private final List<Object[]> rows;
+        private int position = -1;
+        private int fetchSize = DEFAULT_FETCH_SIZE;
+        private boolean isClosed;
+
+        StandInResultSet(String[] labels, List<Object[]> rows) {
+            super(Collections.<ResultSet>emptyList());
+            this.labels = labels;
+            this.rows = rows;
+        }
+
+        @Override
+        public boolean next() throws SQLException {
+            if (position < rows.size()) {
+                position++;
+                // The first rows come with the query, the next ones with a round trip per fetch
+                if (position > 0 && position % fetchSize == 0) {
+                    roundTrip();
+                }
+            }
+            return position < rows.size();
+        }
+
+        @Override
+        public void setFetchSize(int rows) throws SQLException {
+            fetchSize = rows > 0 ? rows : DEFAULT_FETCH_SIZE;
+        }
+
+        @Override
+        public int getFetchSize() throws SQLException {
+            return fetchSize;
+        }
+
+        @Override
+        protected Object[] getCurrentRow() {
+            return position >= 0 && position < rows.size() ? rows.get(position) : null;
+        }
+
+        @Override
+        public ResultSetMetaData getMetaData() throws SQLException {
+            return (ResultSetMetaData) Proxy.newProxyInstance(StandInDatabase.class.getClassLoader(),
+                    new Class<?>[]{ResultSetMetaData.class}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            String methodName = method.getName();
+                            if (methodName.equals("getColumnCount")) {
+                                return labels.length;
+                            }
+                            if (args == null || args.length != 1 || !(args[0] instanceof Integer)) {
+                                return defaultValue(method.getReturnType());
+                            }
+                            int column = (Integer) args[0] - 1;
+                            boolean isNumber = isNumber(column);
+                            if (methodName.equals("getColumnName") || methodName.equals("getColumnLabel")) {
+                                return labels[column];
+                            } else if (methodName.equals("getColumnType")) {
+                                return isNumber ? Types.NUMERIC : Types.VARCHAR;
+                            } else if (methodName.equals("getColumnTypeName")) {
+                                return isNumber ? "NUMBER" : "VARCHAR2";
+                            } else if (methodName.equals("getColumnClassName")) {
+                                return isNumber ? BigDecimal.class.getName() : String.class.getName();
+                            } else if (methodName.equals("isNullable")) {
+                                return ResultSetMetaData.columnNullableUnknown;
+                            }
+                            return defaultValue(method.getReturnType());
+                        }
+                    });
+        }
+
+        // The stand-in keeps no column types, a column is a number if its first value is one
+        private boolean isNumber(int column) {
+            for (Object[] row : rows) {
+                if (row[column] != null) {
+                    return row[column] instanceof Number;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            isClosed = true;
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return isClosed;
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    /*
+     * A connection of the stand-in. Commit and rollback do nothing.
+     */
+    private class ConnectionHandler implements InvocationHandler {
+        private boolean isClosed;
+        private boolean isAutoCommit = true;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            if (methodName.equals("createStatement")) {
+                return Proxy.newProxyInstance(StandInDatabase.class.getClassLoader(),
+                        new Class<?>[]{Statement.class}, new StatementHandler((Connection) proxy));
+            } else if (methodName.equals("prepareStatement") || methodName.equals("prepareCall")) {
+                throw new SQLFeatureNotSupportedException("The stand-in database has no prepared statements");
+            } else if (methodName.equals("setAutoCommit")) {
+                isAutoCommit = (Boolean) args[0];
+            } else if (methodName.equals("getAutoCommit")) {
+                return isAutoCommit;
+            } else if (methodName.equals("isValid")) {
+                return !isClosed;
+            } else if (methodName.equals("isClosed")) {
+                return isClosed;
+            } else if (methodName.equals("close")) {
+                isClosed = true;
+            } else if (methodName.equals("getMetaData")) {
+                return Proxy.newProxyInstance(StandInDatabase.class.getClassLoader(),
+                        new Class<?>[]{DatabaseMetaData.class}, new InvocationHandler() {
+                            @Override
+                            public Object invoke(Object proxy, Method method, Object[] args) {
+                                return method.getName().equals("getURL") ? URL_PREFIX + name
+                                        : defaultValue(method.getReturnType());
+                            }
+                        });
+            } else if (methodName.equals("toString")) {
+                return "StandInConnection[" + name + "]";
+            } else if (methodName.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (methodName.equals("equals")) {
+                return proxy == args[0];
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    private class StatementHandler implements InvocationHandler {
+        private final Connection connection;
+        private final List<String> batch = new ArrayList<String>();
+        private boolean isClosed;
+        private int fetchSize;
+
+        StatementHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            if (methodName.equals("executeQuery")) {
+                roundTrip();
+                ResultSet resultSet = executeQuery((String) args[0]);
+                resultSet.setFetchSize(fetchSize);
+                return resultSet;
+            } else if (methodName.equals("executeUpdate")) {
+                roundTrip();
+                return executeUpdate((String) args[0]);
+            } else if (methodName.equals("execute")) {
+                roundTrip();
+                executeUpdate((String) args[0]);
+                return false;
+            } else if (methodName.equals("addBatch")) {
+                batch.add((String) args[0]);
+            } else if (methodName.equals("clearBatch")) {
+                batch.clear();
+            } else if (methodName.equals("executeBatch")) {
+                return executeBatch();
+            } else if (methodName.equals("setFetchSize")) {
+                fetchSize = (Integer) args[0];
+            } else if (methodName.equals("getFetchSize")) {
+                return fetchSize;
+            } else if (methodName.equals("getConnection")) {
+                return connection;
+            } else if (methodName.equals("close")) {
+                isClosed = true;
+            } else if (methodName.equals("isClosed")) {
+                return isClosed;
+            } else if (methodName.equals("toString")) {
+                return "StandInStatement[" + name + "]";
+            } else if (methodName.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (methodName.equals("equals")) {
+                return proxy == args[0];
+            }
+            return defaultValue(method.getReturnType());
+        }
+
+        private int[] executeBatch() throws SQLException {
+            roundTrip();
+            int[] counts = new int[batch.size()];
+            try {
+                for (int i = 0; i < counts.length; i++) {
+                    try {
+                        counts[i] = executeUpdate(batch.get(i));
+                    } catch (SQLException e) {
+                        // Stops at the first failure, like Oracle
+                        throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(),
+                                Arrays.copyOf(counts, i), e);
+                    }
+                }
+            } finally {
+                batch.clear();
+            }
+            return counts;
+        }
+    }
+
+    /*
+     * Connects the URLs starting with URL_PREFIX to the stand-in databases.
+     */
+    private static class StandInDriver implements Driver {
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            if (INVALID_PASSWORD.equals(info.getProperty("password"))) {
+                throw new SQLException("ORA-01017: invalid username/password; logon denied", "72000", 1017);
+            }
+            return getDatabase(url.substring(URL_PREFIX.length())).connect();
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url != null && url.startsWith(URL_PREFIX);
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+}
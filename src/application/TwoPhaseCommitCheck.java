@@ -0,0 +1,225 @@
+package application;
+
+import fdbs.fjdbc.DecisionLog;
+import fdbs.fjdbc.FedException;
+import fdbs.fjdbc.TwoPhaseCommit;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks TwoPhaseCommit with stand-in participants that fail on request:
+ * <ul>
+ * <li>a participant fails to prepare: every one rolls back</li>
+ * <li>a participant fails to commit: the others commit, recover commits it</li>
+ * <li>a participant fails to recover: a later recover finishes it</li>
+ * <li>a participant can not tell whether it recovered: the transaction is
+ * UNRESOLVED, later recovers leave it alone and it stays in the log until
+ * it is acknowledged</li>
+ * <li>the log can not be written: every participant rolls back</li>
+ * </ul>
+ * The log is compacted every second transaction and has to be empty once
+ * every transaction is finished. A failed check throws a FedException.
+ * <p>
+ * Usage: TwoPhaseCommitCheck
+ */
+public class TwoPhaseCommitCheck {
+
+    public static void main(String[] args) throws Exception {
+        File logFile = File.createTempFile("fdbs-check", ".log");
+        logFile.deleteOnExit();
+        DecisionLog log = new DecisionLog(logFile);
+        try {
+            TwoPhaseCommit coordinator = new TwoPhaseCommit(log, 2);
+            checkFailedPrepare(coordinator, logFile);
+            checkFailedCommit(coordinator, log);
+            checkUnresolved(coordinator, log);
+        } finally {
+            log.close();
+        }
+        checkFailedLog(logFile);
+        System.out.println("Two phase commit with failing participants and log: OK");
+    }
+
+    private static void checkFailedPrepare(TwoPhaseCommit coordinator, File logFile) throws FedException {
+        Map<Integer, StandInParticipant> participants = createParticipants();
+        coordinator.commit(participants);
+        checkParticipants("all prepared", participants, true);
+
+        participants = createParticipants();
+        participants.get(2).failsPrepare = true;
+        checkFailingCommit("prepare fails", coordinator, participants);
+        checkParticipants("prepare fails", participants, false);
+        checkLogCompacted("after two transactions", logFile);
+    }
+
+    /*
+     * The commit fails on one participant, so does the first recover. The
+     * second one finishes the transaction.
+     */
+    private static void checkFailedCommit(TwoPhaseCommit coordinator, DecisionLog log) throws FedException {
+        Map<Integer, StandInParticipant> participants = createParticipants();
+        participants.get(3).failsCommit = true;
+        checkFailingCommit("commit fails", coordinator, participants);
+        if (!participants.get(1).isCommitted || !participants.get(2).isCommitted) {
+            throw new FedException(new Throwable("2PC commit fails: " + participants));
+        }
+
+        participants.get(3).failsRecover = true;
+        // A coordinator of a later run, its transaction ids differ
+        waitForNextMillisecond();
+        if (!new TwoPhaseCommit(log).recover(participants).isEmpty() || log.getFile().length() == 0) {
+            throw new FedException(new Throwable("2PC recover fails: transaction not kept in the log "
+                    + participants));
+        }
+
+        participants.get(3).failsRecover = false;
+        waitForNextMillisecond();
+        if (!new TwoPhaseCommit(log).recover(participants).isEmpty()) {
+            throw new FedException(new Throwable("2PC commit fails: not recovered " + participants));
+        }
+        checkParticipants("commit fails", participants, true);
+        checkLogCompacted("after recover", log.getFile());
+    }
+
+    /*
+     * The commit fails on one participant and recover can not tell whether
+     * it reached the database. The transaction has to stay in the log, not
+     * recovered again, until it is acknowledged.
+     */
+    private static void checkUnresolved(TwoPhaseCommit coordinator, DecisionLog log) throws FedException {
+        Map<Integer, StandInParticipant> participants = createParticipants();
+        participants.get(3).failsCommit = true;
+        participants.get(3).cannotTell = true;
+        checkFailingCommit("commit unresolved", coordinator, participants);
+
+        waitForNextMillisecond();
+        if (new TwoPhaseCommit(log).recover(participants).size() != 1) {
+            throw new FedException(new Throwable("2PC recover fails: transaction not unresolved " + participants));
+        }
+        participants.get(3).cannotTell = false;
+        waitForNextMillisecond();
+        TwoPhaseCommit later = new TwoPhaseCommit(log);
+        if (!later.recover(participants).isEmpty() || participants.get(3).isCommitted
+                || log.getFile().length() == 0) {
+            throw new FedException(new Throwable("2PC recover fails: unresolved transaction recovered again "
+                    + participants));
+        }
+
+        List<DecisionLog.Transaction> unresolved = later.getUnresolved();
+        if (unresolved.size() != 1 || !unresolved.get(0).getUnresolvedMembers().equals(Arrays.asList(3))) {
+            throw new FedException(new Throwable("2PC unresolved transactions: " + unresolved));
+        }
+        later.acknowledge(unresolved.get(0).getId());
+        checkLogCompacted("after acknowledge", log.getFile());
+    }
+
+    /*
+     * The directory of the log can not be created, as it would be a file.
+     */
+    private static void checkFailedLog(File logFile) throws FedException {
+        TwoPhaseCommit coordinator = new TwoPhaseCommit(new DecisionLog(new File(logFile, "fedtx.log")));
+        Map<Integer, StandInParticipant> participants = createParticipants();
+        checkFailingCommit("log fails", coordinator, participants);
+        checkParticipants("log fails", participants, false);
+    }
+
+    private static Map<Integer, StandInParticipant> createParticipants() {
+        Map<Integer, StandInParticipant> participants = new HashMap<Integer, StandInParticipant>();
+        for (int dbNumber = 1; dbNumber <= 3; dbNumber++) {
+            participants.put(dbNumber, new StandInParticipant());
+        }
+        return participants;
+    }
+
+    private static void checkFailingCommit(String check, TwoPhaseCommit coordinator,
+                                           Map<Integer, StandInParticipant> participants) throws FedException {
+        try {
+            coordinator.commit(participants);
+        } catch (FedException e) {
+            return;
+        }
+        throw new FedException(new Throwable("2PC " + check + ": no FedException"));
+    }
+
+    private static void checkParticipants(String check, Map<Integer, StandInParticipant> participants,
+                                          boolean committed) throws FedException {
+        for (StandInParticipant participant : participants.values()) {
+            if (participant.isCommitted != committed || participant.isRolledBack == committed) {
+                throw new FedException(new Throwable("2PC " + check + ": " + participants));
+            }
+        }
+    }
+
+    private static void checkLogCompacted(String check, File logFile) throws FedException {
+        if (logFile.length() != 0) {
+            throw new FedException(new Throwable("2PC log " + check + " keeps " + logFile.length()
+                    + " bytes of finished transactions"));
+        }
+    }
+
+    private static void waitForNextMillisecond() {
+        long now = System.currentTimeMillis();
+        while (System.currentTimeMillis() == now) {
+            Thread.yield();
+        }
+    }
+
+    /*
+     * A database of the check that fails on request. A failed commit leaves
+     * its work to recover.
+     */
+    private static class StandInParticipant implements TwoPhaseCommit.Participant {
+        private boolean failsPrepare;
+        private boolean failsCommit;
+        private boolean failsRecover;
+        private boolean cannotTell;
+        private boolean isCommitted;
+        private boolean isRolledBack;
+
+        @Override
+        public void prepare(String transactionId) throws SQLException {
+            if (failsPrepare) {
+                throw new SQLException("Stand-in participant can not prepare " + transactionId);
+            }
+        }
+
+        @Override
+        public void commit(String transactionId) throws SQLException {
+            if (failsCommit) {
+                throw new SQLException("Stand-in participant can not commit " + transactionId);
+            }
+            isCommitted = true;
+        }
+
+        @Override
+        public void rollback(String transactionId) throws SQLException {
+            isRolledBack = true;
+        }
+
+        @Override
+        public boolean recover(String transactionId, boolean commit) throws SQLException {
+            if (failsRecover) {
+                throw new SQLException("Stand-in participant can not recover " + transactionId);
+            }
+            if (cannotTell) {
+                return false;
+            }
+            if (commit) {
+                isCommitted = true;
+            } else {
+                isRolledBack = true;
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return isCommitted ? "committed" : isRolledBack ? "rolled back" : "open";
+        }
+    }
+}
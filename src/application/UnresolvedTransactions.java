@@ -0,0 +1,32 @@
+package application;
+
+import fdbs.fjdbc.DecisionLog;
+import fdbs.fjdbc.TwoPhaseCommit;
+
+import java.util.List;
+
+/**
+ * Lists the UNRESOLVED transactions of the transaction log, the file of
+ * fdbs.transactionLog: transactions recover could not tell the outcome of on
+ * some databases. Once the data of those databases is checked, and fixed by
+ * hand where needed, the transactions given as arguments are acknowledged
+ * and dropped from the log.
+ * <p>
+ * Usage: UnresolvedTransactions [transactionId ...]
+ */
+public class UnresolvedTransactions {
+
+    public static void main(String[] args) throws Exception {
+        TwoPhaseCommit coordinator = TwoPhaseCommit.getDefault();
+        for (String transactionId : args) {
+            coordinator.acknowledge(transactionId);
+            System.out.println("Acknowledged " + transactionId);
+        }
+
+        List<DecisionLog.Transaction> unresolved = coordinator.getUnresolved();
+        System.out.println(unresolved.size() + " unresolved transactions");
+        for (DecisionLog.Transaction transaction : unresolved) {
+            System.out.println(transaction);
+        }
+    }
+}
@@ -24,12 +24,10 @@ public abstract class AbstractResultSet implements ResultSet {
 
     @Override
     public boolean next() throws SQLException {
-        boolean hasNext = false;
+        // Every result set is moved, so they stay on the same row
+        boolean hasNext = !list.isEmpty();
         for (ResultSet rs : list) {
-            hasNext = rs.next();
-            if (!hasNext) {
-                break;
-            }
+            hasNext = rs.next() && hasNext;
         }
         return hasNext;
     }
@@ -216,7 +214,7 @@ public abstract class AbstractResultSet implements ResultSet {
 
     @Override
     public ResultSetMetaData getMetaData() throws SQLException {
-        return list.get(1).getMetaData();
+        return list.get(0).getMetaData();
     }
 
     @Override
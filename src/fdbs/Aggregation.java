@@ -0,0 +1,225 @@
+package fdbs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The select list of a SELECT with GROUP BY, split into group columns and
+ * aggregates. Every database computes the aggregates of its own rows (partial
+ * aggregates), GroupByResultSet merges them per group: COUNT and SUM are
+ * added up, MIN and MAX are compared. AVG(X) is sent to the databases as
+ * SUM(X) and a hidden COUNT(X) at the end of the select list, see
+ * getPartialQuery, and the merged sum is divided by the merged count.
+ * <p>
+ * Aggregates that can not be merged from partial aggregates, like
+ * COUNT(DISTINCT ...), are not supported; parse returns null for them.
+ */
+public class Aggregation {
+
+    public static final int GROUP_COLUMN = 0;
+    public static final int COUNT = 1;
+    public static final int SUM = 2;
+    public static final int MIN = 3;
+    public static final int MAX = 4;
+    public static final int AVG = 5;
+
+    private final List<String> expressions = new ArrayList<String>();
+    private final List<Integer> functions = new ArrayList<Integer>();
+    // Zero based positions of the AVG columns
+    private final List<Integer> averages = new ArrayList<Integer>();
+
+    /**
+     * Analyzes the select list and GROUP BY of the query. Returns null if the
+     * query can not be merged from partial aggregates, e.g. because a GROUP BY
+     * column is not selected.
+     */
+    public static Aggregation parse(String query) {
+        String selectList = QueryClauses.getClause(query, "SELECT", "FROM");
+        String groupBy = QueryClauses.getClause(query, "GROUP", "HAVING", "ORDER");
+        if (selectList == null || groupBy == null || !startsWithWord(groupBy, "BY")
+                || startsWithWord(selectList, "DISTINCT")) {
+            return null;
+        }
+
+        Aggregation aggregation = new Aggregation();
+        for (String item : QueryClauses.split(selectList, ',')) {
+            String expression = normalize(item);
+            int function = getFunction(expression);
+            if (function < 0) {
+                return null;
+            }
+            if (function == AVG) {
+                aggregation.averages.add(aggregation.expressions.size());
+            }
+            aggregation.expressions.add(expression);
+            aggregation.functions.add(function);
+        }
+
+        // Rows of a group have to be equal in all selected group columns
+        for (String column : QueryClauses.split(groupBy.substring(2), ',')) {
+            if (aggregation.indexOfGroupColumn(normalize(column)) < 0) {
+                return null;
+            }
+        }
+        return aggregation;
+    }
+
+    public int getColumnCount() {
+        return expressions.size();
+    }
+
+    /**
+     * Returns the number of columns of the partial query: the selected ones
+     * and the hidden count of every AVG.
+     */
+    public int getPartialColumnCount() {
+        return expressions.size() + averages.size();
+    }
+
+    /*
+     * Function of the column of the partial query at the zero based
+     * position, GROUP_COLUMN for a column the rows are grouped by and COUNT
+     * for the hidden count of an AVG.
+     */
+    public int getFunction(int index) {
+        return index < functions.size() ? functions.get(index) : COUNT;
+    }
+
+    /**
+     * Returns the zero based positions of the AVG columns.
+     */
+    public List<Integer> getAverages() {
+        return new ArrayList<Integer>(averages);
+    }
+
+    /**
+     * Returns the zero based position of the hidden count of the AVG column
+     * at the position.
+     */
+    public int getCountIndex(int averageIndex) {
+        return expressions.size() + averages.indexOf(averageIndex);
+    }
+
+    /**
+     * Returns the query the databases compute the partial aggregates with,
+     * the query that was parsed with every AVG(X) replaced by SUM(X) and
+     * COUNT(X) added at the end of the select list. The sum keeps the label
+     * of the AVG, so the result columns are named as the query asked for.
+     */
+    public String getPartialQuery(String query) {
+        if (averages.isEmpty()) {
+            return query;
+        }
+        int selectIndex = QueryClauses.indexOfKeyword(query, "SELECT") + "SELECT".length();
+        int fromIndex = QueryClauses.indexOfKeyword(query, "FROM");
+        List<String> items = QueryClauses.split(query.substring(selectIndex, fromIndex), ',');
+        StringBuilder counts = new StringBuilder();
+        for (int index : averages) {
+            String item = items.get(index).trim();
+            String argument = item.substring(item.indexOf('(') + 1, item.lastIndexOf(')'));
+            String alias = item.substring(item.lastIndexOf(')') + 1).trim();
+            items.set(index, " SUM(" + argument + ") "
+                    + (alias.isEmpty() ? "\"" + expressions.get(index).replace("\"", "") + "\"" : alias));
+            counts.append(", COUNT(").append(argument).append(")");
+        }
+        return query.substring(0, selectIndex) + String.join(",", items) + counts + " "
+                + query.substring(fromIndex);
+    }
+
+    /**
+     * Returns the zero based position of the selected expression, -1 if it is
+     * not selected. An alias, or a column without table name, matches too.
+     */
+    public int indexOf(String expression) {
+        String normalized = normalize(expression);
+        for (int i = 0; i < expressions.size(); i++) {
+            if (matches(expressions.get(i), normalized)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOfGroupColumn(String column) {
+        for (int i = 0; i < expressions.size(); i++) {
+            if (functions.get(i) == GROUP_COLUMN && matches(expressions.get(i), column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(String selected, String expression) {
+        if (selected.equals(expression) || unqualified(selected).equals(unqualified(expression))) {
+            return true;
+        }
+        // "T.A AS X" or "T.A X" is selected
+        int alias = selected.lastIndexOf(' ');
+        return alias > 0 && (selected.substring(alias + 1).equals(expression)
+                || matches(selected.substring(0, alias).replaceAll(" AS$", ""), expression));
+    }
+
+    private static String unqualified(String expression) {
+        int dot = expression.lastIndexOf('.');
+        return dot >= 0 && expression.indexOf('(') < 0 && expression.indexOf(' ') < 0
+                ? expression.substring(dot + 1) : expression;
+    }
+
+    /*
+     * Returns the function of the select expression, GROUP_COLUMN if it is no
+     * aggregate, or -1 if it is an aggregate that can not be merged.
+     */
+    private static int getFunction(String expression) {
+        int paren = expression.indexOf('(');
+        if (paren < 0) {
+            return GROUP_COLUMN;
+        }
+        String name = expression.substring(0, paren).trim();
+        String argument = expression.substring(paren + 1).trim();
+        if (startsWithWord(argument, "DISTINCT") || expression.lastIndexOf(')') < expression.length() - 1
+                && !isAlias(expression.substring(expression.lastIndexOf(')') + 1))) {
+            return -1;
+        }
+        if (name.equals("COUNT")) {
+            return COUNT;
+        } else if (name.equals("SUM")) {
+            return SUM;
+        } else if (name.equals("MIN")) {
+            return MIN;
+        } else if (name.equals("MAX")) {
+            return MAX;
+        } else if (name.equals("AVG")) {
+            return AVG;
+        }
+        return -1;
+    }
+
+    private static boolean isAlias(String text) {
+        String alias = text.trim();
+        if (alias.startsWith("AS ")) {
+            alias = alias.substring(3).trim();
+        }
+        return alias.matches("[A-Z_\"][A-Z0-9_$#\"]*");
+    }
+
+    private static boolean startsWithWord(String text, String word) {
+        return text.regionMatches(true, 0, word, 0, word.length())
+                && (text.length() == word.length() || !Character.isLetterOrDigit(text.charAt(word.length())));
+    }
+
+    /*
+     * Upper case, blanks inside parens and around dots and commas removed,
+     * other blanks collapsed, so "count (*)" and "COUNT(*)" are the same
+     * expression.
+     */
+    static String normalize(String expression) {
+        String normalized = expression.trim().toUpperCase().replaceAll("\\s+", " ");
+        return normalized.replaceAll(" ?\\( ?", "(").replaceAll(" \\)", ")")
+                .replaceAll(" ?([.,]) ?", "$1");
+    }
+
+    @Override
+    public String toString() {
+        return "Aggregation" + expressions + functions;
+    }
+}
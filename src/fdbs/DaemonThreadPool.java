@@ -0,0 +1,56 @@
+package fdbs;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the thread pools of the federation layer. Their threads are daemon
+ * threads, an application does not have to shut the pools down to stop, and
+ * they end after a minute without work.
+ */
+public class DaemonThreadPool {
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private DaemonThreadPool() {
+    }
+
+    /**
+     * Returns a pool of up to the given number of threads, further tasks wait
+     * in a queue. For tasks that do not wait for each other.
+     */
+    public static ThreadPoolExecutor newBoundedPool(String name, int threads) {
+        int size = Math.max(1, threads);
+        ThreadPoolExecutor executor = newPool(name, size, size, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Returns a pool with a thread per running task. For tasks that wait for
+     * the reader of their rows, queued they could wait for each other.
+     */
+    public static ThreadPoolExecutor newCachedPool(String name) {
+        return newPool(name, 0, Integer.MAX_VALUE, new SynchronousQueue<Runnable>());
+    }
+
+    private static ThreadPoolExecutor newPool(final String name, int coreThreads, int maxThreads,
+            BlockingQueue<Runnable> queue) {
+        return new ThreadPoolExecutor(coreThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                queue, new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+}
@@ -3,87 +3,387 @@ package fdbs;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
+/**
+ * What the databases hold per table: its columns, the databases holding it
+ * and its partitioning, read from USER_CONSTRAINTS and USER_TAB_COLUMNS.
+ * <p>
+ * The catalog is shared by all connections. It is loaded when the first
+ * FedStatement is created. Afterwards only the table of a CREATE or DROP
+ * sent through the federation layer is read again, see refresh(String).
+ * Lookups do not lock, a table is replaced as a whole, so readers see either
+ * its old or its new entry. Tables created or dropped on the databases
+ * directly need a refresh().
+ * <p>
+ * The getStatementsFor methods pick from the JDBC Statements of the calling
+ * connection, by database number.
+ */
 public class DatabaseCatalog {
 
-    private static HashMap<Integer, Statement> statementsMap;
-    private static HashMap<Integer, HashMap<String, String>> partitionedTables = new HashMap<>();
-    private static HashMap<Integer, Set<String>> allTablesWithDBs = new HashMap<>();
+    // Entry of every table by upper case name
+    private static final ConcurrentHashMap<String, Table> tables = new ConcurrentHashMap<String, Table>();
+    private static volatile boolean isLoaded;
+    // Separates the tables of "A JOIN B ON ..." or "A LEFT OUTER JOIN B ON ..."
+    private static final Pattern JOIN = Pattern.compile(
+            "(?i)\\s(?:(?:INNER|LEFT|RIGHT|FULL|CROSS|NATURAL)\\s+)*(?:OUTER\\s+)?JOIN\\s");
 
 
-    public static void setStatementsMap(HashMap<Integer, Statement> map) {
-        statementsMap = map;
-        initCatalog();
+    /*
+     * Loads the catalog through the statements, on first use only.
+     */
+    public static void load(HashMap<Integer, Statement> statements) {
+        if (!isLoaded) {
+            synchronized (DatabaseCatalog.class) {
+                if (!isLoaded) {
+                    load(statements, null);
+                    isLoaded = true;
+                }
+            }
+        }
+    }
+
+    /*
+     * Reloads the whole catalog, e.g. after tables were created or dropped
+     * on the databases directly.
+     */
+    public static synchronized void refresh(HashMap<Integer, Statement> statements) {
+        load(statements, null);
+        isLoaded = true;
     }
 
-    private static void initCatalog() {
-        // Sets partitioned tables
-        Statement statement = null;
-        for (Integer statementKey : statementsMap.keySet()) {
-            statement = statementsMap.get(statementKey);
+    /*
+     * Reloads the entry of one table, must be called after the table was
+     * created or dropped.
+     */
+    public static synchronized void refresh(HashMap<Integer, Statement> statements, String table) {
+        if (table != null) {
+            load(statements, toKey(table));
+        }
+    }
+
+    /*
+     * Reads the catalog of the table, or of all tables if it is null, from
+     * every database and replaces their entries.
+     */
+    private static void load(HashMap<Integer, Statement> statements, String table) {
+        // Ranges of the partitioned tables per table and database
+        HashMap<String, Map<Integer, PartitionRange>> ranges = new HashMap<>();
+        // Tables with a _HORIZ condition that is not understood by PartitionRange
+        Set<String> unknownRanges = new HashSet<>();
+        HashMap<String, List<String>> columns = new HashMap<>();
+        HashMap<String, Set<Integer>> dbNumbers = new HashMap<>();
+        String filter = table == null ? "" : " WHERE TABLE_NAME = '" + table + "'";
+
+        for (Integer statementKey : statements.keySet()) {
+            Statement statement = statements.get(statementKey);
             try {
-                ResultSet rs = statement.executeQuery("SELECT TABLE_NAME, SEARCH_CONDITION, CONSTRAINT_NAME " + "FROM USER_CONSTRAINTS");
-                Set<String> tables = new HashSet<>();
-                HashMap<String, String> tablesPartitioned = new HashMap();
+                ResultSet rs = statement.executeQuery("SELECT TABLE_NAME, SEARCH_CONDITION, CONSTRAINT_NAME "
+                        + "FROM USER_CONSTRAINTS" + filter);
                 while (rs.next()) {
-                    String tableName = rs.getString(1);
+                    String tableName = rs.getString(1).toUpperCase();
                     String searchCondition = rs.getString(2);
                     String constraintName = rs.getString(3);
 
-                    tables.add(tableName);
                     if (constraintName != null && constraintName.toUpperCase().contains("HORIZ")) {
-                        tablesPartitioned.put(searchCondition, tableName);
+                        PartitionRange range = searchCondition == null ? null : PartitionRange.parse(searchCondition);
+                        if (range == null) {
+                            unknownRanges.add(tableName);
+                        } else {
+                            if (!ranges.containsKey(tableName)) {
+                                ranges.put(tableName, new TreeMap<Integer, PartitionRange>());
+                            }
+                            ranges.get(tableName).put(statementKey, range);
+                        }
+                    }
+                }
+                rs.close();
+
+                // Column order is the same on every database holding the table
+                rs = statement.executeQuery("SELECT TABLE_NAME, COLUMN_NAME FROM USER_TAB_COLUMNS" + filter
+                        + " ORDER BY TABLE_NAME, COLUMN_ID");
+                HashMap<String, List<String>> columnsOfDB = new HashMap<>();
+                while (rs.next()) {
+                    String tableName = rs.getString(1).toUpperCase();
+                    if (!columnsOfDB.containsKey(tableName)) {
+                        columnsOfDB.put(tableName, new ArrayList<String>());
+                    }
+                    columnsOfDB.get(tableName).add(rs.getString(2).toUpperCase());
+                }
+                rs.close();
+                for (String tableName : columnsOfDB.keySet()) {
+                    if (!columns.containsKey(tableName)) {
+                        columns.put(tableName, Collections.unmodifiableList(columnsOfDB.get(tableName)));
+                        dbNumbers.put(tableName, new HashSet<Integer>());
                     }
+                    dbNumbers.get(tableName).add(statementKey);
                 }
-                allTablesWithDBs.put(statementKey, tables);
-                partitionedTables.put(statementKey, tablesPartitioned);
             } catch (SQLException e) {
                 e.printStackTrace();
             }
         }
 
+        HashMap<String, Table> loaded = new HashMap<>();
+        for (String tableName : columns.keySet()) {
+            boolean isPartitioned = ranges.containsKey(tableName) || unknownRanges.contains(tableName);
+            TablePartitioning partitioning = null;
+            if (ranges.containsKey(tableName) && !unknownRanges.contains(tableName)) {
+                partitioning = createPartitioning(tableName, ranges.get(tableName), columns.get(tableName));
+            }
+            boolean isReplicated = !isPartitioned && dbNumbers.get(tableName).size() == statements.size();
+            loaded.put(tableName, new Table(columns.get(tableName), partitioning, isPartitioned, isReplicated));
+        }
+
+        if (table == null) {
+            tables.keySet().retainAll(loaded.keySet());
+            tables.putAll(loaded);
+        } else if (loaded.containsKey(table)) {
+            tables.put(table, loaded.get(table));
+        } else {
+            tables.remove(table);
+        }
     }
 
-    public static boolean isPartitioned(String table) {
-        boolean isPartitioned = false;
-        Set<Integer> dbs = partitionedTables.keySet();
-        for (Integer dbNumber : dbs) {
-            HashMap<String, String> constraintConditionsWithTableNames = partitionedTables.get(dbNumber);
-            for (String str : constraintConditionsWithTableNames.values()) {
-                if (table.trim().toUpperCase().equals(str.trim().toUpperCase())) {
-                    return true;
-                }
+    /*
+     * Names in the catalog are upper case. Names the parser passes are
+     * already, those are looked up without a copy.
+     */
+    private static String toKey(String table) {
+        int length = table.length();
+        if (length > 0 && table.charAt(0) > ' ' && table.charAt(length - 1) > ' ') {
+            int i = 0;
+            while (i < length && !Character.isLowerCase(table.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                return table;
+            }
+        }
+        return table.trim().toUpperCase();
+    }
+
+    private static Table getTable(String table) {
+        return table == null ? null : tables.get(toKey(table));
+    }
+
+    /*
+     * Tables created without HORIZONTAL are created in, and inserted into,
+     * every database, so each database holds all of their rows.
+     */
+    public static boolean isReplicated(String table) {
+        Table entry = getTable(table);
+        return entry != null && entry.isReplicated;
+    }
+
+    /*
+     * Returns null if the ranges do not partition the table on one column,
+     * inserts into such a table are sent to every database.
+     */
+    private static TablePartitioning createPartitioning(String tableName, Map<Integer, PartitionRange> ranges,
+                                                        List<String> columns) {
+        String column = null;
+        Boolean numeric = null;
+        for (PartitionRange range : ranges.values()) {
+            if (column == null) {
+                column = range.getColumn();
+                numeric = range.isNumeric();
+            } else if (!column.equals(range.getColumn()) || numeric != range.isNumeric()) {
+                return null;
             }
         }
-        return isPartitioned;
+        int columnIndex = columns == null ? -1 : columns.indexOf(column);
+        return new TablePartitioning(tableName, column, columnIndex, ranges);
+    }
+
+    /*
+     * Returns the partitioning of the table, null if it is not horizontally
+     * partitioned or its partitioning is not understood.
+     */
+    public static TablePartitioning getPartitioning(String table) {
+        Table entry = getTable(table);
+        return entry == null ? null : entry.partitioning;
+    }
+
+    /*
+     * Returns the column names of the table in table order, null if the table
+     * is unknown.
+     */
+    public static List<String> getColumns(String table) {
+        Table entry = getTable(table);
+        return entry == null ? null : entry.columns;
+    }
+
+    /*
+     * Returns if the table has a _HORIZ constraint, even one whose range is
+     * not understood.
+     */
+    public static boolean isPartitioned(String table) {
+        Table entry = getTable(table);
+        return entry != null && entry.isPartitioned;
+    }
+
+    public static HashMap<Integer, Statement> getStatementsForQuery(HashMap<Integer, Statement> statementsMap,
+                                                                    String query) {
+        if (!isPartitionedTable(query)) {
+            return statementsMap;
+        }
+        return getStatementsForQuery(statementsMap, query, getPartitioning(getTableFromInsertQuery(query)));
     }
 
-    public static HashMap<Integer, Statement> getStatementsForQuery(String query) {
+    /**
+     * Returns the statements an INSERT has to be sent to: the one of the
+     * database whose partition range contains the value of the partition
+     * column, or all statements if the table is not partitioned or the
+     * database can not be determined (e.g. the value is NULL).
+     */
+    public static HashMap<Integer, Statement> getStatementsForQuery(HashMap<Integer, Statement> statementsMap,
+                                                                    String query, TablePartitioning partitioning) {
+        if (partitioning == null) {
+            return statementsMap;
+        }
+
+        String valuesClause = query.substring(query.toUpperCase().indexOf("VALUES") + 6);
+        Integer dbNumber = partitioning.getDatabaseForValues(TablePartitioning.getValues(valuesClause));
+        if (dbNumber == null || !statementsMap.containsKey(dbNumber)) {
+            return statementsMap;
+        }
+
         HashMap<Integer, Statement> statements = new HashMap<>();
-        if (isPartitionedTable(query)) {
-            String table = getTableFromInsertQuery(query);
-            for (Integer dbNumber : partitionedTables.keySet()) {
-                HashMap<String, String> constraintConditionsWithTableNames = partitionedTables.get(dbNumber);
-                for (String str : constraintConditionsWithTableNames.values()) {
-                    if (table.trim().toUpperCase().equals(str.trim().toUpperCase())) {
-//                        Set<String> constraints = constraintConditionsWithTableNames.keySet();
-//                        for (String constraint : constraints) {
-//                            String temp = constraint.substring(constraint.lastIndexOf(" "));
-//                            if(temp.contains("\'")) {
-////                                constraint.replace()
-//                            } else {
-//
-//                            }
-//                        }
-                        statements.put(dbNumber, statementsMap.get(dbNumber));
-                        break;
-                    }
+        statements.put(dbNumber, statementsMap.get(dbNumber));
+        return statements;
+    }
+
+    /**
+     * Returns the statements a SELECT, DELETE or UPDATE on the partitioned
+     * table has to be sent to: the ones of the databases holding the table
+     * whose range may satisfy the WHERE condition. All statements are returned
+     * if the table is not partitioned.
+     */
+    public static HashMap<Integer, Statement> getStatementsForCondition(HashMap<Integer, Statement> statementsMap,
+                                                                        String query, TablePartitioning partitioning) {
+        if (partitioning == null) {
+            return statementsMap;
+        }
+
+        String condition = QueryClauses.getWhereCondition(query);
+        Predicate predicate = condition == null ? null : Predicate.parse(condition);
+
+        HashMap<Integer, Statement> statements = new HashMap<>();
+        Integer firstDBNumber = null;
+        for (Integer dbNumber : statementsMap.keySet()) {
+            PartitionRange range = partitioning.getRanges().get(dbNumber);
+            // Databases without a range do not hold the table
+            if (range == null) {
+                continue;
+            }
+            if (firstDBNumber == null) {
+                firstDBNumber = dbNumber;
+            }
+            if (predicate == null || predicate.mayMatch(partitioning.getColumn(), range)) {
+                statements.put(dbNumber, statementsMap.get(dbNumber));
+            }
+        }
+
+        /*
+         * No database can hold a matching row. One database is still asked, so
+         * the result carries the columns of the query.
+         */
+        if (statements.isEmpty() && firstDBNumber != null) {
+            statements.put(firstDBNumber, statementsMap.get(firstDBNumber));
+        }
+        return statements.isEmpty() ? statementsMap : statements;
+    }
+
+    /**
+     * Returns the statements a SELECT has to be sent to. A SELECT on one
+     * replicated table is answered by one database, since every database
+     * holds all of its rows; see getStatementsForCondition for partitioned
+     * tables.
+     */
+    public static HashMap<Integer, Statement> getStatementsForSelect(HashMap<Integer, Statement> statementsMap,
+                                                                     String query, String table,
+                                                                     TablePartitioning partitioning) {
+        if (partitioning == null && isReplicated(table) && QueryClauses.isSingleTable(query)
+                && !statementsMap.isEmpty()) {
+            Integer dbNumber = new TreeMap<>(statementsMap).firstKey();
+            HashMap<Integer, Statement> statements = new HashMap<>();
+            statements.put(dbNumber, statementsMap.get(dbNumber));
+            return statements;
+        }
+        return getStatementsForCondition(statementsMap, query, partitioning);
+    }
+
+    /**
+     * Returns the statements a join has to be sent to if every database can
+     * join its own rows, see Join.getStrategy. Returns null if the rows of
+     * different databases have to be joined.
+     */
+    public static HashMap<Integer, Statement> getStatementsForJoin(HashMap<Integer, Statement> statementsMap,
+                                                                   Join join) {
+        int strategy = join.getStrategy();
+        if (strategy == Join.ONE_DATABASE) {
+            return getStatementsForSelect(statementsMap, join.getFetchQuery(0), join.getTable(0), null);
+        }
+        if (strategy != Join.PARTITION_WISE) {
+            return null;
+        }
+
+        // Only databases that may hold rows of both tables have to join
+        HashMap<Integer, Statement> statements = null;
+        Integer firstDBNumber = null;
+        for (int side = 0; side < 2; side++) {
+            TablePartitioning partitioning = getPartitioning(join.getTable(side));
+            if (partitioning == null) {
+                continue;
+            }
+            HashMap<Integer, Statement> sideStatements = getStatementsForCondition(statementsMap,
+                    join.getFetchQuery(side), partitioning);
+            if (statements == null) {
+                statements = new HashMap<>(sideStatements);
+                firstDBNumber = new TreeMap<>(sideStatements).firstKey();
+            } else {
+                statements.keySet().retainAll(sideStatements.keySet());
+            }
+        }
+        if (statements.isEmpty()) {
+            statements.put(firstDBNumber, statementsMap.get(firstDBNumber));
+        }
+        return statements;
+    }
+
+    /**
+     * Returns the statement of one database if it can answer the SELECT on
+     * several tables that Join can not analyze, e.g. one with expressions in
+     * the select list: every table it reads is replicated. Returns null
+     * otherwise, the rows of different databases would have to be joined.
+     */
+    public static HashMap<Integer, Statement> getStatementsForJoin(HashMap<Integer, Statement> statementsMap,
+                                                                   String query) {
+        String from = QueryClauses.getClause(query, "FROM", "WHERE", "GROUP", "HAVING", "ORDER");
+        // A sub query may read a partitioned table
+        if (from == null || statementsMap.isEmpty() || query.toUpperCase().split("\\bSELECT\\b", -1).length > 2) {
+            return null;
+        }
+        for (String tables : QueryClauses.split(from, ',')) {
+            for (String table : JOIN.split(tables)) {
+                String name = table.trim().split("\\s+")[0].toUpperCase();
+                if (!isReplicated(name)) {
+                    return null;
                 }
             }
         }
+        Integer dbNumber = new TreeMap<>(statementsMap).firstKey();
+        HashMap<Integer, Statement> statements = new HashMap<>();
+        statements.put(dbNumber, statementsMap.get(dbNumber));
         return statements;
     }
 
@@ -114,5 +414,22 @@ public class DatabaseCatalog {
         }
 
     }
-}
 
+    /*
+     * Catalog entry of a table, replaced as a whole when the table is read
+     * again.
+     */
+    private static class Table {
+        private final List<String> columns;
+        private final TablePartitioning partitioning;
+        private final boolean isPartitioned;
+        private final boolean isReplicated;
+
+        Table(List<String> columns, TablePartitioning partitioning, boolean isPartitioned, boolean isReplicated) {
+            this.columns = columns;
+            this.partitioning = partitioning;
+            this.isPartitioned = isPartitioned;
+            this.isReplicated = isReplicated;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package fdbs;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts rows built by the federation layer, e.g. joined rows, by an ORDER BY
+ * with at most fdbs.joinMemoryRows rows in memory. As long as the rows fit
+ * they are sorted in a RowBatch. Otherwise every full batch is sorted and
+ * written to a SpillFile (a sorted run), and the runs are merged while the
+ * rows are read, holding one row per run.
+ */
+class ExternalSort {
+
+    private final OrderBy orderBy;
+    private final int columnCount;
+    private RowBatch batch;
+    private final List<SpillFile> runs = new ArrayList<SpillFile>();
+
+    // Sorted indexes of the batch, if no run was written
+    private int[] sortedRows;
+    private int position = -1;
+    // Next row of every run that is not read to the end
+    private PriorityQueue<Run> heads;
+
+    /**
+     * The orderBy has to be bound to the columns of the rows.
+     */
+    ExternalSort(OrderBy orderBy, int columnCount) {
+        this.orderBy = orderBy;
+        this.columnCount = columnCount;
+        batch = new RowBatch(columnCount);
+    }
+
+    void add(Object[] row) throws SQLException {
+        batch.add(row);
+        if (batch.size() >= HashJoin.MEMORY_ROWS) {
+            writeRun();
+        }
+    }
+
+    /**
+     * Sorts the rows added, next returns them in order afterwards.
+     */
+    void finish() throws SQLException {
+        if (runs.isEmpty()) {
+            sortedRows = batch.sort(batch.getRowIndexes(), orderBy);
+            return;
+        }
+        if (batch.size() > 0) {
+            writeRun();
+        }
+        batch = null;
+
+        heads = new PriorityQueue<Run>(runs.size(), new Comparator<Run>() {
+            @Override
+            public int compare(Run run, Run other) {
+                int c = orderBy.compare(run.keys, other.keys);
+                return c != 0 ? c : Integer.compare(run.index, other.index);
+            }
+        });
+        for (int i = 0; i < runs.size(); i++) {
+            Run run = new Run(runs.get(i), i);
+            if (run.read()) {
+                heads.add(run);
+            }
+        }
+    }
+
+    /**
+     * Returns the next row in order, or null after the last one.
+     */
+    Object[] next() throws SQLException {
+        if (heads == null) {
+            if (position < sortedRows.length) {
+                position++;
+            }
+            return position < sortedRows.length ? batch.getRow(sortedRows[position]) : null;
+        }
+
+        Run run = heads.poll();
+        if (run == null) {
+            return null;
+        }
+        Object[] row = run.row;
+        if (run.read()) {
+            heads.add(run);
+        }
+        return row;
+    }
+
+    /**
+     * Deletes the runs.
+     */
+    void close() {
+        for (SpillFile run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        heads = null;
+    }
+
+    private void writeRun() throws SQLException {
+        try {
+            SpillFile run = SpillFile.create("sort");
+            runs.add(run);
+            for (int row : batch.sort(batch.getRowIndexes(), orderBy)) {
+                run.write(batch.getRow(row));
+            }
+            run.finish();
+        } catch (IOException e) {
+            close();
+            throw new SQLException("Can not write sorted rows to disk: " + e.getMessage());
+        }
+        batch = new RowBatch(columnCount);
+    }
+
+    /*
+     * A sorted run and its next row.
+     */
+    private class Run {
+        private final SpillFile file;
+        private final int index;
+        private Object[] row;
+        private Object[] keys;
+
+        Run(SpillFile file, int index) {
+            this.file = file;
+            this.index = index;
+        }
+
+        // Reads the next row, returns false after the last one
+        boolean read() throws SQLException {
+            try {
+                row = file.read();
+            } catch (IOException e) {
+                throw new SQLException("Can not read sorted rows from disk: " + e.getMessage());
+            }
+            if (row == null) {
+                file.delete();
+                return false;
+            }
+            keys = orderBy.getKeys(row);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package fdbs;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Sends the work of one FederalController operation to the databases at the
+ * same time, so an operation takes as long as the slowest database instead of
+ * the sum of all of them.
+ * <p>
+ * The work for the first database runs in the calling thread, the work for the
+ * others in a bounded pool of daemon threads. Results and exceptions are
+ * returned in database order, so the caller can handle them exactly like it
+ * did when it sent the statements one after another.
+ * <p>
+ * The pool size can be set with the system property fdbs.fanOutThreads; a
+ * size of 1 or less sends to the databases one after another.
+ */
+public class FanOut {
+
+    public static final String THREADS_PROPERTY = "fdbs.fanOutThreads";
+    public static final int DEFAULT_THREADS = 8;
+
+    private static final int THREADS = Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS);
+
+    private static ThreadPoolExecutor executor;
+
+    /**
+     * The work done with the statement of one database.
+     */
+    public interface Task<T> extends Work<Statement, T> {
+        T execute(Integer dbNumber, Statement statement) throws SQLException;
+    }
+
+    /**
+     * The work done with something else than a statement per database, e.g.
+     * a participant of a transaction.
+     */
+    public interface Work<S, T> {
+        T execute(Integer dbNumber, S target) throws SQLException;
+    }
+
+    /**
+     * The value or the SQLException of the task of one database, and how long
+     * the task took.
+     */
+    public static class Result<T> {
+        private final Integer dbNumber;
+        private final T value;
+        private final SQLException exception;
+        private final long nanos;
+
+        Result(Integer dbNumber, T value, SQLException exception, long nanos) {
+            this.dbNumber = dbNumber;
+            this.value = value;
+            this.exception = exception;
+            this.nanos = nanos;
+        }
+
+        public Integer getDBNumber() {
+            return dbNumber;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public SQLException getException() {
+            return exception;
+        }
+
+        /*
+         * Time the task took in nanoseconds, without the time it waited for a
+         * thread of the pool
+         */
+        public long getNanos() {
+            return nanos;
+        }
+    }
+
+    /**
+     * Executes the task with every statement and waits for all of them.
+     * Returns one result per statement in database order.
+     */
+    public static <T> List<Result<T>> execute(Map<Integer, Statement> statements, final Task<T> task) {
+        return execute(statements, (Work<Statement, T>) task);
+    }
+
+    /**
+     * Executes the work with every target at the same time, like
+     * execute(Map, Task) does with statements.
+     */
+    public static <S, T> List<Result<T>> execute(Map<Integer, ? extends S> statements, final Work<S, T> task) {
+        TreeMap<Integer, S> orderedStatements = new TreeMap<Integer, S>(statements);
+        List<Result<T>> results = new ArrayList<Result<T>>(orderedStatements.size());
+        if (orderedStatements.size() <= 1 || THREADS <= 1) {
+            for (Map.Entry<Integer, S> entry : orderedStatements.entrySet()) {
+                results.add(run(task, entry.getKey(), entry.getValue()));
+            }
+            return results;
+        }
+
+        List<Future<Result<T>>> futures = new ArrayList<Future<Result<T>>>();
+        Map.Entry<Integer, S> first = orderedStatements.pollFirstEntry();
+        for (Map.Entry<Integer, S> entry : orderedStatements.entrySet()) {
+            final Integer dbNumber = entry.getKey();
+            final S statement = entry.getValue();
+            futures.add(getExecutor().submit(new Callable<Result<T>>() {
+                @Override
+                public Result<T> call() {
+                    return run(task, dbNumber, statement);
+                }
+            }));
+        }
+
+        RuntimeException failure = null;
+        try {
+            results.add(run(task, first.getKey(), first.getValue()));
+        } catch (RuntimeException e) {
+            // Thrown once the other tasks are done with their statements
+            failure = e;
+        }
+        boolean isInterrupted = false;
+        for (Future<Result<T>> future : futures) {
+            // Waits for every task, the statements must not be used concurrently later
+            while (true) {
+                try {
+                    results.add(future.get());
+                    break;
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                                : new IllegalStateException(e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    private static <S, T> Result<T> run(Work<S, T> task, Integer dbNumber, S statement) {
+        long start = System.nanoTime();
+        try {
+            T value = task.execute(dbNumber, statement);
+            return new Result<T>(dbNumber, value, null, System.nanoTime() - start);
+        } catch (SQLException e) {
+            return new Result<T>(dbNumber, null, e, System.nanoTime() - start);
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = DaemonThreadPool.newBoundedPool("fdbs-fan-out", THREADS);
+        }
+        return executor;
+    }
+}
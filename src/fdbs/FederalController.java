@@ -59,34 +59,74 @@ package fdbs;
 import fdbs.fjdbc.FedException;
 import fdbs.fjdbc.FedResultSet;
 import fdbs.fjdbc.FedStatement;
+import fdbs.fjdbc.PreparedStatementCache;
 import fdbs.logging.CustomLogger;
+import fdbs.metrics.MetricsRegistry;
 import fdbs.parser.GepardParser;
 import fdbs.parser.ParseException;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Supplier;
 import java.util.logging.Level;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class FederalController {
 
-    private static FedStatement fedStatement;
+    private final FedStatement fedStatement;
     /*
-     * This map holds the =DBC Statement, it it initialized automatically when
-     * FedStatement is initialized.
+     * This map holds the JDBC Statements of the call by database number, it
+     * is handed over by the FedStatement.
      */
-    private static HashMap<Integer, Statement> statementsMap;
+    private final HashMap<Integer, Statement> statementsMap;
 
-    public static void setStatementsMap(HashMap<Integer, Statement> statements) {
-        statementsMap = statements;
+    // Parse results by statement shape, see ParseCache
+    private static final ParseCache parseCache = new ParseCache();
+
+    /*
+     * Parsing a statement used to build a new parser, char stream and token
+     * manager from the query bytes. Each thread keeps one parser and reader
+     * instead, which are reset for every query.
+     */
+    private static final ThreadLocal<QueryReader> queryReaders = new ThreadLocal<QueryReader>() {
+        @Override
+        protected QueryReader initialValue() {
+            return new QueryReader();
+        }
+    };
+    private static final ThreadLocal<GepardParser> parsers = new ThreadLocal<GepardParser>() {
+        @Override
+        protected GepardParser initialValue() {
+            return new GepardParser(queryReaders.get());
+        }
+    };
+
+    /*
+     * Every call of a FedStatement has its own controller on the JDBC
+     * Statements it took from its connection, so connections and open result
+     * sets do not share them. The catalog, the parse cache and the parsers of
+     * the threads are shared.
+     */
+    public FederalController(FedStatement fedStatement, HashMap<Integer, Statement> statementsMap) {
+        this.fedStatement = fedStatement;
+        this.statementsMap = statementsMap;
+        DatabaseCatalog.load(statementsMap);
     }
 
     /*
@@ -97,11 +137,20 @@ public class FederalController {
 
     }
 
-    public static int executeUpdate(String query)
+    public int executeUpdate(String query)
             throws FedException, ParseException {
-        int queryType = QueryTypeConstant.NONE;
-        int result = -1;
+        long start = System.nanoTime();
+        PreparedUpdate update = prepareUpdate(query);
+        int result = executeUpdate(update.getQuery(), update.getParsedQuery());
+        recordNanos("statement.", update.getParsedQuery().getQueryType(), start);
+        return result;
+    }
 
+    /**
+     * Parses the query and converts it back for the databases. Returns the
+     * query given to the databases and its parse result.
+     */
+    public static PreparedUpdate prepareUpdate(String query) throws ParseException {
     /* Some complex preprocess start */
 
     /*
@@ -109,6 +158,7 @@ public class FederalController {
      * to the grammar. NOTE: We use this method because skipping tabs, spaces
      * and new lines does not work efficiently.
      */
+        long normalizeStart = System.nanoTime();
         boolean isInsertQuery = query.toUpperCase().startsWith("INSERT");
         String preserveWhereClause = "";
         if (isInsertQuery) {
@@ -117,33 +167,33 @@ public class FederalController {
         }
 
         query = processQueryForParser(query);
+        long normalizeNanos = System.nanoTime() - normalizeStart;
 
     /* Some complex preprocess end */
 
-        // Every query needs ';' to parse, so being added here.
         // Parsing starts here.
-        GepardParser parser = new GepardParser(convertToParsableQuery(query + ";"));
-
-        // This method is a general method from where all grammar starts.
-        queryType = parser.ParseQuery();
+        long parseStart = System.nanoTime();
+        ParsedQuery parsedQuery = parse(query);
+        recordNanos("parse.", parsedQuery.getQueryType(), parseStart);
 
     /* Some complex post process start before going to database */
 
-    /*
-     * Special characters like umlauts were replaced with unicode equivalents
-     * while running processQueryForParser method. Reason: JavaCC does not
-     * support umlauts
-     */
-        query = UnicodeManager.replaceUnicodesWithChars(query);
-        query = replace3DashesWithSpace(query);
-        query = replaceBraces(query);
+        normalizeStart = System.nanoTime();
+        query = processQueryForDatabase(query);
 
         if (isInsertQuery) {
             query += preserveWhereClause;
         }
+        // Both steps of the normalization, without the parse between them
+        recordNanos("normalize.", parsedQuery.getQueryType(), normalizeStart - normalizeNanos);
     /* Some complex post process end before going to database */
 
-        switch (queryType) {
+        return new PreparedUpdate(query, parsedQuery);
+    }
+
+    private int executeUpdate(String query, ParsedQuery parsedQuery) throws FedException {
+        int result = -1;
+        switch (parsedQuery.getQueryType()) {
             case QueryTypeConstant.CREATE_NON_PARTITIONED:
                 result = createTable(query);
                 break;
@@ -154,143 +204,174 @@ public class FederalController {
                 result = dropTable(query);
                 break;
             case QueryTypeConstant.DELETE:
-                result = deleteFromTable(query);
+                result = deleteFromTable(query, parsedQuery);
                 break;
             case QueryTypeConstant.INSERT:
-                result = insertIntoTable(query);
+                result = insertIntoTable(query, parsedQuery);
                 break;
             default:
-                result = executeDefaultQuery(query);
+                result = executeDefaultQuery(query, parsedQuery.getQueryType());
         }
 
         return result;
     }
 
-    private static String replaceBraces(String query) {
-        query = query.replaceAll("[(]{3}", "(");
-        query = query.replaceAll("//////", ")");
-        return query;
+    /*
+     * Removes tabs, extra spaces and lines, and rewrites string constants,
+     * parens and umlauts the parser can not handle. See QueryNormalizer.
+     */
+    private static String processQueryForParser(String query) {
+        return QueryNormalizer.normalize(query);
     }
 
     /*
-     * Was added to parse successfully because I am unable to handle space in
-     * between string constant in Parser
+     * Reverts processQueryForParser before the query goes to the databases.
+     * Special characters like umlauts were replaced with unicode equivalents
+     * because JavaCC does not support umlauts.
      */
-    private static String replace3DashesWithSpace(String query) {
-        Pattern pattern = Pattern.compile("'(.+[---]+.+)'");
-        Matcher m = pattern.matcher(query);
-        while (m.find()) {
-            String searchStr = m.group();
-            query = query.replaceAll(searchStr, searchStr.replaceAll("---", " "));
-        }
-        return query;
+    private static String processQueryForDatabase(String query) {
+        return QueryNormalizer.restore(query);
     }
 
-    private static String processQueryForParser(String query) {
-        StringBuilder sb = new StringBuilder(query);
-
-        List<Pattern> patterns = new ArrayList<Pattern>();
-        patterns.add(Pattern.compile("\t"));
-        patterns.add(Pattern.compile("\n"));
-        patterns.add(Pattern.compile("\r"));
-
     /*
-     * There are so many doubles spaces, so some of them are not replaced, thus
-     * creating problem for fdbs.parser, so we want to check as much as 10 times to
-     * make sure the query is finely formatted.
+     * Returns the parse result for the normalized query. Statements of a shape
+     * that was parsed before are answered from the parse cache.
      */
-        int counter = 10;
-        while (counter > 0) {
-            patterns.add(Pattern.compile("  "));
-            counter--;
+    private static ParsedQuery parse(String query) throws ParseException {
+        String shape = ParseCache.getShape(query);
+        ParsedQuery parsedQuery = parseCache.get(shape);
+        if (parsedQuery == null) {
+            int queryType = parseQuery(query);
+            String tableName = getTableName(query, queryType);
+            TablePartitioning partitioning = isRoutedByPartition(queryType)
+                    ? DatabaseCatalog.getPartitioning(tableName) : null;
+            parsedQuery = new ParsedQuery(queryType, tableName, partitioning);
+            parseCache.put(shape, parsedQuery);
         }
-
-        for (Pattern pattern : patterns) {
-            Matcher m = pattern.matcher(sb);
-            sb = new StringBuilder(m.replaceAll(" "));
-        }
-
-        query = sb.toString();
+        return parsedQuery;
+    }
 
     /*
-     * Removes all trailing spaces in string constant because they are redundant e.g.
-     * 'ABC ' become 'ABC'. It is also important to remove because Parser is unable to parse the query with trailing spaces
+     * DML and SELECT statements are only sent to the databases holding the
+     * partitions they touch, DDL goes to every database.
      */
-        Pattern pattern = Pattern.compile("'([^\\s']+)([ ])+'");
-        Matcher m = pattern.matcher(query);
-        while (m.find()) {
-            String searchStr = m.group();
-            query = query.replaceAll(searchStr, searchStr.replaceAll(" ", ""));
-        }
+    private static boolean isRoutedByPartition(int queryType) {
+        return queryType != QueryTypeConstant.CREATE_NON_PARTITIONED
+                && queryType != QueryTypeConstant.CREATE_PARTITIONED
+                && queryType != QueryTypeConstant.DROP
+                && queryType != QueryTypeConstant.NONE;
+    }
 
     /*
-     * Replaces spaces in between string constant with ___ (with replace back)
-     * e.g. 'ABC XYZ' becomes 'ABC___XYZ'. It is done because I am unable to
-     * handle space between string constant fdbs.parser.
+     * Name of the (first) table the normalized query targets, e.g. BUCHUNG
+     * for "DELETE FROM BUCHUNG WHERE ...". Returns null if there is none.
      */
-        pattern = Pattern.compile("'([^\\s']+)([ ])+([^\\s']+)'");
-        m = pattern.matcher(query);
-        while (m.find()) {
-            String searchStr = m.group();
-            query = query.replaceAll(searchStr, searchStr.replaceAll(" ", "---"));
+    private static String getTableName(String query, int queryType) {
+        String upperQuery = query.trim().toUpperCase();
+        String keyword;
+        switch (queryType) {
+            case QueryTypeConstant.CREATE_NON_PARTITIONED:
+            case QueryTypeConstant.CREATE_PARTITIONED:
+            case QueryTypeConstant.DROP:
+                keyword = "TABLE ";
+                break;
+            case QueryTypeConstant.INSERT:
+                keyword = "INTO ";
+                break;
+            default:
+                keyword = upperQuery.startsWith("UPDATE ") ? "UPDATE " : "FROM ";
         }
 
-        pattern = Pattern.compile("\\((.*?)[.](.*?)[ ](.*?)\\)\\)?");
+        int start = upperQuery.indexOf(keyword);
+        if (start < 0) {
+            return null;
+        }
+        start += keyword.length();
+        while (start < upperQuery.length() && upperQuery.charAt(start) == ' ') {
+            start++;
+        }
+        int end = start;
+        while (end < upperQuery.length() && " ,();".indexOf(upperQuery.charAt(end)) < 0) {
+            end++;
+        }
+        return end > start ? upperQuery.substring(start, end) : null;
+    }
+
+    public static ParseCache getParseCache() {
+        return parseCache;
+    }
+
     /*
-     * Replaces ( and ) because ) is showing conflict in fdbs.parser and can not add
-     * it in String constant, so workaround.
+     * Reloads the catalog entry of the table after it was created or dropped.
+     * Cached parse results hold the partitioning of their table, so the ones
+     * of the table are dropped too.
      */
-        m = pattern.matcher(query);
-        while (m.find()) {
-            String searchStr = m.group();
-            query = query.replace(searchStr,
-                    searchStr.replaceAll("\\(", "").replaceAll("\\)", ""));
+    private void refreshCatalog(String query, int queryType) {
+        String tableName = getTableName(query, queryType);
+        if (tableName == null) {
+            DatabaseCatalog.refresh(statementsMap);
+            parseCache.clear();
+        } else {
+            DatabaseCatalog.refresh(statementsMap, tableName);
+            parseCache.removeTable(tableName);
         }
+    }
 
     /*
-     * Replaces umlauts with unicodes to parse successfully because JavaCC
-     * replaces umlauts with unicodes too
+     * Parses the query with the parser of the current thread and returns its
+     * QueryTypeConstant. The reader adds the ';' every query needs to parse.
      */
-        query = UnicodeManager.getUnicodedQuery(query);
-        return query;
+    private static int parseQuery(String query) throws ParseException {
+        QueryReader reader = queryReaders.get();
+        reader.reset(query);
+        GepardParser parser = parsers.get();
+        parser.ReInit(reader);
+
+        // This method is a general method from where all grammar starts.
+        return parser.ParseQuery();
     }
 
     private static boolean shouldNotParse(String query) {
         return query.startsWith("SET") || query.startsWith("ALTER");
     }
 
-    private static int executeDefaultQuery(String query) throws FedException {
-        int result = -1;
-        String connectionDB = "";
-        Integer connectionNumber = -1;
-        Statement statement = null;
+    /*
+     * UPDATE and the other statements without a catalog of their own go to
+     * every database. The first database executes it alone: if it fails,
+     * the statement is not sent to the others, so a failing statement (a
+     * syntax error, a missing table) does not change the replicated data of
+     * the others. Only if it succeeds the others execute it at the same
+     * time; a failure of one of them is thrown once all of them are done.
+     */
+    private int executeDefaultQuery(String query, int queryType) throws FedException {
         // Simple SET query, i.e. set echo on, will be ignored
         if (query.toUpperCase().startsWith("SET"))
             return 0;
-        CustomLogger.log(Level.INFO, "Received FJDBC: " + query);
-        try {
-            for (Integer statementKey : statementsMap.keySet()) {
-                connectionNumber = statementKey;
-                if (statementKey == 1) {
-                    connectionDB = ConnectionConstants.CONNECTION_1_SID;
-                }
-                if (statementKey == 2) {
-                    connectionDB = ConnectionConstants.CONNECTION_2_SID;
-                }
-                if (statementKey == 3) {
-                    connectionDB = ConnectionConstants.CONNECTION_3_SID;
-                }
-                statement = statementsMap.get(statementKey);
-                CustomLogger.log(Level.INFO,
-                        "Sending to " + connectionDB + ": " + query);
-                result = statement.executeUpdate(query);
+        CustomLogger.log(Level.INFO, "Received FJDBC: {0}", query);
+        TreeMap<Integer, Statement> statements = new TreeMap<>(statementsMap);
+        Map.Entry<Integer, Statement> first = statements.pollFirstEntry();
+        if (first == null) {
+            return 0;
+        }
+        Map<Integer, Statement> firstStatement = Collections.singletonMap(first.getKey(), first.getValue());
+        logSending(firstStatement, query);
+        List<FanOut.Result<Integer>> updates = new ArrayList<>(FanOut.execute(firstStatement,
+                executeUpdateTask(query)));
+        if (updates.get(0).getException() == null) {
+            logSending(statements, query);
+            updates.addAll(FanOut.execute(statements, executeUpdateTask(query)));
+        }
+        recordFanOut(queryType, updates);
+        for (FanOut.Result<Integer> result : updates) {
+            SQLException e = result.getException();
+            if (e != null) {
+                String connectionDB = getConnectionDB(result.getDBNumber());
+                String message = "Connect " + result.getDBNumber() + " " + connectionDB + ": "
+                        + e.getLocalizedMessage();
+                CustomLogger.log(Level.SEVERE, "JDBC SQLException in " + connectionDB
+                        + ": " + e.getLocalizedMessage());
+                throw new FedException(new Throwable(message));
             }
-        } catch (SQLException e) {
-            String message = "Connect " + connectionNumber + " " + connectionDB + ": "
-                    + e.getLocalizedMessage();
-            CustomLogger.log(Level.SEVERE, "JDBC SQLException in " + connectionDB
-                    + ": " + e.getLocalizedMessage());
-            throw new FedException(new Throwable(message));
         }
     /*
      * CREATE query is neither INSERT nor UPDATE so it will always return 0 as
@@ -299,104 +380,438 @@ public class FederalController {
         return 0;
     }
 
-    private static int deleteFromTable(String query) throws FedException {
+    /*
+     * The statements are executed at the same time, see FanOut. The results
+     * are handled in database order, like they were when the statements were
+     * sent one after another.
+     */
+    private static FanOut.Task<Integer> executeUpdateTask(final String query) {
+        return new FanOut.Task<Integer>() {
+            @Override
+            public Integer execute(Integer dbNumber, Statement statement) throws SQLException {
+                return statement.executeUpdate(query);
+            }
+        };
+    }
+
+    private static FanOut.Task<ResultSet> executeQueryTask(final String query) {
+        return new FanOut.Task<ResultSet>() {
+            @Override
+            public ResultSet execute(Integer dbNumber, Statement statement) throws SQLException {
+                return statement.executeQuery(query);
+            }
+        };
+    }
+
+    /*
+     * Executes the task like FanOut.execute and records how many databases
+     * were asked and how long each of them took, see MetricsRegistry.
+     */
+    private static <T> List<FanOut.Result<T>> fanOut(int queryType, Map<Integer, Statement> statements,
+                                                     FanOut.Task<T> task) {
+        List<FanOut.Result<T>> results = FanOut.execute(statements, task);
+        recordFanOut(queryType, results);
+        return results;
+    }
+
+    /*
+     * Records how many databases were asked and how long each of them took.
+     */
+    private static <T> void recordFanOut(int queryType, List<FanOut.Result<T>> results) {
+        if (MetricsRegistry.isEnabled()) {
+            String type = QueryTypeConstant.getName(queryType);
+            MetricsRegistry.record("fanout." + type, "databases", results.size());
+            for (FanOut.Result<T> result : results) {
+                MetricsRegistry.recordNanos("member." + type, result.getNanos());
+                MetricsRegistry.recordNanos("member." + getConnectionDB(result.getDBNumber()) + "." + type,
+                        result.getNanos());
+            }
+        }
+    }
+
+    /*
+     * Records the time since start for the query type, e.g. "parse." and
+     * INSERT as "parse.INSERT".
+     */
+    private static void recordNanos(String metric, int queryType, long start) {
+        if (MetricsRegistry.isEnabled()) {
+            MetricsRegistry.recordNanos(metric + QueryTypeConstant.getName(queryType), System.nanoTime() - start);
+        }
+    }
+
+    private static void logSending(Map<Integer, Statement> statements, String query) {
+        for (Integer statementKey : new TreeMap<>(statements).keySet()) {
+            CustomLogger.log(Level.INFO, "Sending to {0}: {1}", getConnectionDB(statementKey), query);
+        }
+    }
+
+    /*
+     * The whitespace of the query is only replaced if the message is logged
+     */
+    private static Supplier<String> withSingleSpaces(final String prefix, final String query) {
+        return new Supplier<String>() {
+            @Override
+            public String get() {
+                return prefix + query.replaceAll("  ", " ").replaceAll("\r\n", " ").replaceAll("\t", " ");
+            }
+        };
+    }
+
+    private static String getConnectionDB(Integer statementKey) {
+        return Topology.getSid(statementKey);
+    }
+
+    private int deleteFromTable(String query, ParsedQuery parsedQuery) throws FedException {
         int result = 0;
-        String connectionDB = "";
-        int statementKey = 1;
-        Statement statement = null;
-        CustomLogger.log(Level.INFO, "Received FJDBC: " + query);
-        // Map of 3 oracle.jdbc.driver.OracleStatement objects
-        while (statementKey <= statementsMap.size()) {
-            statement = statementsMap.get(statementKey);
-            if (statementKey == 1) {
-                connectionDB = ConnectionConstants.CONNECTION_1_SID;
-            }
-            if (statementKey == 2) {
-                connectionDB = ConnectionConstants.CONNECTION_2_SID;
-            }
-            if (statementKey == 3) {
-                connectionDB = ConnectionConstants.CONNECTION_3_SID;
-            }
-            CustomLogger.log(Level.INFO, "Sending to " + connectionDB + ": " + query);
-            try {
-                result += statement.executeUpdate(query);
-                statementKey++;
-            } catch (SQLException e) {
-                if (e instanceof SQLIntegrityConstraintViolationException) {
-                    statementKey++;
-                    continue;
-                } else if (fedStatement.getConnection().getAutoCommit() == false) {
-                    fedStatement.getConnection().rollback();
-
-                    String message = "Connect " + statementKey + " " + connectionDB + ": "
-                            + e.getLocalizedMessage();
-                    CustomLogger.log(Level.SEVERE, "JDBC SQLException in " + connectionDB
-                            + ": " + e.getLocalizedMessage());
-                    throw new FedException(new Throwable(message));
-                }
+        CustomLogger.log(Level.INFO, "Received FJDBC: {0}", query);
+        // Databases whose partition may hold rows matching the WHERE condition
+        HashMap<Integer, Statement> statements = DatabaseCatalog.getStatementsForCondition(statementsMap, query,
+                parsedQuery.getPartitioning());
+        logSending(statements, query);
+        for (FanOut.Result<Integer> update : fanOut(QueryTypeConstant.DELETE, statements, executeUpdateTask(query))) {
+            SQLException e = update.getException();
+            if (e == null) {
+                result += update.getValue();
+            } else if (e instanceof SQLIntegrityConstraintViolationException) {
+                continue;
+            } else if (fedStatement.getConnection().getAutoCommit() == false) {
+                fedStatement.getConnection().rollback();
+
+                String connectionDB = getConnectionDB(update.getDBNumber());
+                String message = "Connect " + update.getDBNumber() + " " + connectionDB + ": "
+                        + e.getLocalizedMessage();
+                CustomLogger.log(Level.SEVERE, "JDBC SQLException in " + connectionDB
+                        + ": " + e.getLocalizedMessage());
+                throw new FedException(new Throwable(message));
+            } else {
                 e.printStackTrace();
             }
-
         }
         return result;
     }
 
-    private static int insertIntoTable(String query) throws FedException {
-        //        HashMap<Integer, Statement> statements = DatabaseCatalog.getStatementsForQuery(query);
+    private int insertIntoTable(String query, ParsedQuery parsedQuery) throws FedException {
+        /*
+         * Rows of a partitioned table are sent to the database whose range
+         * contains the partition column value only. Otherwise the INSERT goes
+         * to every database and the _HORIZ check rejects it where it does not
+         * belong.
+         */
+        HashMap<Integer, Statement> statements = DatabaseCatalog.getStatementsForQuery(statementsMap, query,
+                parsedQuery.getPartitioning());
+        return insertIntoTable(query, statements, executeUpdateTask(query));
+    }
 
+    /**
+     * Executes a prepared INSERT, see FedPreparedStatement. The row is routed
+     * by the value bound to the partition column like insertIntoTable routes
+     * by the constant, and inserted with the PreparedStatements of the cache.
+     * A null value is bound with its SQL type of nullTypes.
+     */
+    public int executePreparedInsert(PreparedUpdate update, final Object[] values, final int[] nullTypes,
+                                     final PreparedStatementCache cache) throws FedException {
+        final String query = update.getQuery();
+        TablePartitioning partitioning = DatabaseCatalog.getPartitioning(update.getParsedQuery().getTableName());
+        Integer dbNumber = getDatabaseForParameters(query, partitioning, values);
         HashMap<Integer, Statement> statements = statementsMap;
+        if (dbNumber != null && statementsMap.containsKey(dbNumber)) {
+            statements = new HashMap<>();
+            statements.put(dbNumber, statementsMap.get(dbNumber));
+        }
 
-        int result = -1;
-        String connectionDB = "";
-        int statementKey = 1;
+        // The values are only shown in the log
+        String loggedQuery = CustomLogger.isLoggable(Level.INFO) ? query + " " + Arrays.toString(values) : query;
+        return insertIntoTable(loggedQuery, statements, new FanOut.Task<Integer>() {
+            @Override
+            public Integer execute(Integer dbNumber, Statement statement) throws SQLException {
+                PreparedStatement preparedStatement = cache.get(dbNumber, query);
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] == null) {
+                        preparedStatement.setNull(i + 1, nullTypes[i]);
+                    } else {
+                        preparedStatement.setObject(i + 1, values[i]);
+                    }
+                }
+                return preparedStatement.executeUpdate();
+            }
+        });
+    }
 
-        Statement statement = null;
+    /*
+     * Returns the database whose range contains the partition column value of
+     * the prepared INSERT, a constant or a bound parameter, or null.
+     */
+    private static Integer getDatabaseForParameters(String query, TablePartitioning partitioning,
+                                                    Object[] values) {
+        if (partitioning == null) {
+            return null;
+        }
+        List<String> constants = TablePartitioning.getValues(
+                query.substring(query.toUpperCase().indexOf("VALUES") + 6));
+        int columnIndex = partitioning.getColumnIndex();
+        if (constants == null || columnIndex < 0 || columnIndex >= constants.size()) {
+            return null;
+        }
+
+        String constant = constants.get(columnIndex);
+        if (constant.equals("?")) {
+            int parameter = 0;
+            for (int i = 0; i < columnIndex; i++) {
+                parameter += QueryClauses.getParameterPositions(constants.get(i)).size();
+            }
+            constant = QueryClauses.toLiteral(values[parameter]);
+        }
+        return partitioning.getDatabaseForValue(constant);
+    }
+
+    /*
+     * Inserts the row with the task into the databases of the statements. The
+     * query is logged and names the table.
+     */
+    private int insertIntoTable(String query, HashMap<Integer, Statement> statements,
+                                FanOut.Task<Integer> task) throws FedException {
+        boolean isRouted = statements.size() < statementsMap.size();
+
+        int result = -1;
         // Logger: redundant, was called earlier in executeUpdate
         // CustomLogger.log(Level.INFO, "Received FJDBC: " + query);
-        while (statementKey <= statements.size()) {
-            statement = statements.get(statementKey);
-            if (statementKey == 1) {
-                connectionDB = ConnectionConstants.CONNECTION_1_SID;
-            }
-            if (statementKey == 2) {
-                connectionDB = ConnectionConstants.CONNECTION_2_SID;
-            }
-            if (statementKey == 3) {
-                connectionDB = ConnectionConstants.CONNECTION_3_SID;
+        logSending(statements, query);
+        List<FanOut.Result<Integer>> inserts = new ArrayList<>(fanOut(QueryTypeConstant.INSERT, statements, task));
+        Set<Integer> retried = new HashSet<>();
+        int insertIndex = 0;
+        while (insertIndex < inserts.size()) {
+            FanOut.Result<Integer> insert = inserts.get(insertIndex);
+            Integer statementKey = insert.getDBNumber();
+            Statement statement = statementsMap.get(statementKey);
+            String connectionDB = getConnectionDB(statementKey);
+            SQLException e = insert.getException();
+            if (e == null) {
+                result = insert.getValue();
+            } else if (e instanceof SQLIntegrityConstraintViolationException) {
+                if (e.getMessage().toLowerCase().contains("unique constraint")) {
+                    throw new FedException(
+                            new Throwable(e.getMessage()));
+                } else if (e.getMessage().toLowerCase().contains("check ") && !e.getMessage().toLowerCase().contains("horiz")) {
+                    throw new FedException(
+                            new Throwable(e.getMessage()));
+                } else if (e.getMessage().toLowerCase()
+                        .contains("integrity constraint") && retried.add(statementKey)) {
+                    // Sends the row to this database again
+                    disableAllReferentialConstraints(query, statement);
+                    CustomLogger.log(Level.INFO, "Sending to {0}: {1}", connectionDB, query);
+                    inserts.set(insertIndex, fanOut(QueryTypeConstant.INSERT,
+                            Collections.singletonMap(statementKey, statement), task).get(0));
+                    continue;
+                } else if (isRouted) {
+                    /*
+                     * The catalog does not match the _HORIZ constraints of
+                     * the database, e.g. a table was changed by another
+                     * client. Send the row to the other databases instead.
+                     */
+                    CustomLogger.log(Level.WARNING, "Routed INSERT rejected by " + connectionDB
+                            + ", sending it to all databases: " + e.getLocalizedMessage());
+                    HashMap<Integer, Statement> otherStatements = new HashMap<>(statementsMap);
+                    otherStatements.remove(statementKey);
+                    isRouted = false;
+                    logSending(otherStatements, query);
+                    inserts.addAll(fanOut(QueryTypeConstant.INSERT, otherStatements, task));
+                }
+            } else if (fedStatement.getConnection().getAutoCommit() == false) {
+                fedStatement.getConnection().rollback();
+                String message = "Connect " + statementKey + " " + connectionDB + ": "
+                        + e.getLocalizedMessage();
+                CustomLogger.log(Level.SEVERE, "JDBC SQLException in " + connectionDB
+                        + ": " + e.getLocalizedMessage());
+                throw new FedException(new Throwable(message));
+            } else {
+                e.printStackTrace();
             }
+            insertIndex++;
+        }
+        return result;
+    }
+
+    /**
+     * Executes the statements in order and returns their update counts in
+     * the same order.
+     * <p>
+     * INSERTs of rows held by one database, and INSERTs into replicated
+     * tables, are collected per database and sent as one JDBC batch per
+     * database, the batches at the same time. Other statements, and rows whose
+     * database is not known, are executed like executeUpdate does; the rows
+     * collected before them are sent first.
+     */
+    public int[] executeBatch(List<String> queries) throws FedException, ParseException {
+        int[] counts = new int[queries.size()];
+        List<String> preparedQueries = new ArrayList<>();
+        List<ParsedQuery> parsedQueries = new ArrayList<>();
+        // Positions of the collected rows per database
+        TreeMap<Integer, List<Integer>> batches = new TreeMap<>();
 
+        for (int i = 0; i < queries.size(); i++) {
+            PreparedUpdate update;
             try {
-                CustomLogger.log(Level.INFO,
-                        "Sending to " + connectionDB + ": " + query);
-                result = statement.executeUpdate(query);
-                statementKey++;
-            } catch (SQLException e) {
-                if (e instanceof SQLIntegrityConstraintViolationException) {
-                    if (e.getMessage().toLowerCase().contains("unique constraint")) {
-                        throw new FedException(
-                                new Throwable(e.getMessage()));
-                    } else if (e.getMessage().toLowerCase().contains("check ") && !e.getMessage().toLowerCase().contains("horiz")) {
-                        throw new FedException(
-                                new Throwable(e.getMessage()));
-                    } else if (e.getMessage().toLowerCase()
-                            .contains("integrity constraint")) {
-                        disableAllReferentialConstraints(query, statement);
-                        statementKey--;
+                update = prepareUpdate(queries.get(i));
+            } catch (ParseException e) {
+                // The statements before are executed, as they are without a batch
+                sendBatches(batches, preparedQueries, parsedQueries, counts);
+                throw e;
+            }
+            preparedQueries.add(update.getQuery());
+            parsedQueries.add(update.getParsedQuery());
+
+            if (update.getParsedQuery().getQueryType() == QueryTypeConstant.INSERT) {
+                HashMap<Integer, Statement> statements = DatabaseCatalog.getStatementsForQuery(statementsMap,
+                        update.getQuery(), update.getParsedQuery().getPartitioning());
+                if (statements.size() == 1 || DatabaseCatalog.isReplicated(update.getParsedQuery().getTableName())) {
+                    for (Integer dbNumber : statements.keySet()) {
+                        if (!batches.containsKey(dbNumber)) {
+                            batches.put(dbNumber, new ArrayList<Integer>());
+                        }
+                        batches.get(dbNumber).add(i);
                     }
-                    statementKey++;
                     continue;
-                } else if (fedStatement.getConnection().getAutoCommit() == false) {
-                    fedStatement.getConnection().rollback();
-                    String message = "Connect " + statementKey + " " + connectionDB + ": "
-                            + e.getLocalizedMessage();
-                    CustomLogger.log(Level.SEVERE, "JDBC SQLException in " + connectionDB
-                            + ": " + e.getLocalizedMessage());
-                    throw new FedException(new Throwable(message));
                 }
-                e.printStackTrace();
+            }
+            sendBatches(batches, preparedQueries, parsedQueries, counts);
+            counts[i] = executeUpdate(update.getQuery(), update.getParsedQuery());
+        }
+        sendBatches(batches, preparedQueries, parsedQueries, counts);
+        return counts;
+    }
+
+    /*
+     * Sends the collected rows and clears the batches. A row sent to several
+     * databases gets the count of the last one, like insertIntoTable.
+     */
+    private void sendBatches(final TreeMap<Integer, List<Integer>> batches, final List<String> queries,
+                             List<ParsedQuery> parsedQueries, int[] counts) throws FedException {
+        if (batches.isEmpty()) {
+            return;
+        }
+        HashMap<Integer, Statement> statements = new HashMap<>();
+        for (Integer dbNumber : batches.keySet()) {
+            statements.put(dbNumber, statementsMap.get(dbNumber));
+            for (Integer row : batches.get(dbNumber)) {
+                CustomLogger.log(Level.INFO, "Sending to {0}: {1}", getConnectionDB(dbNumber), queries.get(row));
+            }
+        }
+
+        List<FanOut.Result<int[]>> results = fanOut(QueryTypeConstant.INSERT, statements,
+                new FanOut.Task<int[]>() {
+                    @Override
+                    public int[] execute(Integer dbNumber, Statement statement) throws SQLException {
+                        return executeBatch(statement, batches.get(dbNumber), queries);
+                    }
+                });
+        try {
+            for (FanOut.Result<int[]> result : results) {
+                handleBatchResult(result, batches.get(result.getDBNumber()), queries, parsedQueries, counts);
+            }
+        } finally {
+            batches.clear();
+        }
+    }
+
+    private static int[] executeBatch(Statement statement, List<Integer> rows, List<String> queries)
+            throws SQLException {
+        try {
+            for (Integer row : rows) {
+                statement.addBatch(queries.get(row));
+            }
+            return statement.executeBatch();
+        } finally {
+            statement.clearBatch();
+        }
+    }
+
+    /*
+     * Stores the update counts of the batch of one database. A failure is
+     * handled like a failed INSERT in insertIntoTable. Drivers that stop a
+     * batch at the failed row (like Oracle's) did not execute the rows after
+     * it, so they are sent again.
+     */
+    private void handleBatchResult(FanOut.Result<int[]> result, List<Integer> rows, List<String> queries,
+                                   List<ParsedQuery> parsedQueries, int[] counts) throws FedException {
+        Integer statementKey = result.getDBNumber();
+        Statement statement = statementsMap.get(statementKey);
+        String connectionDB = getConnectionDB(statementKey);
+        Set<String> retriedTables = new HashSet<>();
+        int[] batchCounts = result.getValue();
+        SQLException e = result.getException();
+
+        while (true) {
+            if (e instanceof BatchUpdateException) {
+                batchCounts = ((BatchUpdateException) e).getUpdateCounts();
+            }
+            List<Integer> failedRows = new ArrayList<>();
+            List<Integer> unexecutedRows = new ArrayList<>();
+            for (int i = 0; i < rows.size(); i++) {
+                if (batchCounts == null || i >= batchCounts.length) {
+                    (failedRows.isEmpty() ? failedRows : unexecutedRows).add(rows.get(i));
+                } else if (batchCounts[i] == Statement.EXECUTE_FAILED) {
+                    failedRows.add(rows.get(i));
+                } else {
+                    counts[rows.get(i)] = batchCounts[i];
+                }
+            }
+            if (e == null) {
+                return;
+            }
+            if (failedRows.isEmpty()) {
+                CustomLogger.log(Level.WARNING, "Batch in " + connectionDB + " failed after all rows were executed: "
+                        + e.getLocalizedMessage());
+                return;
+            }
+
+            String query = queries.get(failedRows.get(0));
+            String message = e.getMessage().toLowerCase();
+            if (message.contains("unique constraint")) {
+                throw new FedException(new Throwable(e.getMessage()));
+            } else if (message.contains("check ") && !message.contains("horiz")) {
+                throw new FedException(new Throwable(e.getMessage()));
+            } else if (message.contains("integrity constraint")
+                    && retriedTables.add(parsedQueries.get(failedRows.get(0)).getTableName())) {
+                // Sends the failed rows to this database again
+                disableAllReferentialConstraints(query, statement);
+                unexecutedRows.addAll(0, failedRows);
+            } else if (message.contains("horiz")) {
+                // The catalog does not match the _HORIZ constraints of the database
+                CustomLogger.log(Level.WARNING, "Routed INSERT rejected by " + connectionDB
+                        + ", sending it without batch: " + e.getLocalizedMessage());
+                for (Integer row : failedRows) {
+                    counts[row] = insertIntoTable(queries.get(row), parsedQueries.get(row));
+                }
+            } else if (fedStatement.getConnection().getAutoCommit() == false) {
+                fedStatement.getConnection().rollback();
+                String exceptionMessage = "Connect " + statementKey + " " + connectionDB + ": "
+                        + e.getLocalizedMessage();
+                CustomLogger.log(Level.SEVERE, "JDBC SQLException in " + connectionDB
+                        + ": " + e.getLocalizedMessage());
+                throw new FedException(new Throwable(exceptionMessage));
+            } else {
+                CustomLogger.log(Level.SEVERE, "JDBC SQLException in " + connectionDB
+                        + ": " + e.getLocalizedMessage());
+                for (Integer row : failedRows) {
+                    counts[row] = Statement.EXECUTE_FAILED;
+                }
+            }
+
+            if (unexecutedRows.isEmpty()) {
+                return;
+            }
+            rows = unexecutedRows;
+            for (Integer row : rows) {
+                CustomLogger.log(Level.INFO, "Sending to {0}: {1}", connectionDB, queries.get(row));
+            }
+            try {
+                batchCounts = executeBatch(statement, rows, queries);
+                e = null;
+            } catch (SQLException batchException) {
+                batchCounts = null;
+                e = batchException;
             }
         }
-        return result;
     }
 
     private static void disableAllReferentialConstraints(String query,
@@ -405,35 +820,17 @@ public class FederalController {
         DatabaseCatalog.disableAllReferentialConstraints(table, statement);
     }
 
-    private static int createTable(String query) throws FedException {
-        String connectionDB = "";
-        Integer connectionNumber = -1;
+    private int createTable(String query) throws FedException {
         boolean hasException = false;
         String exceptionMessage = "";
 
-        CustomLogger.log(Level.INFO, "Received FJDBC: " + query);
-        Statement statement = null;
-        for (Integer statementKey : statementsMap.keySet()) {
-            connectionNumber = statementKey;
-
-            if (statementKey == 1) {
-                connectionDB = ConnectionConstants.CONNECTION_1_SID;
-            }
-            if (statementKey == 2) {
-                connectionDB = ConnectionConstants.CONNECTION_2_SID;
-            }
-            if (statementKey == 3) {
-                connectionDB = ConnectionConstants.CONNECTION_3_SID;
-            }
-            statement = statementsMap.get(statementKey);
-
-            try {
-                CustomLogger.log(Level.INFO,
-                        "Sending to " + connectionDB + ": " + query);
-                statement.executeUpdate(query);
-            } catch (Exception e) {
-                String message = "Connect " + connectionNumber + " " + connectionDB
-                        + ": " + e.getLocalizedMessage();
+        CustomLogger.log(Level.INFO, "Received FJDBC: {0}", query);
+        logSending(statementsMap, query);
+        for (FanOut.Result<Integer> create : fanOut(QueryTypeConstant.CREATE_NON_PARTITIONED, statementsMap,
+                executeUpdateTask(query))) {
+            SQLException e = create.getException();
+            if (e != null) {
+                String connectionDB = getConnectionDB(create.getDBNumber());
                 CustomLogger.log(Level.SEVERE, "JDBC SQLException in " + connectionDB
                         + ": " + e.getLocalizedMessage());
                 hasException = true;
@@ -441,6 +838,7 @@ public class FederalController {
             }
         }
 
+        refreshCatalog(query, QueryTypeConstant.CREATE_NON_PARTITIONED);
         if (hasException)
             throw new FedException(new Throwable(exceptionMessage));
 
@@ -448,117 +846,68 @@ public class FederalController {
         return 0;
     }
 
-    private static int createTableHorizontal(String query) throws FedException {
-        Statement statementOfDB1 = statementsMap.get(1);
-        Statement statementOfDB2 = statementsMap.get(2);
-        Statement statementOfDB3 = statementsMap.get(3);
-
-    /*
-     * Sets true if the Create query has to be deployed on first 2 DBs, that
-     * means the list_of_boundaries for Horizontal Partitioning has only 1
-     * boundary
-     */
-        boolean createFewerPartitionsThanDBs = createFewerPartitionsThanDBs(query);
-
-        String queryForDB1 = buildPartitionedQueryForDB1(query,
-                createFewerPartitionsThanDBs);
-        String queryForDB2 = buildPartitionedQueryForDB2(query,
-                createFewerPartitionsThanDBs);
-        String queryForDB3 = buildPartitionedQueryForDB3(query,
-                createFewerPartitionsThanDBs);
+    private int createTableHorizontal(String query) throws FedException {
+        List<String> partitionQueries = buildPartitionedQueries(query);
+        if (partitionQueries.size() > statementsMap.size()) {
+            throw new FedException(new Throwable("HORIZONTAL defines " + partitionQueries.size()
+                    + " partitions, but the federation has " + statementsMap.size() + " databases"));
+        }
 
     /*
-     * Taking advantage to form query from DB3 to DB2 when there is only one
-     * boundary provided in list_of_boundaries for Horizontal Partitioning .
+     * Partition i is created in database i. With fewer boundaries than
+     * databases the last databases do not hold the table.
      */
-        if (createFewerPartitionsThanDBs) {
-            queryForDB2 = queryForDB3;
-        }
-        String fdbsCreated = "Query created by FDBS layer: ";
-        try {
-            CustomLogger.log(Level.INFO, fdbsCreated + queryForDB1
-                    .replaceAll("  ", " ").replaceAll("\r\n", " ").replaceAll("\t", " "));
-            CustomLogger.log(Level.INFO,
-                    "Sending to:" + ConnectionConstants.CONNECTION_1_SID + ": "
-                            + queryForDB1.replaceAll("  ", " ").replaceAll("\r\n", " ")
-                            .replaceAll("\t", " "));
-            statementOfDB1.executeUpdate(queryForDB1);
-        } catch (SQLException e) {
-            CustomLogger.log(Level.SEVERE,
-                    "JDBC SQLException in " + ConnectionConstants.CONNECTION_1_SID + ": "
-                            + e.getLocalizedMessage());
+        final HashMap<Integer, String> queries = new HashMap<>();
+        for (int i = 0; i < partitionQueries.size(); i++) {
+            queries.put(i + 1, partitionQueries.get(i));
         }
-        try {
-            CustomLogger.log(Level.INFO, fdbsCreated + queryForDB2
-                    .replaceAll("  ", " ").replaceAll("\r\n", " ").replaceAll("\t", " "));
-            CustomLogger.log(Level.INFO,
-                    "Sending to: " + ConnectionConstants.CONNECTION_2_SID + ": "
-                            + queryForDB2.replaceAll("  ", " ").replaceAll("\r\n", " ")
-                            .replaceAll("\t", " "));
-            statementOfDB2.executeUpdate(queryForDB2);
-        } catch (SQLException e) {
-            CustomLogger.log(Level.SEVERE,
-                    "JDBC SQLException in " + ConnectionConstants.CONNECTION_2_SID + ": "
-                            + e.getLocalizedMessage());
+
+        HashMap<Integer, Statement> statements = new HashMap<>();
+        for (Integer statementKey : new TreeMap<>(queries).keySet()) {
+            String queryForDB = queries.get(statementKey);
+            CustomLogger.log(Level.INFO, withSingleSpaces("Query created by FDBS layer: ", queryForDB));
+            CustomLogger.log(Level.INFO, withSingleSpaces("Sending to: " + getConnectionDB(statementKey) + ": ",
+                    queryForDB));
+            statements.put(statementKey, statementsMap.get(statementKey));
         }
-        try {
-            if (!createFewerPartitionsThanDBs) {
-                CustomLogger.log(Level.INFO,
-                        fdbsCreated + queryForDB3.replaceAll("  ", " ")
-                                .replaceAll("\r\n", " ").replaceAll("\t", " "));
-                CustomLogger.log(Level.INFO,
-                        "Sending to: " + ConnectionConstants.CONNECTION_3_SID + ": "
-                                + queryForDB3.replaceAll("  ", " ").replaceAll("\r\n", " ")
-                                .replaceAll("\t", " "));
-                statementOfDB3.executeUpdate(queryForDB3);
+
+        List<FanOut.Result<Integer>> creates = fanOut(QueryTypeConstant.CREATE_PARTITIONED, statements,
+                new FanOut.Task<Integer>() {
+                    @Override
+                    public Integer execute(Integer dbNumber, Statement statement) throws SQLException {
+                        return statement.executeUpdate(queries.get(dbNumber));
+                    }
+                });
+        for (FanOut.Result<Integer> create : creates) {
+            if (create.getException() != null) {
+                CustomLogger.log(Level.SEVERE, "JDBC SQLException in "
+                        + getConnectionDB(create.getDBNumber()) + ": "
+                        + create.getException().getLocalizedMessage());
             }
-        } catch (SQLException e) {
-            CustomLogger.log(Level.SEVERE,
-                    "Failed to send to " + ConnectionConstants.CONNECTION_3_SID + ": "
-                            + e.getLocalizedMessage());
         }
+        refreshCatalog(query, QueryTypeConstant.CREATE_PARTITIONED);
 
         // CREATE query is neither INSERT nor UPDATE so it will always return 0
         return 0;
     }
 
     /**
-     * This method checks whether the list_of_boundaries provided in Horizontal
-     * Partitioning has only 1 boundary. Returns true for 1 element.
+     * Builds the CREATE TABLE of every partition of a HORIZONTAL query, one
+     * more than the list_of_boundaries has boundaries. Each gets a _HORIZ
+     * check constraint on its range of the partition column, e.g. for
+     * PNR(35,70): "PNR <= 35", "PNR between 36 and 70" and "PNR > 70".
+     * <p>
+     * Number boundaries belong to the partition below them. String
+     * boundaries can not be incremented, so the first string boundary belongs
+     * to the partition above it ('KK' is in "FLC between 'KK' and 'MM'") and
+     * the following ones to the partition below them.
      *
      * @param query
      */
-    private static boolean createFewerPartitionsThanDBs(String query) {
-        boolean createFewerPartitionsThanDBs = false;
-        String columnName = query.substring(
-                query.indexOf("HORIZONTAL (") + "HORIZONTAL (".length(),
-                query.lastIndexOf("("));
-        // Fetching range
-        int firstIndex = query.lastIndexOf(columnName + "(")
-                + (columnName.length() + 1);
-        int secondIndex = query.lastIndexOf(",");
-
-    /*
-     * "True" means only 1 boundary provided for horizontal partitioning, so
-     * table should be created in first 2 DBs.
-     */
-        if (secondIndex < firstIndex) {
-            secondIndex = query.lastIndexOf("))");
-            createFewerPartitionsThanDBs = true;
-        }
-        return createFewerPartitionsThanDBs;
-    }
-
-    private static String buildPartitionedQueryForDB1(String query,
-                                                      boolean createFewerPartitionsThanDBs) {
-        StringBuffer executableQuery = new StringBuffer();
-        StringBuffer basicQuery = new StringBuffer(
-                query.substring(0, query.indexOf("HORIZONTAL")));
-
+    private static List<String> buildPartitionedQueries(String query) {
         // Removes last ')' to further append constraint
-        basicQuery = new StringBuffer(
-                basicQuery.substring(0, basicQuery.lastIndexOf(")")));
-        basicQuery.append(", constraint ");
+        String basicQuery = query.substring(0, query.indexOf("HORIZONTAL"));
+        basicQuery = basicQuery.substring(0, basicQuery.lastIndexOf(")"));
 
         // Get values from the Query to build a constraint
         String tableName = query.substring("CREATE TABLE ".length(),
@@ -566,161 +915,60 @@ public class FederalController {
         String columnName = query.substring(
                 query.indexOf("HORIZONTAL (") + "HORIZONTAL (".length(),
                 query.lastIndexOf("("));
-
-        // Fetching range
-        int firstIndex = query.lastIndexOf(columnName + "(")
-                + (columnName.length() + 1);
-        int secondIndex = query.lastIndexOf(",");
-
-        // If true it means it has one list of attribute for horizontal
-        // partitioning
-        if (createFewerPartitionsThanDBs) {
-            secondIndex = query.lastIndexOf("))");
+        List<String> boundaries = new ArrayList<String>();
+        for (String boundary : query.substring(query.lastIndexOf("(") + 1, query.lastIndexOf("))")).split(",")) {
+            boundaries.add(boundary.trim());
         }
-
-        String maxRange = query.substring(firstIndex, secondIndex);
-
-        // Appends constraint name
-        basicQuery.append(tableName + "_" + columnName + "_HORIZ check (");
-        basicQuery.append(columnName + " " + (maxRange.contains("\'") ? "<" : "<=")
-                + " " + maxRange);
-        basicQuery.append(")");
-
-        // Adds back ')' after constraint is appended
-        executableQuery = basicQuery.append(")");
-
-        return executableQuery.toString();
-    }
-
-    private static String buildPartitionedQueryForDB2(String query,
-                                                      boolean createFewerPartitionsThanDBs) {
-        if (createFewerPartitionsThanDBs) {
-            return "";
-        }
-
-        StringBuffer executableQuery = new StringBuffer();
-        StringBuffer basicQuery = new StringBuffer(
-                query.substring(0, query.indexOf("HORIZONTAL")));
-
-        // Removes last ')' to further append constraint
-        basicQuery = new StringBuffer(
-                basicQuery.substring(0, basicQuery.lastIndexOf(")")));
-
-        basicQuery.append(", constraint ");
-
-        // Get values from Query to build constraint
-        String tableName = query.substring("CREATE TABLE ".length(),
-                query.indexOf(" ", "CREATE TABLE ".length()));
-        String columnName = query.substring(
-                query.indexOf("HORIZONTAL (") + "HORIZONTAL (".length(),
-                query.lastIndexOf("("));
-        String lowerRange = query.substring(
-                query.indexOf(columnName + "(") + (columnName.length() + 1),
-                query.lastIndexOf(","));
-        String upperRange = query.substring(
-                query.indexOf(lowerRange + ",") + (lowerRange + ",").length(),
-                query.lastIndexOf("))"));
-
-        // Appends constraint name
-        basicQuery.append(tableName + "_" + columnName + "_HORIZ check (");
-        basicQuery.append(columnName);
-        basicQuery
-                .append(
-                        " between "
-                                + (lowerRange.contains("\'") ? lowerRange
-                                : (Integer.parseInt(lowerRange) + 1))
-                                + " and " + upperRange);
-        basicQuery.append(")");
-
-        // Adds back ')' after constraint is appended
-        executableQuery = basicQuery.append(")");
-
-        return executableQuery.toString();
-    }
-
-    private static String buildPartitionedQueryForDB3(String query,
-                                                      boolean createFewerPartitionsThanDBs) {
-        StringBuffer executableQuery = new StringBuffer();
-        StringBuffer basicQuery = new StringBuffer(
-                query.substring(0, query.indexOf("HORIZONTAL")));
-
-        String operator = "";
-        if (createFewerPartitionsThanDBs) {
-            operator = " >= ";
-        } else {
-            operator = " > ";
+        boolean isString = boundaries.get(0).contains("\'");
+
+        List<String> conditions = new ArrayList<String>();
+        conditions.add(columnName + " " + (isString ? "<" : "<=") + " " + boundaries.get(0));
+        for (int i = 1; i < boundaries.size(); i++) {
+            String lower = boundaries.get(i - 1);
+            String upper = boundaries.get(i);
+            if (!isString) {
+                conditions.add(columnName + " between " + (Long.parseLong(lower) + 1) + " and " + upper);
+            } else if (i == 1) {
+                conditions.add(columnName + " between " + lower + " and " + upper);
+            } else {
+                conditions.add(columnName + " > " + lower + " and " + columnName + " <= " + upper);
+            }
         }
-
-        // Removes last ')' to further append constraint
-        basicQuery = new StringBuffer(
-                basicQuery.substring(0, basicQuery.lastIndexOf(")")));
-
-        basicQuery.append(", constraint ");
-
-        // Get values from Query to build constraint
-        String tableName = query.substring("CREATE TABLE ".length(),
-                query.indexOf(" ", "CREATE TABLE ".length()));
-        String columnName = query.substring(
-                query.indexOf("HORIZONTAL (") + "HORIZONTAL (".length(),
-                query.lastIndexOf("("));
-
-        String maxRange = "";
-        if (createFewerPartitionsThanDBs) {
-            maxRange = query.substring(
-                    query.indexOf(columnName + "(") + (columnName.length() + 1),
-                    query.lastIndexOf("))"));
-        } else {
-            maxRange = query.substring(query.lastIndexOf(",") + 1,
-                    query.lastIndexOf("))"));
+        String last = boundaries.get(boundaries.size() - 1);
+        conditions.add(columnName + (isString && boundaries.size() == 1 ? " >= " : " > ") + last);
+
+        List<String> queries = new ArrayList<String>();
+        for (String condition : conditions) {
+            // Appends constraint name, adds back ')' after constraint is appended
+            queries.add(basicQuery + ", constraint " + tableName + "_" + columnName
+                    + "_HORIZ check (" + condition + "))");
         }
-
-        // Appends constraint name
-        basicQuery.append(tableName + "_" + columnName + "_HORIZ check (");
-        basicQuery.append(columnName + operator + maxRange);
-        basicQuery.append(")");
-
-        // Adds back ')' after constraint is appended
-        executableQuery = basicQuery.append(")");
-
-        return executableQuery.toString();
+        return queries;
     }
 
-    private static int dropTable(String query) throws FedException {
+    private int dropTable(String query) throws FedException {
         int result = -1;
-        String connectionDB = "";
-        Integer connectionNumber = -1;
-
-        Statement statement = null;
 
         String exMessage = null;        //store exception message to use later
         //track where exceptions occur
         List<String> exOrigin = new ArrayList<String>();
 
-        for (Integer statementKey : statementsMap.keySet()) {
-            connectionNumber = statementKey;
-            if (statementKey == 1) {
-                connectionDB = ConnectionConstants.CONNECTION_1_SID;
-            }
-            if (statementKey == 2) {
-                connectionDB = ConnectionConstants.CONNECTION_2_SID;
-            }
-            if (statementKey == 3) {
-                connectionDB = ConnectionConstants.CONNECTION_3_SID;
-            }
-
-            statement = statementsMap.get(statementKey);
-            CustomLogger.log(Level.INFO, "Sending to " + connectionDB + ": " + query
-                    .replaceAll("  ", " ").replaceAll("\r\n", " ").replaceAll("\t", " "));
-            try {
-                result = statement.executeUpdate(query);
-            } catch (SQLException e) {
-                exMessage = e.getMessage();
+        for (Integer statementKey : new TreeMap<>(statementsMap).keySet()) {
+            CustomLogger.log(Level.INFO, withSingleSpaces("Sending to " + getConnectionDB(statementKey) + ": ",
+                    query));
+        }
+        for (FanOut.Result<Integer> drop : fanOut(QueryTypeConstant.DROP, statementsMap, executeUpdateTask(query))) {
+            String connectionDB = getConnectionDB(drop.getDBNumber());
+            if (drop.getException() == null) {
+                result = drop.getValue();
+            } else {
+                exMessage = drop.getException().getMessage();
                 CustomLogger.log(Level.SEVERE,
                         "SQLException in " + connectionDB + ":" + exMessage);
                 exOrigin.add(connectionDB);
             }
-            //continue;
         }
+        refreshCatalog(query, QueryTypeConstant.DROP);
         if (exOrigin.size() > 0) {
             throw new FedException(new Throwable("SQLException occured in "
                     + String.join(",", exOrigin) + ": " + exMessage));
@@ -750,98 +998,530 @@ public class FederalController {
         return new ByteArrayInputStream(query.getBytes());
     }
 
-    public static void setFedStatement(FedStatement statement) {
-        fedStatement = statement;
-    }
-
-    public static FedResultSet executeSelectQuery(String query)
+    public FedResultSet executeSelectQuery(String query)
             throws FedException {
-        // Do not execute HAVING query
-        if (query.toUpperCase().contains(" HAVING ")) {
-            throw new FedException(new Throwable("\'HAVING\' is not supported."));
-        }
-
         FedResultSet instance = null;
         int queryType = QueryTypeConstant.NONE;
+        ParsedQuery parsedQuery;
+        long start = System.nanoTime();
 
     /* Some complex preprocess start */
 
+        // The grammar has no ORDER BY, it is sent to the databases as it is
+        String orderByClause = "";
+        int orderByIndex = QueryClauses.indexOfOrderBy(query);
+        if (orderByIndex >= 0) {
+            orderByClause = query.substring(orderByIndex).trim();
+            query = query.substring(0, orderByIndex).trim();
+        }
+
+        // The grammar has no COUNT(*) with WHERE, the condition is sent as it is
+        String whereClause = "";
+        if (isCountWithWhere(query)) {
+            int whereIndex = QueryClauses.indexOfKeyword(query, "WHERE");
+            whereClause = query.substring(whereIndex).trim();
+            query = query.substring(0, whereIndex).trim();
+        }
+
     /*
      * Removes tabs, extra spaces and lines for fdbs.parser to understand according
      * to the grammar. NOTE: We use this method because skipping tabs, spaces
      * and new lines does not work efficiently.
      */
         query = processQueryForParser(query);
+        long normalizeNanos = System.nanoTime() - start;
 
     /* Some complex preprocess end */
 
-        // Every query needs ';' to parse, so being added here.
         // Parsing starts here.
-        GepardParser parser = new GepardParser(convertToParsableQuery(query + ";"));
-
-        // This method is a general method from where all grammar starts.
+        long parseStart = System.nanoTime();
         try {
-            queryType = parser.ParseQuery();
+            parsedQuery = parse(query);
+            queryType = parsedQuery.getQueryType();
         } catch (ParseException e) {
             throw new FedException(new Throwable(e.getMessage()));
         }
+        recordNanos("parse.", queryType, parseStart);
 
     /* Some complex post process start before going to database */
 
-    /*
-     * Special characters like umlauts were replaced with unicode equivalents
-     * while running processQueryForParser method. Reason: JavaCC does not
-     * support umlauts
-     */
-        query = UnicodeManager.replaceUnicodesWithChars(query);
-        query = replace3DashesWithSpace(query);
-        query = replaceBraces(query);
+        long normalizeStart = System.nanoTime();
+        query = processQueryForDatabase(query);
+
+        if (!whereClause.isEmpty()) {
+            query += " " + whereClause;
+        }
+        if (!orderByClause.isEmpty()) {
+            query += " " + orderByClause;
+        }
+        // Both steps of the normalization, without the parse between them
+        recordNanos("normalize.", queryType, normalizeStart - normalizeNanos);
 
     /* Some complex post process end before going to database */
 
         switch (queryType) {
             case QueryTypeConstant.SELECT_COUNT_ALL_TABLE:
-                instance = selectCountAllTable(query);
+                instance = selectCountAllTable(query, parsedQuery);
+                break;
+            case QueryTypeConstant.SELECT_WITH_GROUP:
+                instance = selectWithGroup(query, parsedQuery,
+                        orderByClause.isEmpty() ? null : OrderBy.parse(orderByClause));
                 break;
-            //            case QueryTypeConstant.SELECT_WITH_GROUP:
-            //                System.out.println("with group");
-            //                break;
             //            case QueryTypeConstant.SELECT_WITHOUT_GROUP:
             //                System.out.println("without group");
             //                break;
             default:
-                instance = executeQuery(query);
+                if (QueryClauses.isSingleTable(query)) {
+                    instance = executeQuery(query, parsedQuery,
+                            orderByClause.isEmpty() ? null : OrderBy.parse(orderByClause));
+                } else {
+                    instance = selectJoin(query, parsedQuery,
+                            orderByClause.isEmpty() ? null : OrderBy.parse(orderByClause));
+                }
         }
 
+        // Time until the rows can be read, the rows are counted by the result set
+        recordNanos("statement.", queryType, start);
+        instance.setRowsMetric("rows." + QueryTypeConstant.getName(queryType));
         return instance;
     }
 
-    private static FedResultSet executeQuery(String query) throws FedException {
-        List<ResultSet> resultSets = new ArrayList<>();
+    /*
+     * Checks whether the query is "SELECT COUNT(*) FROM table WHERE ...".
+     */
+    private static boolean isCountWithWhere(String query) {
+        String selectList = QueryClauses.getClause(query, "SELECT", "FROM");
+        return selectList != null && Aggregation.normalize(selectList).equals("COUNT(*)")
+                && QueryClauses.getWhereCondition(query) != null
+                && QueryClauses.indexOfKeyword(query, "GROUP") < 0
+                && QueryClauses.indexOfKeyword(query, "HAVING") < 0;
+    }
+
+    private FedResultSet executeQuery(String query, ParsedQuery parsedQuery, OrderBy orderBy)
+            throws FedException {
+        return mergeResults(query, DatabaseCatalog.getStatementsForSelect(statementsMap, query,
+                parsedQuery.getTableName(), parsedQuery.getPartitioning()), parsedQuery.getQueryType(), orderBy);
+    }
+
+    /*
+     * Every database sorts its rows, they are merged into one sorted result.
+     * ORDER BY expressions that are not selected are needed to merge: they
+     * are added to the query as hidden columns at the end before it is sent.
+     * Only if the columns of the result do not match the select list, e.g.
+     * for an ORDER BY expression on SELECT *, the query is sent again with
+     * the columns the result lacks.
+     */
+    private FedResultSet mergeResults(String query, HashMap<Integer, Statement> statements, int queryType,
+                                      OrderBy orderBy) throws FedException {
+        if (orderBy == null || statements.size() < 2) {
+            return new FedResultSet(executeQueries(query, statements, queryType));
+        }
+
+        String selectList = QueryClauses.getClause(query, "SELECT", "FROM");
+        List<String> hiddenColumns = selectList == null ? new ArrayList<String>()
+                : orderBy.getUnselectedExpressions(selectList);
+        // SELECT DISTINCT can not get more columns, the result tells whether it has to
+        if (!hiddenColumns.isEmpty() && QueryClauses.indexOfKeyword(selectList, "DISTINCT") < 0) {
+            int visibleColumnCount = QueryClauses.split(selectList, ',').size();
+            return mergeSorted(addHiddenColumns(query, hiddenColumns), statements, queryType, orderBy,
+                    visibleColumnCount);
+        }
+
+        List<ResultSet> resultSets = executeQueries(query, statements, queryType);
+        int visibleColumnCount;
+        try {
+            ResultSetMetaData metaData = resultSets.get(0).getMetaData();
+            if (orderBy.bind(metaData)) {
+                return new FedResultSet(resultSets, orderBy);
+            }
+            hiddenColumns = orderBy.getUnboundExpressions(metaData);
+            visibleColumnCount = metaData.getColumnCount();
+        } catch (SQLException e) {
+            closeAll(resultSets);
+            throw new FedException(new Throwable(e.getMessage()));
+        }
+        closeAll(resultSets);
 
-        for (Statement statement : statementsMap.values()) {
+        if (selectList != null && QueryClauses.indexOfKeyword(selectList, "DISTINCT") >= 0) {
+            throw new FedException(new Throwable("ORDER BY of SELECT DISTINCT has to use selected columns: "
+                    + orderBy));
+        }
+        return mergeSorted(addHiddenColumns(query, hiddenColumns), statements, queryType, orderBy,
+                visibleColumnCount);
+    }
+
+    /*
+     * Sends the query with the hidden ORDER BY columns and merges the results.
+     * The first visibleColumnCount columns are returned.
+     */
+    private FedResultSet mergeSorted(String sortQuery, HashMap<Integer, Statement> statements, int queryType,
+                                     OrderBy orderBy, int visibleColumnCount) throws FedException {
+        CustomLogger.log(Level.INFO, "Selecting the ORDER BY columns to merge: {0}", sortQuery);
+        List<ResultSet> resultSets = executeQueries(sortQuery, statements, queryType);
+        try {
+            if (!orderBy.bind(resultSets.get(0).getMetaData())) {
+                throw new SQLException("Can not merge by " + orderBy + ", the ORDER BY columns are not found");
+            }
+        } catch (SQLException e) {
+            closeAll(resultSets);
+            throw new FedException(new Throwable(e.getMessage()));
+        }
+        FedResultSet resultSet = new FedResultSet(resultSets, orderBy);
+        resultSet.setVisibleColumnCount(visibleColumnCount);
+        return resultSet;
+    }
+
+    /*
+     * Appends the expressions to the select list of the query.
+     */
+    private static String addHiddenColumns(String query, List<String> hiddenColumns) throws FedException {
+        StringBuilder columns = new StringBuilder();
+        for (String expression : hiddenColumns) {
+            if (OrderBy.isPosition(expression)) {
+                throw new FedException(new Throwable("ORDER BY position " + expression + " is not selected"));
+            }
+            columns.append(", ").append(expression);
+        }
+        int fromIndex = QueryClauses.indexOfKeyword(query, "FROM");
+        return query.substring(0, fromIndex).trim() + columns + " " + query.substring(fromIndex);
+    }
+
+    private static void closeAll(List<ResultSet> resultSets) {
+        for (ResultSet resultSet : resultSets) {
             try {
-                resultSets.add(statement.executeQuery(query));
+                resultSet.close();
             } catch (SQLException e) {
-                throw new FedException(e.getCause());
+                CustomLogger.log(Level.WARNING, "Can not close result set: " + e.getMessage());
             }
         }
+    }
 
-        return new FedResultSet(resultSets);
+    /*
+     * Sends the query to the databases that may hold rows of it and returns
+     * their results in database order.
+     */
+    private List<ResultSet> executeQueries(String query, ParsedQuery parsedQuery) throws FedException {
+        return executeQueries(query, DatabaseCatalog.getStatementsForSelect(statementsMap, query,
+                parsedQuery.getTableName(), parsedQuery.getPartitioning()), parsedQuery.getQueryType());
+    }
 
+    private List<ResultSet> executeQueries(String query, HashMap<Integer, Statement> statements,
+                                           int queryType) throws FedException {
+        List<ResultSet> resultSets = new ArrayList<>();
+        if (statements.size() < statementsMap.size()) {
+            // A copy, the record is formatted later on the writer thread
+            CustomLogger.log(Level.INFO, "Sending to databases {0} only: {1}",
+                    new TreeSet<>(statements.keySet()), query);
+        }
+        SQLException failure = null;
+        for (FanOut.Result<ResultSet> select : fanOut(queryType, statements, executeQueryTask(query))) {
+            if (select.getException() != null) {
+                if (failure == null) {
+                    failure = select.getException();
+                }
+            } else {
+                resultSets.add(select.getValue());
+            }
+        }
+        if (failure != null) {
+            // The results of the other databases are not returned, so they are closed here
+            closeAll(resultSets);
+            throw new FedException(failure.getCause());
+        }
+        return resultSets;
     }
 
-    private static FedResultSet selectCountAllTable(String query)
+    /*
+     * A join of two tables. If the databases can not join their own rows, the
+     * rows of both tables are read and joined by HashJoin: first the ones of
+     * the table read from fewer databases, as they are held in memory, then
+     * the others. The queries of both tables are sent at once, so the
+     * databases of the probe side fetch its rows while the build side is
+     * read, see executeJoinQueries.
+     */
+    private FedResultSet selectJoin(String query, ParsedQuery parsedQuery, OrderBy orderBy)
             throws FedException {
-        List<ResultSet> resultSets = new ArrayList<>();
+        Join join = Join.parse(query);
+        if (join == null) {
+            // Only a database holding every row of the tables can join them
+            HashMap<Integer, Statement> statements = DatabaseCatalog.getStatementsForJoin(statementsMap, query);
+            if (statements == null) {
+                throw new FedException(new Throwable("Can not join the rows of different databases for: " + query));
+            }
+            return mergeResults(query, statements, parsedQuery.getQueryType(), orderBy);
+        }
+
+        HashMap<Integer, Statement> statements = DatabaseCatalog.getStatementsForJoin(statementsMap, join);
+        if (statements != null) {
+            return mergeResults(query, statements, parsedQuery.getQueryType(), orderBy);
+        }
+
+        // The join sorts by position, columns only sorted by are added to it and hidden
+        int visibleColumnCount = join.getColumnCount();
+        if (orderBy != null) {
+            List<String> expressions = orderBy.getExpressions();
+            int[] positions = new int[expressions.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = join.addSortColumn(expressions.get(i));
+                if (positions[i] == 0) {
+                    throw new FedException(new Throwable("Can not sort the join by " + expressions.get(i)
+                            + ", it is no column of " + join.getTable(0) + " or " + join.getTable(1)));
+                }
+            }
+            orderBy = orderBy.atPositions(positions);
+        }
+
+        List<HashMap<Integer, Statement>> sideStatements = new ArrayList<>();
+        for (int side = 0; side < 2; side++) {
+            sideStatements.add(DatabaseCatalog.getStatementsForSelect(statementsMap, join.getFetchQuery(side),
+                    join.getTable(side), DatabaseCatalog.getPartitioning(join.getTable(side))));
+        }
+        int buildSide = sideStatements.get(1).size() <= sideStatements.get(0).size() ? 1 : 0;
+        int probeSide = 1 - buildSide;
+        CustomLogger.log(Level.INFO, "Joining {0} with {1} in the federation layer: {2}", join.getTable(buildSide),
+                join.getTable(probeSide), query);
+
+        List<List<ResultSet>> sideResults = executeJoinQueries(join, sideStatements, buildSide,
+                parsedQuery.getQueryType());
+        List<ResultSet> probeResults = sideResults.get(probeSide);
+        HashJoin hashJoin = new HashJoin(join, buildSide);
+        List<ResultSet> resultSets;
+        try {
+            hashJoin.build(sideResults.get(buildSide));
+            hashJoin.probe(probeResults);
+            resultSets = new ArrayList<>();
+            resultSets.add(new JoinResultSet(probeResults, hashJoin, orderBy, visibleColumnCount));
+        } catch (SQLException e) {
+            hashJoin.close();
+            closeAll(sideResults.get(buildSide));
+            closeAll(probeResults);
+            throw new FedException(new Throwable(e.getMessage()));
+        }
+        return new FedResultSet(resultSets);
+    }
+
+    /*
+     * Sends the fetch queries of both sides of the join to their databases
+     * at once and returns the results by side, in database order. A
+     * database of both sides gets the probe query on a Statement of its own,
+     * closed with the probe result, so the result of the build side stays
+     * open.
+     */
+    private static List<List<ResultSet>> executeJoinQueries(final Join join,
+                                                            List<HashMap<Integer, Statement>> sideStatements,
+                                                            int buildSide, int queryType) throws FedException {
+        int probeSide = 1 - buildSide;
+        HashMap<Integer, Statement[]> statements = new HashMap<>();
+        List<Statement> ownStatements = new ArrayList<>();
+        try {
+            for (int side = 0; side < 2; side++) {
+                for (Map.Entry<Integer, Statement> entry : sideStatements.get(side).entrySet()) {
+                    Statement[] dbStatements = statements.get(entry.getKey());
+                    if (dbStatements == null) {
+                        dbStatements = new Statement[2];
+                        statements.put(entry.getKey(), dbStatements);
+                    }
+                    dbStatements[side] = entry.getValue();
+                }
+            }
+            for (Statement[] dbStatements : statements.values()) {
+                if (dbStatements[buildSide] != null && dbStatements[probeSide] != null) {
+                    Statement statement = dbStatements[probeSide].getConnection().createStatement();
+                    ownStatements.add(statement);
+                    statement.setFetchSize(dbStatements[probeSide].getFetchSize());
+                    statement.closeOnCompletion();
+                    dbStatements[probeSide] = statement;
+                }
+            }
+        } catch (SQLException e) {
+            closeStatements(ownStatements);
+            throw new FedException(new Throwable(e.getMessage()));
+        }
+
+        List<List<ResultSet>> sideResults = new ArrayList<>();
+        sideResults.add(new ArrayList<ResultSet>());
+        sideResults.add(new ArrayList<ResultSet>());
+        SQLException failure = null;
+        List<FanOut.Result<ResultSet[]>> selects = FanOut.execute(statements,
+                new FanOut.Work<Statement[], ResultSet[]>() {
+                    @Override
+                    public ResultSet[] execute(Integer dbNumber, Statement[] dbStatements) throws SQLException {
+                        ResultSet[] results = new ResultSet[2];
+                        try {
+                            for (int side = 0; side < 2; side++) {
+                                if (dbStatements[side] != null) {
+                                    results[side] = dbStatements[side].executeQuery(join.getFetchQuery(side));
+                                }
+                            }
+                        } catch (SQLException e) {
+                            if (results[0] != null) {
+                                results[0].close();
+                            }
+                            throw e;
+                        }
+                        return results;
+                    }
+                });
+        recordFanOut(queryType, selects);
+        for (FanOut.Result<ResultSet[]> select : selects) {
+            if (select.getException() != null) {
+                if (failure == null) {
+                    failure = select.getException();
+                }
+                continue;
+            }
+            for (int side = 0; side < 2; side++) {
+                if (select.getValue()[side] != null) {
+                    sideResults.get(side).add(select.getValue()[side]);
+                }
+            }
+        }
+        if (failure != null) {
+            closeAll(sideResults.get(0));
+            closeAll(sideResults.get(1));
+            closeStatements(ownStatements);
+            throw new FedException(new Throwable(failure.getMessage()));
+        }
+        return sideResults;
+    }
 
-        for (Statement statement : statementsMap.values()) {
+    private static void closeStatements(List<Statement> statements) {
+        for (Statement statement : statements) {
             try {
-                resultSets.add(statement.executeQuery(query));
+                statement.close();
             } catch (SQLException e) {
-                throw new FedException(e.getCause());
+                CustomLogger.log(Level.WARNING, "Can not close statement: " + e.getMessage());
+            }
+        }
+    }
+
+    /*
+     * Every database aggregates its own rows and returns one row per group,
+     * the groups of all databases are merged by GroupByResultSet. Queries
+     * whose aggregates can not be merged are only answered if one database
+     * holds all rows, e.g. of a replicated table.
+     */
+    private FedResultSet selectWithGroup(String query, ParsedQuery parsedQuery, OrderBy orderBy)
+            throws FedException {
+        HashMap<Integer, Statement> statements = DatabaseCatalog.getStatementsForSelect(statementsMap, query,
+                parsedQuery.getTableName(), parsedQuery.getPartitioning());
+        String having = QueryClauses.getClause(query, "HAVING", "ORDER");
+        // A single database evaluates HAVING on its groups as they are complete
+        if (having != null && statements.size() == 1) {
+            return mergeResults(query, statements, parsedQuery.getQueryType(), orderBy);
+        }
+
+        Aggregation aggregation = Aggregation.parse(query);
+        if (aggregation == null) {
+            if (statements.size() == 1) {
+                return mergeResults(query, statements, parsedQuery.getQueryType(), orderBy);
+            }
+            if (having != null) {
+                throw new FedException(new Throwable("HAVING can not be evaluated on the groups of: " + query));
+            }
+            throw new FedException(new Throwable("The groups of the databases can not be merged for: " + query));
+        }
+
+        Predicate predicate = null;
+        int visibleColumnCount = aggregation.getColumnCount();
+        if (having != null) {
+            predicate = Predicate.parse(having);
+            if (predicate == null || !predicate.isEvaluable()) {
+                throw new FedException(new Throwable("HAVING condition is not supported: " + having));
+            }
+            query = removeHaving(query, aggregation, predicate);
+            aggregation = Aggregation.parse(query);
+            if (aggregation == null) {
+                throw new FedException(new Throwable("HAVING can not be evaluated on the groups of: " + query));
+            }
+        }
+        if (orderBy != null) {
+            query = addSortColumns(query, aggregation, orderBy, visibleColumnCount);
+            aggregation = Aggregation.parse(query);
+            if (aggregation == null) {
+                throw new FedException(new Throwable("Can not sort the groups by " + orderBy + ": " + query));
+            }
+        }
+
+        if (statements.size() == 1 && predicate == null && aggregation.getColumnCount() == visibleColumnCount) {
+            return new FedResultSet(executeQueries(query, statements, parsedQuery.getQueryType()));
+        }
+        List<ResultSet> resultSets = executeQueries(aggregation.getPartialQuery(query), statements,
+                parsedQuery.getQueryType());
+
+        ResultSet rs;
+        try {
+            rs = new GroupByResultSet(resultSets, aggregation, predicate, visibleColumnCount, orderBy);
+        } catch (SQLException e) {
+            closeAll(resultSets);
+            throw new FedException(new Throwable(e.getMessage()));
+        }
+        resultSets = new ArrayList<>();
+        resultSets.add(rs);
+        return new FedResultSet(resultSets);
+    }
+
+    /*
+     * The databases only know part of the rows of a group, so HAVING is
+     * removed from the query and evaluated on the merged groups. Aggregates
+     * HAVING uses that are not selected are added to the select list.
+     */
+    private static String removeHaving(String query, Aggregation aggregation, Predicate having)
+            throws FedException {
+        int havingIndex = QueryClauses.indexOfKeyword(query, "HAVING");
+        int orderByIndex = QueryClauses.indexOfOrderBy(query);
+        String withoutHaving = query.substring(0, havingIndex).trim()
+                + (orderByIndex > havingIndex ? " " + query.substring(orderByIndex) : "");
+
+        StringBuilder hiddenColumns = new StringBuilder();
+        for (String operand : having.getOperands()) {
+            if (aggregation.indexOf(operand) >= 0) {
+                continue;
+            }
+            if (operand.indexOf('(') < 0) {
+                throw new FedException(new Throwable("HAVING uses a column that is not grouped by: " + operand));
+            }
+            hiddenColumns.append(", ").append(Aggregation.normalize(operand));
+        }
+        if (hiddenColumns.length() == 0) {
+            return withoutHaving;
+        }
+        int fromIndex = QueryClauses.indexOfKeyword(withoutHaving, "FROM");
+        return withoutHaving.substring(0, fromIndex).trim() + hiddenColumns + " "
+                + withoutHaving.substring(fromIndex);
+    }
+
+    /*
+     * The merged groups are sorted by GroupByResultSet, so ORDER BY
+     * expressions that are not selected are added to the select list and
+     * hidden like the aggregates of HAVING.
+     */
+    private static String addSortColumns(String query, Aggregation aggregation, OrderBy orderBy,
+                                         int visibleColumnCount) throws FedException {
+        StringBuilder hiddenColumns = new StringBuilder();
+        for (String expression : orderBy.getExpressions()) {
+            if (OrderBy.isPosition(expression)) {
+                if (Integer.parseInt(expression) > visibleColumnCount) {
+                    throw new FedException(new Throwable("ORDER BY position " + expression + " is not selected"));
+                }
+            } else if (aggregation.indexOf(expression) < 0) {
+                hiddenColumns.append(", ").append(expression);
             }
         }
+        if (hiddenColumns.length() == 0) {
+            return query;
+        }
+        int fromIndex = QueryClauses.indexOfKeyword(query, "FROM");
+        return query.substring(0, fromIndex).trim() + hiddenColumns + " " + query.substring(fromIndex);
+    }
+
+    /*
+     * Only the databases that may hold matching rows are asked, the others
+     * would add nothing to the count.
+     */
+    private FedResultSet selectCountAllTable(String query, ParsedQuery parsedQuery)
+            throws FedException {
+        List<ResultSet> resultSets = executeQueries(query, parsedQuery);
 
         ResultSet rs = new SelectCountResultSet(resultSets);
         resultSets = new ArrayList<>();
@@ -0,0 +1,236 @@
+package fdbs;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Result of a SELECT with GROUP BY over several databases. Every database
+ * returns one row per group with its partial aggregates; the rows are merged
+ * in a hash table keyed by the group columns, so the result has one row per
+ * group and holds no more than one row per group.
+ * <p>
+ * The groups are kept in a RowBatch, counts are merged as long values. The
+ * databases return AVG as a sum and a hidden count, see Aggregation; once all
+ * rows are merged the sum is divided by the count.
+ * <p>
+ * A HAVING condition can only be evaluated on the merged groups, so it is not
+ * sent to the databases but evaluated here. Aggregates used by HAVING only are
+ * selected additionally and hidden from the result.
+ */
+public class GroupByResultSet extends RowResultSet {
+    private List<ResultSet> list;
+    private RowBatch groups;
+    // Indexes of the groups of the result in order
+    private int[] rows;
+    private int visibleColumnCount;
+    private int position = -1;
+    private Object[] currentRow;
+
+    public GroupByResultSet(List<ResultSet> list, Aggregation aggregation, OrderBy orderBy)
+            throws SQLException {
+        this(list, aggregation, null, aggregation.getColumnCount(), orderBy);
+    }
+
+    /**
+     * Merges the groups and keeps the ones the having condition is true for.
+     * The columns after visibleColumnCount are hidden.
+     */
+    public GroupByResultSet(List<ResultSet> list, final Aggregation aggregation, Predicate having,
+                            int visibleColumnCount, final OrderBy orderBy) throws SQLException {
+        super(list);
+        this.list = list;
+        this.visibleColumnCount = visibleColumnCount;
+
+        HashMap<List<Object>, Integer> indexes = new HashMap<List<Object>, Integer>();
+        int columnCount = aggregation.getPartialColumnCount();
+        groups = new RowBatch(columnCount);
+        for (ResultSet rs : list) {
+            while (rs.next()) {
+                Object[] row = new Object[columnCount];
+                List<Object> key = new ArrayList<Object>();
+                for (int i = 0; i < columnCount; i++) {
+                    row[i] = getValue(rs, i + 1, aggregation.getFunction(i));
+                    if (aggregation.getFunction(i) == Aggregation.GROUP_COLUMN) {
+                        key.add(row[i]);
+                    }
+                }
+
+                Integer group = indexes.get(key);
+                if (group == null) {
+                    indexes.put(key, groups.add(row));
+                } else {
+                    merge(group, row, aggregation);
+                }
+            }
+        }
+        rows = groups.getRowIndexes();
+        for (int average : aggregation.getAverages()) {
+            divide(rows, average, aggregation.getCountIndex(average));
+        }
+        if (having != null) {
+            rows = filter(groups, rows, aggregation, having);
+        }
+
+        // The order of the databases is lost by the merge
+        if (orderBy != null) {
+            if (!orderBy.bind(list.get(0).getMetaData())) {
+                throw new SQLException("Can not sort the groups by " + orderBy
+                        + ", the ORDER BY columns have to be selected.");
+            }
+            rows = groups.sort(rows, orderBy);
+        }
+    }
+
+    private static Object getValue(ResultSet rs, int columnIndex, int function) throws SQLException {
+        Object value;
+        switch (function) {
+            case Aggregation.COUNT:
+                value = rs.getLong(columnIndex);
+                break;
+            case Aggregation.SUM:
+            case Aggregation.AVG:
+                value = rs.getBigDecimal(columnIndex);
+                break;
+            default:
+                value = rs.getObject(columnIndex);
+        }
+        return rs.wasNull() ? null : value;
+    }
+
+    /*
+     * Replaces the merged sum of the AVG column by the average. The average
+     * of a group without values is NULL, like the one of the databases.
+     */
+    private void divide(int[] rows, int average, int countIndex) {
+        for (int row : rows) {
+            Object sum = groups.getObject(row, average);
+            long count = groups.isNull(row, countIndex) ? 0 : groups.getLong(row, countIndex);
+            groups.set(row, average, sum == null || count == 0 ? null
+                    : ((BigDecimal) sum).divide(BigDecimal.valueOf(count), MathContext.DECIMAL128));
+        }
+    }
+
+    private static int[] filter(final RowBatch groups, int[] rows, final Aggregation aggregation,
+                                Predicate having) throws SQLException {
+        final HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+        for (String operand : having.getOperands()) {
+            int index = aggregation.indexOf(operand);
+            if (index < 0) {
+                throw new SQLException("Not selected: " + operand);
+            }
+            indexes.put(operand, index);
+        }
+
+        int[] qualifying = new int[rows.length];
+        int count = 0;
+        for (final int row : rows) {
+            Predicate.Values values = new Predicate.Values() {
+                @Override
+                public Object getValue(String operand) {
+                    return groups.getObject(row, indexes.get(operand));
+                }
+            };
+            if (Boolean.TRUE.equals(having.evaluate(values))) {
+                qualifying[count++] = row;
+            }
+        }
+        return Arrays.copyOf(qualifying, count);
+    }
+
+    private void merge(int group, Object[] row, Aggregation aggregation) {
+        for (int i = 0; i < row.length; i++) {
+            int function = aggregation.getFunction(i);
+            if (function == Aggregation.COUNT && row[i] != null && !groups.isNull(group, i)) {
+                groups.setLong(group, i, groups.getLong(group, i) + (Long) row[i]);
+            } else if (function != Aggregation.GROUP_COLUMN) {
+                groups.set(group, i, merge(function, groups.getObject(group, i), row[i]));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object merge(int function, Object value, Object other) {
+        if (function == Aggregation.GROUP_COLUMN || other == null) {
+            return value;
+        }
+        if (value == null) {
+            return other;
+        }
+        switch (function) {
+            case Aggregation.COUNT:
+                return (Long) value + (Long) other;
+            case Aggregation.SUM:
+            case Aggregation.AVG:
+                return ((BigDecimal) value).add((BigDecimal) other);
+            case Aggregation.MIN:
+                return ((Comparable<Object>) value).compareTo(other) <= 0 ? value : other;
+            default:
+                return ((Comparable<Object>) value).compareTo(other) >= 0 ? value : other;
+        }
+    }
+
+    @Override
+    protected Object[] getCurrentRow() {
+        return currentRow;
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+        if (position < rows.length) {
+            position++;
+        }
+        currentRow = position < rows.length ? groups.getRow(rows[position]) : null;
+        return currentRow != null;
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        final ResultSetMetaData metaData = list.get(0).getMetaData();
+        if (visibleColumnCount >= metaData.getColumnCount()) {
+            return metaData;
+        }
+
+        // Hides the columns selected for HAVING only
+        return (ResultSetMetaData) Proxy.newProxyInstance(ResultSetMetaData.class.getClassLoader(),
+                new Class<?>[]{ResultSetMetaData.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getColumnCount")) {
+                            return visibleColumnCount;
+                        }
+                        try {
+                            return method.invoke(metaData, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public void close() throws SQLException {
+        for (ResultSet rs : list) {
+            rs.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("GroupByResultSet[");
+        for (int row : rows) {
+            text.append(Arrays.toString(groups.getRow(row)));
+        }
+        return text.append("]").toString();
+    }
+}
@@ -0,0 +1,439 @@
+package fdbs;
+
+import fdbs.logging.CustomLogger;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Joins the rows of the two tables of a Join. The rows of one table (the
+ * build side) are read into a hash table by their join columns, then the
+ * rows of the other table (the probe side) are read one by one and joined
+ * with the matching rows. The build rows are kept by column in a RowBatch;
+ * the hash table only holds the index of the first and last row of a key,
+ * the rows of a key are chained by index.
+ * <p>
+ * At most fdbs.joinMemoryRows build rows are held in memory. If the build
+ * side has more rows, both sides are split by the hash of their join columns
+ * into partition files in fdbs.joinSpillDirectory (default: java.io.tmpdir),
+ * and the partitions are joined one after another (grace hash join). A
+ * partition whose build side has more rows than that is split again by
+ * other bits of the hash. If all of its rows have the same join columns it
+ * can not be split, the join fails with an SQLException then.
+ */
+public class HashJoin {
+
+    public static final String MEMORY_ROWS_PROPERTY = "fdbs.joinMemoryRows";
+    public static final int DEFAULT_MEMORY_ROWS = 100000;
+    public static final String SPILL_DIRECTORY_PROPERTY = "fdbs.joinSpillDirectory";
+
+    static final int MEMORY_ROWS = Integer.getInteger(MEMORY_ROWS_PROPERTY, DEFAULT_MEMORY_ROWS);
+    // A power of two, each split uses the next four bits of the hash
+    private static final int SPILL_PARTITIONS = 16;
+    private static final int PARTITION_BITS = 4;
+    private static final int MAX_SPLITS = Integer.SIZE / PARTITION_BITS - 1;
+
+    private final Join join;
+    private final int buildSide;
+    private final int probeSide;
+
+    // First and last index in buildBatch of the rows of a key
+    private HashMap<List<Object>, int[]> table = new HashMap<List<Object>, int[]>();
+    private RowBatch buildBatch;
+    // Index of the next row of the same key, -1 after the last one
+    private int[] nextRow = new int[0];
+    private int buildRows;
+    private SpillFile[] buildFiles;
+    private SpillFile[] probeFiles;
+
+    // Probe side read from the databases
+    private List<ResultSet> probeResults;
+    private int probeResultIndex;
+    // Partitions read from the files, once the probe side is split
+    private Deque<Partition> partitions;
+    private Partition partition;
+
+    private Object[] probeRow;
+    // Index of the next build row matching the probe row, -1 if there is none
+    private int match = -1;
+
+    private RowMetaData buildMetaData;
+    private RowMetaData probeMetaData;
+
+    public HashJoin(Join join, int buildSide) {
+        this.join = join;
+        this.buildSide = buildSide;
+        this.probeSide = 1 - buildSide;
+    }
+
+    /**
+     * Reads the rows of the build side and closes its results.
+     */
+    public void build(List<ResultSet> results) throws SQLException {
+        buildMetaData = RowMetaData.copy(results.get(0).getMetaData());
+        buildBatch = new RowBatch(join.getFetchColumnCount(buildSide));
+        try {
+            for (ResultSet rs : results) {
+                while (rs.next()) {
+                    Object[] row = readRow(rs, join.getFetchColumnCount(buildSide));
+                    List<Object> key = getKey(row, buildSide);
+                    if (key == null) {
+                        continue;
+                    }
+                    if (buildFiles != null) {
+                        buildFiles[partitionOf(key, 0)].write(row);
+                    } else {
+                        add(key, row);
+                        if (++buildRows > MEMORY_ROWS) {
+                            spillBuildSide();
+                        }
+                    }
+                }
+                rs.close();
+            }
+        } catch (IOException e) {
+            close();
+            throw new SQLException("Can not write join rows to disk: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sets the results of the probe side. If the build side was spilled, they
+     * are split into partition files now.
+     */
+    public void probe(List<ResultSet> results) throws SQLException {
+        probeResults = results;
+        probeMetaData = RowMetaData.copy(results.get(0).getMetaData());
+        if (buildFiles == null) {
+            return;
+        }
+
+        try {
+            probeFiles = createFiles("probe");
+            Object[] row = readProbeResultRow();
+            while (row != null) {
+                List<Object> key = getKey(row, probeSide);
+                if (key != null) {
+                    probeFiles[partitionOf(key, 0)].write(row);
+                }
+                row = readProbeResultRow();
+            }
+            partitions = new ArrayDeque<Partition>();
+            for (int i = 0; i < SPILL_PARTITIONS; i++) {
+                partitions.push(new Partition(buildFiles[i], probeFiles[i], 0));
+            }
+            buildFiles = null;
+            probeFiles = null;
+        } catch (IOException e) {
+            close();
+            throw new SQLException("Can not write join rows to disk: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the next joined row, with the columns of the result, or null if
+     * there is none.
+     */
+    public Object[] next() throws SQLException {
+        while (true) {
+            while (match >= 0) {
+                int buildRow = match;
+                match = nextRow[match];
+                if (isResidualTrue(buildRow, probeRow)) {
+                    return combine(buildRow, probeRow);
+                }
+            }
+
+            probeRow = readProbeRow();
+            if (probeRow == null) {
+                return null;
+            }
+            List<Object> key = getKey(probeRow, probeSide);
+            int[] rows = key == null ? null : table.get(key);
+            match = rows == null ? -1 : rows[0];
+        }
+    }
+
+    /**
+     * Returns the description of the columns of the joined rows.
+     */
+    public RowMetaData getMetaData() throws SQLException {
+        RowMetaData metaData = new RowMetaData();
+        for (int i = 0; i < join.getColumnCount(); i++) {
+            metaData.add(join.getOutputSide(i) == buildSide ? buildMetaData : probeMetaData,
+                    join.getOutputIndex(i) + 1);
+        }
+        return metaData;
+    }
+
+    /**
+     * Closes the probe results and deletes the partition files.
+     */
+    public void close() {
+        if (probeResults != null) {
+            for (ResultSet rs : probeResults) {
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                    CustomLogger.log(Level.WARNING, "Can not close join result: " + e.getMessage());
+                }
+            }
+        }
+        deleteFiles(buildFiles);
+        deleteFiles(probeFiles);
+        if (partition != null) {
+            partition.delete();
+            partition = null;
+        }
+        if (partitions != null) {
+            for (Partition other : partitions) {
+                other.delete();
+            }
+            partitions.clear();
+        }
+        clearTable();
+    }
+
+    private void add(List<Object> key, Object[] row) {
+        int index = buildBatch.add(row);
+        if (index == nextRow.length) {
+            nextRow = Arrays.copyOf(nextRow, Math.max(16, 2 * index));
+        }
+        nextRow[index] = -1;
+        int[] rows = table.get(key);
+        if (rows == null) {
+            table.put(key, new int[]{index, index});
+        } else {
+            nextRow[rows[1]] = index;
+            rows[1] = index;
+        }
+    }
+
+    private void clearTable() {
+        table = new HashMap<List<Object>, int[]>();
+        buildBatch = new RowBatch(join.getFetchColumnCount(buildSide));
+        nextRow = new int[0];
+        match = -1;
+    }
+
+    private void spillBuildSide() throws IOException {
+        CustomLogger.log(Level.INFO, "Join of " + join.getTable(0) + " and " + join.getTable(1)
+                + " has more than " + MEMORY_ROWS + " rows, spilling to disk");
+        buildFiles = createFiles("build");
+        for (int i = 0; i < buildBatch.size(); i++) {
+            Object[] row = buildBatch.getRow(i);
+            buildFiles[partitionOf(getKey(row, buildSide), 0)].write(row);
+        }
+        clearTable();
+    }
+
+    private Object[] readProbeRow() throws SQLException {
+        if (partitions == null) {
+            return readProbeResultRow();
+        }
+
+        try {
+            while (true) {
+                if (partition != null) {
+                    Object[] row = partition.probe.read();
+                    if (row != null) {
+                        return row;
+                    }
+                    partition.delete();
+                    partition = null;
+                }
+                if (partitions.isEmpty()) {
+                    return null;
+                }
+                partition = partitions.pop();
+                // Probe rows without build rows join no row
+                if (partition.build.getRows() == 0) {
+                    partition.delete();
+                    partition = null;
+                } else if (partition.build.getRows() > MEMORY_ROWS) {
+                    split(partition);
+                    partition = null;
+                } else {
+                    loadPartition(partition);
+                }
+            }
+        } catch (IOException e) {
+            throw new SQLException("Can not read join rows from disk: " + e.getMessage());
+        }
+    }
+
+    private Object[] readProbeResultRow() throws SQLException {
+        while (probeResultIndex < probeResults.size()) {
+            ResultSet rs = probeResults.get(probeResultIndex);
+            if (rs.next()) {
+                return readRow(rs, join.getFetchColumnCount(probeSide));
+            }
+            probeResultIndex++;
+        }
+        return null;
+    }
+
+    private void loadPartition(Partition partition) throws IOException {
+        clearTable();
+        for (Object[] row = partition.build.read(); row != null; row = partition.build.read()) {
+            add(getKey(row, buildSide), row);
+        }
+        partition.build.delete();
+    }
+
+    /*
+     * Splits both sides of the partition by the next bits of the hash of
+     * their join columns into new partitions.
+     */
+    private void split(Partition partition) throws IOException, SQLException {
+        int level = partition.level + 1;
+        Partition[] parts = new Partition[SPILL_PARTITIONS];
+        try {
+            for (int i = 0; i < SPILL_PARTITIONS; i++) {
+                parts[i] = new Partition(SpillFile.create("build"), SpillFile.create("probe"), level);
+            }
+            List<Object> firstKey = null;
+            boolean isOneKey = true;
+            for (Object[] row = partition.build.read(); row != null; row = partition.build.read()) {
+                List<Object> key = getKey(row, buildSide);
+                if (firstKey == null) {
+                    firstKey = key;
+                }
+                isOneKey &= key.equals(firstKey);
+                parts[partitionOf(key, level)].build.write(row);
+            }
+            if (isOneKey || level > MAX_SPLITS) {
+                throw new SQLException("Join of " + join.getTable(0) + " and " + join.getTable(1) + " has more than "
+                        + MEMORY_ROWS + " rows of " + join.getTable(buildSide) + " with the same join columns "
+                        + firstKey + ", raise " + MEMORY_ROWS_PROPERTY + " to join them");
+            }
+            for (Object[] row = partition.probe.read(); row != null; row = partition.probe.read()) {
+                parts[partitionOf(getKey(row, probeSide), level)].probe.write(row);
+            }
+        } catch (IOException | SQLException e) {
+            for (Partition part : parts) {
+                if (part != null) {
+                    part.delete();
+                }
+            }
+            throw e;
+        } finally {
+            partition.delete();
+        }
+        CustomLogger.log(Level.INFO, "Join partition of " + partition.build.getRows() + " rows of "
+                + join.getTable(buildSide) + " split again");
+        for (Partition part : parts) {
+            partitions.push(part);
+        }
+    }
+
+    private boolean isResidualTrue(final int buildRow, final Object[] probeRow) {
+        Predicate residual = join.getResidual();
+        if (residual == null) {
+            return true;
+        }
+        return Boolean.TRUE.equals(residual.evaluate(new Predicate.Values() {
+            @Override
+            public Object getValue(String operand) {
+                int[] position = join.getOperandPosition(operand);
+                return position[0] == buildSide ? buildBatch.getObject(buildRow, position[1]) : probeRow[position[1]];
+            }
+        }));
+    }
+
+    private Object[] combine(int buildRow, Object[] probeRow) {
+        Object[] row = new Object[join.getColumnCount()];
+        for (int i = 0; i < row.length; i++) {
+            int index = join.getOutputIndex(i);
+            row[i] = join.getOutputSide(i) == buildSide ? buildBatch.getObject(buildRow, index) : probeRow[index];
+        }
+        return row;
+    }
+
+    private static Object[] readRow(ResultSet rs, int columnCount) throws SQLException {
+        Object[] row = new Object[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            row[i] = rs.getObject(i + 1);
+        }
+        return row;
+    }
+
+    /*
+     * Values of the join columns of the row, null if one of them is NULL as
+     * such a row joins no row. Numbers are compared by value, 1 and 1.0 are
+     * the same key.
+     */
+    private List<Object> getKey(Object[] row, int side) {
+        List<Integer> indexes = join.getKeyIndexes(side);
+        Object[] key = new Object[indexes.size()];
+        for (int i = 0; i < key.length; i++) {
+            Object value = row[indexes.get(i)];
+            if (value == null) {
+                return null;
+            }
+            if (value instanceof Number) {
+                BigDecimal number = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+                value = number.signum() == 0 ? BigDecimal.ZERO : number.stripTrailingZeros();
+            }
+            key[i] = value;
+        }
+        return Arrays.asList(key);
+    }
+
+    /*
+     * Partition of the key at the level of splits, every level uses other
+     * bits of the hash.
+     */
+    private static int partitionOf(List<Object> key, int level) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return (hash >>> (PARTITION_BITS * level)) & (SPILL_PARTITIONS - 1);
+    }
+
+    private static SpillFile[] createFiles(String name) throws IOException {
+        SpillFile[] files = new SpillFile[SPILL_PARTITIONS];
+        for (int i = 0; i < SPILL_PARTITIONS; i++) {
+            files[i] = SpillFile.create(name);
+        }
+        return files;
+    }
+
+    private static void deleteFiles(SpillFile[] files) {
+        if (files != null) {
+            for (SpillFile file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /*
+     * The rows of both sides whose join columns have the same hash bits up to
+     * the level of splits.
+     */
+    private static class Partition {
+        private final SpillFile build;
+        private final SpillFile probe;
+        private final int level;
+
+        Partition(SpillFile build, SpillFile probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+        }
+
+        void delete() {
+            build.delete();
+            probe.delete();
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package fdbs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * An equi-join of two tables, "SELECT ... FROM A, B WHERE A.X = B.Y AND ...".
+ * Joining rows of partitioned tables may be held by different databases, so
+ * sending the join to every database misses their matches. The join is split
+ * into one query per table, selecting the columns the join needs with the
+ * conditions on that table only, and the rows are joined by HashJoin.
+ * <p>
+ * The join is still sent to the databases when each of them can answer it on
+ * its own rows: both tables replicated (ONE_DATABASE), or one replicated, or
+ * both partitioned the same way and joined on their partition columns
+ * (PARTITION_WISE).
+ */
+public class Join {
+
+    public static final int ONE_DATABASE = 0;
+    public static final int PARTITION_WISE = 1;
+    public static final int HASH = 2;
+
+    private final String[] tables = new String[2];
+    private final List<List<String>> tableColumns = new ArrayList<List<String>>();
+    // Columns selected from each table by its fetch query
+    private final List<List<String>> fetchColumns = new ArrayList<List<String>>();
+    // Conditions on one table only, sent with its fetch query
+    private final List<List<String>> conditions = new ArrayList<List<String>>();
+    // Positions of the join columns in the fetch query of each table
+    private final List<List<Integer>> keyIndexes = new ArrayList<List<Integer>>();
+    private final List<List<String>> keyColumns = new ArrayList<List<String>>();
+
+    // Table and fetch query position of every column of the result
+    private final List<Integer> outputSides = new ArrayList<Integer>();
+    private final List<Integer> outputIndexes = new ArrayList<Integer>();
+
+    // Conditions on both tables that are no equi-join conditions
+    private Predicate residual;
+    private final Map<String, int[]> operandPositions = new HashMap<String, int[]>();
+
+    private Join() {
+        for (int side = 0; side < 2; side++) {
+            fetchColumns.add(new ArrayList<String>());
+            conditions.add(new ArrayList<String>());
+            keyIndexes.add(new ArrayList<Integer>());
+            keyColumns.add(new ArrayList<String>());
+        }
+    }
+
+    /**
+     * Analyzes a SELECT on two tables. Returns null if it is no equi-join of
+     * two known tables, or uses something the join can not evaluate, e.g.
+     * expressions in the select list, sub queries or GROUP BY.
+     */
+    public static Join parse(String query) {
+        if (QueryClauses.indexOfKeyword(query, "GROUP") >= 0 || QueryClauses.indexOfKeyword(query, "HAVING") >= 0
+                || QueryClauses.indexOfKeyword(query, "JOIN") >= 0) {
+            return null;
+        }
+        String selectList = QueryClauses.getClause(query, "SELECT", "FROM");
+        String from = QueryClauses.getClause(query, "FROM", "WHERE", "ORDER");
+        if (selectList == null || from == null || QueryClauses.indexOfKeyword(selectList, "DISTINCT") >= 0) {
+            return null;
+        }
+
+        List<String> tableNames = QueryClauses.split(from, ',');
+        if (tableNames.size() != 2) {
+            return null;
+        }
+        Join join = new Join();
+        for (int side = 0; side < 2; side++) {
+            String table = tableNames.get(side).trim().toUpperCase();
+            List<String> columns = DatabaseCatalog.getColumns(table);
+            if (!table.matches("[A-Z_][A-Z0-9_$#]*") || columns == null) {
+                return null;
+            }
+            join.tables[side] = table;
+            join.tableColumns.add(columns);
+        }
+        // Without aliases the columns of a self join can not be told apart
+        if (join.tables[0].equals(join.tables[1])) {
+            return null;
+        }
+
+        try {
+            for (String item : QueryClauses.split(selectList, ',')) {
+                if (!join.addOutput(item.trim().toUpperCase())) {
+                    return null;
+                }
+            }
+
+            String condition = QueryClauses.getClause(query, "WHERE", "ORDER");
+            if (condition != null) {
+                for (String conjunct : splitConjuncts(condition)) {
+                    if (!join.addCondition(conjunct)) {
+                        return null;
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // A column name is ambiguous
+            return null;
+        }
+        return join.keyIndexes.get(0).isEmpty() ? null : join;
+    }
+
+    public String getTable(int side) {
+        return tables[side];
+    }
+
+    /**
+     * Returns how the join is executed, one of ONE_DATABASE, PARTITION_WISE
+     * and HASH.
+     */
+    public int getStrategy() {
+        boolean isReplicated = DatabaseCatalog.isReplicated(tables[0]);
+        boolean isOtherReplicated = DatabaseCatalog.isReplicated(tables[1]);
+        TablePartitioning partitioning = DatabaseCatalog.getPartitioning(tables[0]);
+        TablePartitioning otherPartitioning = DatabaseCatalog.getPartitioning(tables[1]);
+
+        if (isReplicated && isOtherReplicated) {
+            return ONE_DATABASE;
+        }
+        // Every database joins its partition with all rows of the other table
+        if ((isReplicated && otherPartitioning != null) || (isOtherReplicated && partitioning != null)) {
+            return PARTITION_WISE;
+        }
+        if (partitioning != null && otherPartitioning != null && partitioning.isColocatedWith(otherPartitioning)) {
+            for (int i = 0; i < keyColumns.get(0).size(); i++) {
+                if (keyColumns.get(0).get(i).equals(partitioning.getColumn())
+                        && keyColumns.get(1).get(i).equals(otherPartitioning.getColumn())) {
+                    return PARTITION_WISE;
+                }
+            }
+        }
+        return HASH;
+    }
+
+    /**
+     * Returns the query reading the columns the join needs from one table,
+     * with the conditions on that table.
+     */
+    public String getFetchQuery(int side) {
+        StringBuilder query = new StringBuilder("SELECT ");
+        List<String> columns = fetchColumns.get(side);
+        for (int i = 0; i < columns.size(); i++) {
+            query.append(i > 0 ? ", " : "").append(tables[side]).append('.').append(columns.get(i));
+        }
+        query.append(" FROM ").append(tables[side]);
+        List<String> sideConditions = conditions.get(side);
+        for (int i = 0; i < sideConditions.size(); i++) {
+            query.append(i > 0 ? " AND (" : " WHERE (").append(sideConditions.get(i)).append(')');
+        }
+        return query.toString();
+    }
+
+    public int getFetchColumnCount(int side) {
+        return fetchColumns.get(side).size();
+    }
+
+    /*
+     * Positions of the join columns in the fetch query of the table.
+     */
+    public List<Integer> getKeyIndexes(int side) {
+        return keyIndexes.get(side);
+    }
+
+    public int getColumnCount() {
+        return outputSides.size();
+    }
+
+    /*
+     * Table of the zero based column of the result.
+     */
+    public int getOutputSide(int index) {
+        return outputSides.get(index);
+    }
+
+    /*
+     * Zero based position of the column of the result in the fetch query of
+     * its table.
+     */
+    public int getOutputIndex(int index) {
+        return outputIndexes.get(index);
+    }
+
+    /*
+     * The conditions joined rows have to satisfy besides equal join columns,
+     * null if there are none.
+     */
+    public Predicate getResidual() {
+        return residual;
+    }
+
+    /*
+     * Table and fetch query position of an operand of the residual condition.
+     */
+    public int[] getOperandPosition(String operand) {
+        return operandPositions.get(operand);
+    }
+
+    /**
+     * Returns the one based position of the column of the result an ORDER BY
+     * expression sorts by, 0 if it is none. A column of the tables that is
+     * not selected is added to the result and has to be hidden from it.
+     */
+    public int addSortColumn(String expression) {
+        if (OrderBy.isPosition(expression)) {
+            int position = Integer.parseInt(expression);
+            return position <= outputSides.size() ? position : 0;
+        }
+        int[] column;
+        try {
+            column = resolve(expression);
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+        if (column == null) {
+            return 0;
+        }
+        int index = indexOfFetchColumn(column[0], tableColumns.get(column[0]).get(column[1]));
+        for (int i = 0; i < outputSides.size(); i++) {
+            if (outputSides.get(i) == column[0] && outputIndexes.get(i) == index) {
+                return i + 1;
+            }
+        }
+        outputSides.add(column[0]);
+        outputIndexes.add(index);
+        return outputSides.size();
+    }
+
+    private boolean addOutput(String item) {
+        if (item.endsWith("*")) {
+            boolean isTable = false;
+            for (int side = 0; side < 2; side++) {
+                if (item.equals("*") || item.equals(tables[side] + ".*")) {
+                    isTable = true;
+                    for (String column : tableColumns.get(side)) {
+                        outputSides.add(side);
+                        outputIndexes.add(indexOfFetchColumn(side, column));
+                    }
+                }
+            }
+            return isTable;
+        }
+
+        int[] column = resolve(item);
+        if (column == null) {
+            return false;
+        }
+        outputSides.add(column[0]);
+        outputIndexes.add(indexOfFetchColumn(column[0], tableColumns.get(column[0]).get(column[1])));
+        return true;
+    }
+
+    private boolean addCondition(String conjunct) {
+        List<String> tokens = Predicate.tokenize(conjunct);
+        if (tokens == null) {
+            return false;
+        }
+        TreeSet<Integer> sides = new TreeSet<Integer>();
+        for (String token : tokens) {
+            if (token.equalsIgnoreCase("SELECT")) {
+                return false;
+            }
+            char c = token.charAt(0);
+            if (Character.isLetter(c) || c == '_' || c == '"') {
+                int[] column = resolve(token);
+                if (column != null) {
+                    sides.add(column[0]);
+                } else if (token.indexOf('.') >= 0) {
+                    return false;
+                }
+            }
+        }
+
+        // Conditions on one table, or on none, are evaluated by the databases
+        if (sides.size() < 2) {
+            if (sides.isEmpty()) {
+                conditions.get(0).add(conjunct.trim());
+                conditions.get(1).add(conjunct.trim());
+            } else {
+                conditions.get(sides.first()).add(conjunct.trim());
+            }
+            return true;
+        }
+
+        Predicate predicate = Predicate.parse(conjunct);
+        if (predicate instanceof Predicate.Comparison && ((Predicate.Comparison) predicate).operator.equals("=")) {
+            int[] left = resolve(((Predicate.Comparison) predicate).left);
+            int[] right = resolve(((Predicate.Comparison) predicate).right);
+            if (left != null && right != null && left[0] != right[0]) {
+                addKey(left);
+                addKey(right);
+                return true;
+            }
+        }
+
+        if (predicate == null || !predicate.isEvaluable()) {
+            return false;
+        }
+        for (String operand : predicate.getOperands()) {
+            int[] column = resolve(operand);
+            if (column == null) {
+                return false;
+            }
+            String name = tableColumns.get(column[0]).get(column[1]);
+            operandPositions.put(operand, new int[]{column[0], indexOfFetchColumn(column[0], name)});
+        }
+        residual = residual == null ? predicate : new Predicate.And(residual, predicate);
+        return true;
+    }
+
+    private void addKey(int[] column) {
+        String name = tableColumns.get(column[0]).get(column[1]);
+        keyIndexes.get(column[0]).add(indexOfFetchColumn(column[0], name));
+        keyColumns.get(column[0]).add(name);
+    }
+
+    private int indexOfFetchColumn(int side, String column) {
+        List<String> columns = fetchColumns.get(side);
+        if (!columns.contains(column)) {
+            columns.add(column);
+        }
+        return columns.indexOf(column);
+    }
+
+    /*
+     * Returns the table and the column position of a column name, with or
+     * without table name, or null if it is no column of the tables. Throws
+     * IllegalArgumentException for a column name both tables have.
+     */
+    private int[] resolve(String name) {
+        String column = name.replace("\"", "").trim().toUpperCase();
+        int dot = column.indexOf('.');
+        if (dot >= 0) {
+            String table = column.substring(0, dot);
+            column = column.substring(dot + 1);
+            for (int side = 0; side < 2; side++) {
+                if (tables[side].equals(table) && tableColumns.get(side).contains(column)) {
+                    return new int[]{side, tableColumns.get(side).indexOf(column)};
+                }
+            }
+            return null;
+        }
+
+        int[] found = null;
+        for (int side = 0; side < 2; side++) {
+            if (tableColumns.get(side).contains(column)) {
+                if (found != null) {
+                    throw new IllegalArgumentException("Ambiguous column " + name);
+                }
+                found = new int[]{side, tableColumns.get(side).indexOf(column)};
+            }
+        }
+        return found;
+    }
+
+    /*
+     * Splits the condition at its top level ANDs. The AND of BETWEEN does not
+     * end a condition, and a condition with a top level OR is not split.
+     */
+    static List<String> splitConjuncts(String condition) {
+        List<String> conjuncts = new ArrayList<String>();
+        if (QueryClauses.indexOfKeyword(condition, "OR") >= 0) {
+            conjuncts.add(condition);
+            return conjuncts;
+        }
+
+        int start = 0;
+        int and = QueryClauses.indexOfKeyword(condition, "AND");
+        while (and >= 0) {
+            String part = condition.substring(start, and);
+            if (countKeyword(part, "BETWEEN") <= countKeyword(part, "AND")) {
+                conjuncts.add(part);
+                start = and + "AND".length();
+            }
+            and = QueryClauses.indexOfKeyword(condition, "AND", and + "AND".length());
+        }
+        conjuncts.add(condition.substring(start));
+        return conjuncts;
+    }
+
+    private static int countKeyword(String text, String keyword) {
+        int count = 0;
+        int index = QueryClauses.indexOfKeyword(text, keyword);
+        while (index >= 0) {
+            count++;
+            index = QueryClauses.indexOfKeyword(text, keyword, index + keyword.length());
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "Join[" + getFetchQuery(0) + " | " + getFetchQuery(1) + " keys " + keyIndexes + "]";
+    }
+}
@@ -0,0 +1,85 @@
+package fdbs;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Result of a join of the rows of different databases, see HashJoin. Rows are
+ * joined while they are read; with ORDER BY all rows are joined and sorted
+ * first by an ExternalSort, as the order of the databases is lost by the
+ * join. Columns added to the join to sort by are hidden from the result.
+ */
+public class JoinResultSet extends RowResultSet {
+    private HashJoin hashJoin;
+    private RowMetaData metaData;
+    private Object[] row;
+    // Joined rows in order, null without ORDER BY
+    private ExternalSort sortedRows;
+
+    public JoinResultSet(List<ResultSet> list, HashJoin hashJoin, OrderBy orderBy) throws SQLException {
+        this(list, hashJoin, orderBy, -1);
+    }
+
+    /**
+     * Joins the rows, sorted by the orderBy if it is not null. The columns
+     * after visibleColumnCount are only used to sort, -1 shows all columns.
+     */
+    public JoinResultSet(List<ResultSet> list, HashJoin hashJoin, OrderBy orderBy, int visibleColumnCount)
+            throws SQLException {
+        super(list);
+        this.hashJoin = hashJoin;
+        RowMetaData joinedMetaData = hashJoin.getMetaData();
+        if (visibleColumnCount < 0 || visibleColumnCount >= joinedMetaData.getColumnCount()) {
+            metaData = joinedMetaData;
+        } else {
+            metaData = new RowMetaData();
+            for (int i = 1; i <= visibleColumnCount; i++) {
+                metaData.add(joinedMetaData, i);
+            }
+        }
+
+        if (orderBy == null) {
+            return;
+        }
+        if (!orderBy.bind(joinedMetaData)) {
+            throw new SQLException("Can not sort the join by " + orderBy + ", the ORDER BY columns have to be "
+                    + "columns of the tables.");
+        }
+        sortedRows = new ExternalSort(orderBy, joinedMetaData.getColumnCount());
+        try {
+            for (Object[] joined = hashJoin.next(); joined != null; joined = hashJoin.next()) {
+                sortedRows.add(joined);
+            }
+            sortedRows.finish();
+        } catch (SQLException e) {
+            sortedRows.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+        row = sortedRows == null ? hashJoin.next() : sortedRows.next();
+        return row != null;
+    }
+
+    @Override
+    protected Object[] getCurrentRow() {
+        return row;
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        return metaData;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (sortedRows != null) {
+            sortedRows.close();
+        }
+        hashJoin.close();
+    }
+}
@@ -0,0 +1,318 @@
+package fdbs;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The ORDER BY clause of a SELECT. GepardParser has no ORDER BY, so the clause
+ * is split off before parsing and sent to the databases as it is. Every
+ * database then returns its rows sorted and FedResultSet merges them, using
+ * this class to compare the rows the way the databases do: numbers by value,
+ * other values by their string, NULL after all values unless NULLS FIRST or
+ * DESC says otherwise. Strings are compared in binary order, FedPseudoDriver
+ * sets NLS_SORT=BINARY on the Oracle sessions so they sort the same way.
+ */
+public class OrderBy {
+
+    // "EXPRESSION AS ALIAS" or "EXPRESSION ALIAS" of a normalized select list item
+    private static final Pattern ALIAS = Pattern.compile("(.*\\S) (?:AS )?(\"[^\"]+\"|[A-Z_][A-Z0-9_$#]*)");
+
+    private final String clause;
+    private final List<String> expressions = new ArrayList<String>();
+    private final List<Boolean> descending = new ArrayList<Boolean>();
+    private final List<Boolean> nullsFirst = new ArrayList<Boolean>();
+
+    // Set by bind
+    private int[] columnIndexes;
+    private boolean[] isNumeric;
+    private boolean[] isDate;
+
+    private OrderBy(String clause) {
+        this.clause = clause;
+    }
+
+    /**
+     * Parses the clause, starting with ORDER BY. Returns null if it is not
+     * understood.
+     */
+    public static OrderBy parse(String clause) {
+        int by = QueryClauses.indexOfKeyword(clause, "BY");
+        if (by < 0) {
+            return null;
+        }
+
+        OrderBy orderBy = new OrderBy(clause.trim());
+        for (String item : QueryClauses.split(clause.substring(by + 2), ',')) {
+            String text = item.trim();
+            List<String> words = new ArrayList<String>();
+            for (String word : text.split("\\s+")) {
+                words.add(word);
+            }
+
+            Boolean isNullsFirst = null;
+            int size = words.size();
+            if (size > 2 && words.get(size - 2).equalsIgnoreCase("NULLS")) {
+                if (words.get(size - 1).equalsIgnoreCase("FIRST")) {
+                    isNullsFirst = true;
+                } else if (words.get(size - 1).equalsIgnoreCase("LAST")) {
+                    isNullsFirst = false;
+                } else {
+                    return null;
+                }
+                size -= 2;
+            }
+            boolean isDescending = false;
+            if (size > 1 && (words.get(size - 1).equalsIgnoreCase("ASC")
+                    || words.get(size - 1).equalsIgnoreCase("DESC"))) {
+                isDescending = words.get(size - 1).equalsIgnoreCase("DESC");
+                size--;
+            }
+            if (size == 0 || words.get(0).isEmpty()) {
+                return null;
+            }
+
+            // The text of the item without direction and NULLS, it may be sent as a select item
+            String expression = text;
+            for (int i = size; i < words.size(); i++) {
+                expression = expression.substring(0, expression.length() - words.get(i).length()).trim();
+            }
+            orderBy.expressions.add(expression);
+            orderBy.descending.add(isDescending);
+            // The databases sort NULL as the highest value by default
+            orderBy.nullsFirst.add(isNullsFirst == null ? isDescending : isNullsFirst);
+        }
+        return orderBy;
+    }
+
+    /**
+     * Returns the clause as it is sent to the databases.
+     */
+    public String getClause() {
+        return clause;
+    }
+
+    /**
+     * Returns the expressions the rows are sorted by, e.g. column names or
+     * positions, in the order of the clause, as they are written.
+     */
+    public List<String> getExpressions() {
+        return new ArrayList<String>(expressions);
+    }
+
+    /**
+     * Returns a copy sorting by the one based column positions instead of
+     * the expressions, with the same directions.
+     */
+    public OrderBy atPositions(int[] positions) {
+        OrderBy orderBy = new OrderBy(clause);
+        for (int i = 0; i < positions.length; i++) {
+            orderBy.expressions.add(String.valueOf(positions[i]));
+        }
+        orderBy.descending.addAll(descending);
+        orderBy.nullsFirst.addAll(nullsFirst);
+        return orderBy;
+    }
+
+    /**
+     * Returns the expressions that are no column of the result, they have
+     * to be selected in addition to merge the rows.
+     */
+    public List<String> getUnboundExpressions(ResultSetMetaData metaData) throws SQLException {
+        List<String> unbound = new ArrayList<String>();
+        for (String expression : expressions) {
+            if (findColumn(expression, metaData) < 1) {
+                unbound.add(expression);
+            }
+        }
+        return unbound;
+    }
+
+    /**
+     * Returns the expressions that are not selected by the select list, like
+     * getUnboundExpressions does for the columns of a result, but before the
+     * query is sent. A select list with * selects every column of the tables,
+     * nothing is returned for it.
+     */
+    public List<String> getUnselectedExpressions(String selectList) {
+        List<String> labels = new ArrayList<String>();
+        String items = selectList.trim().replaceFirst("(?i)^(DISTINCT|ALL)\\s+", "");
+        for (String item : QueryClauses.split(items, ',')) {
+            String label = getLabel(item);
+            if (label.equals("*") || label.endsWith(".*")) {
+                return new ArrayList<String>();
+            }
+            labels.add(label);
+        }
+
+        List<String> unselected = new ArrayList<String>();
+        for (String expression : expressions) {
+            if (isPosition(expression)) {
+                if (Integer.parseInt(expression) > labels.size()) {
+                    unselected.add(expression);
+                }
+                continue;
+            }
+            boolean isSelected = false;
+            for (String label : labels) {
+                isSelected |= isLabelOf(expression, label);
+            }
+            if (!isSelected) {
+                unselected.add(expression);
+            }
+        }
+        return unselected;
+    }
+
+    /*
+     * The column label the databases give a select list item: its alias, or
+     * the expression without blanks and, for a column, without table name.
+     */
+    private static String getLabel(String item) {
+        String expression = Aggregation.normalize(item);
+        Matcher alias = ALIAS.matcher(expression);
+        if (alias.matches() && "+-*/|(,".indexOf(alias.group(1).charAt(alias.group(1).length() - 1)) < 0) {
+            return alias.group(2);
+        }
+        String label = expression.replace(" ", "");
+        return label.indexOf('(') < 0 && label.lastIndexOf('.') >= 0
+                ? label.substring(label.lastIndexOf('.') + 1) : label;
+    }
+
+    /**
+     * Checks whether the expression is a column position like "2".
+     */
+    public static boolean isPosition(String expression) {
+        for (int i = 0; i < expression.length(); i++) {
+            if (!Character.isDigit(expression.charAt(i))) {
+                return false;
+            }
+        }
+        return !expression.isEmpty();
+    }
+
+    /**
+     * Finds the columns of the result the rows are sorted by. Returns false
+     * if an expression is not a column of the result, the rows can then not be
+     * merged.
+     */
+    public boolean bind(ResultSetMetaData metaData) throws SQLException {
+        int count = expressions.size();
+        columnIndexes = new int[count];
+        isNumeric = new boolean[count];
+        isDate = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            int columnIndex = findColumn(expressions.get(i), metaData);
+            if (columnIndex < 1) {
+                return false;
+            }
+            columnIndexes[i] = columnIndex;
+            int type = metaData.getColumnType(columnIndex);
+            isNumeric[i] = type == Types.NUMERIC || type == Types.DECIMAL || type == Types.INTEGER
+                    || type == Types.SMALLINT || type == Types.TINYINT || type == Types.BIGINT
+                    || type == Types.FLOAT || type == Types.REAL || type == Types.DOUBLE;
+            isDate[i] = type == Types.DATE || type == Types.TIMESTAMP || type == Types.TIME;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the values the current row of the result set is sorted by.
+     */
+    public Object[] getKeys(ResultSet resultSet) throws SQLException {
+        Object[] keys = new Object[columnIndexes.length];
+        for (int i = 0; i < columnIndexes.length; i++) {
+            if (isNumeric[i]) {
+                keys[i] = resultSet.getBigDecimal(columnIndexes[i]);
+            } else if (isDate[i]) {
+                keys[i] = resultSet.getTimestamp(columnIndexes[i]);
+            } else {
+                keys[i] = resultSet.getString(columnIndexes[i]);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Reads the values a row, merged by the federation layer, is sorted by.
+     */
+    public Object[] getKeys(Object[] row) {
+        Object[] keys = new Object[columnIndexes.length];
+        for (int i = 0; i < columnIndexes.length; i++) {
+            Object value = row[columnIndexes[i] - 1];
+            if (value == null || isDate[i]) {
+                keys[i] = value;
+            } else if (isNumeric[i]) {
+                keys[i] = value instanceof BigDecimal ? value : new BigDecimal(value.toString().trim());
+            } else {
+                keys[i] = value.toString();
+            }
+        }
+        return keys;
+    }
+
+    @SuppressWarnings("unchecked")
+    public int compare(Object[] keys, Object[] otherKeys) {
+        for (int i = 0; i < keys.length; i++) {
+            Object key = keys[i];
+            Object otherKey = otherKeys[i];
+            int c;
+            if (key == null || otherKey == null) {
+                if (key == otherKey) {
+                    continue;
+                }
+                // NULL placement does not depend on the direction
+                return (key == null) == nullsFirst.get(i) ? -1 : 1;
+            }
+            c = ((Comparable<Object>) key).compareTo(otherKey);
+            if (c != 0) {
+                return descending.get(i) ? -c : c;
+            }
+        }
+        return 0;
+    }
+
+    /*
+     * Position of the column named like the expression: a position number, a
+     * column name or alias, with or without table, or the text of a select
+     * expression. Returns 0 if there is none.
+     */
+    private static int findColumn(String expression, ResultSetMetaData metaData) throws SQLException {
+        int count = metaData.getColumnCount();
+        if (isPosition(expression)) {
+            int position = Integer.parseInt(expression);
+            return position <= count ? position : 0;
+        }
+
+        for (int i = 1; i <= count; i++) {
+            if (isLabelOf(expression, metaData.getColumnLabel(i))) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /*
+     * Checks whether the column labelled so is the expression: the label is
+     * the column name or alias, with or without table, or the text of the
+     * select expression. Blanks are not compared.
+     */
+    private static boolean isLabelOf(String expression, String label) {
+        String name = expression.replaceAll("\\s+", "").replace("\"", "").toUpperCase();
+        String unqualifiedName = name.indexOf('(') < 0 && name.lastIndexOf('.') >= 0
+                ? name.substring(name.lastIndexOf('.') + 1) : name;
+        String columnLabel = label.replace(" ", "").replace("\"", "").toUpperCase();
+        return columnLabel.equals(name) || columnLabel.equals(unqualifiedName);
+    }
+
+    @Override
+    public String toString() {
+        return clause;
+    }
+}
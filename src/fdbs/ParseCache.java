@@ -0,0 +1,216 @@
+package fdbs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of parse results, keyed by the shape of a normalized
+ * statement, i.e. the statement with its constants replaced by '?'.
+ * <p>
+ * The application sends the same INSERT and SELECT shapes over and over, only
+ * with other constants, so repeated shapes skip GepardParser entirely. Only
+ * DML and SELECT statements are cached; DDL is rare and its constants (e.g.
+ * the HORIZONTAL boundaries) are restricted by the grammar.
+ * <p>
+ * The size can be set with the system property fdbs.parseCacheSize.
+ */
+public class ParseCache {
+
+    public static final String SIZE_PROPERTY = "fdbs.parseCacheSize";
+    public static final int DEFAULT_SIZE = 1024;
+
+    private static final char PLACEHOLDER = '?';
+
+    /*
+     * Keywords the lexer matches without a trailing blank. A string constant
+     * containing one of them does not parse, so such constants are kept in the
+     * shape instead of being replaced.
+     */
+    private static final String[] KEYWORDS = {"INTEGER", "VARCHAR", "CONSTRAINTS", "UNIQUE",
+            "HORIZONTAL", "VALUES", "COUNT", "SUM", "NULL"};
+
+    private static final String[] CACHED_STATEMENTS = {"INSERT ", "SELECT ", "DELETE ", "UPDATE "};
+
+    private final LinkedHashMap<String, ParsedQuery> entries;
+    private int maximumSize;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ParseCache() {
+        this(Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE));
+    }
+
+    public ParseCache(int maximumSize) {
+        this.maximumSize = maximumSize;
+        entries = new LinkedHashMap<String, ParsedQuery>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ParsedQuery> eldest) {
+                if (size() > ParseCache.this.maximumSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /*
+     * Returns the cached parse result for the shape, null on a miss. A null
+     * shape (statement is not cached) always misses.
+     */
+    public synchronized ParsedQuery get(String shape) {
+        ParsedQuery parsedQuery = shape == null ? null : entries.get(shape);
+        if (parsedQuery == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return parsedQuery;
+    }
+
+    public synchronized void put(String shape, ParsedQuery parsedQuery) {
+        if (shape == null || maximumSize <= 0) {
+            return;
+        }
+        entries.put(shape, parsedQuery);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /*
+     * Removes the parse results of statements on the table, e.g. after it was
+     * created or dropped. Its partitioning is part of the result.
+     */
+    public synchronized void removeTable(String tableName) {
+        Iterator<ParsedQuery> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            String cachedTable = iterator.next().getTableName();
+            if (cachedTable != null && cachedTable.equalsIgnoreCase(tableName)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+        while (entries.size() > maximumSize) {
+            String eldest = entries.keySet().iterator().next();
+            entries.remove(eldest);
+            evictions++;
+        }
+    }
+
+    public synchronized int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ParseCache[size=" + entries.size() + "/" + maximumSize + ", hits=" + hits
+                + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+
+    /**
+     * Returns the shape of a query normalized by QueryNormalizer, or null if
+     * statements of this kind are not cached.
+     * <p>
+     * String constants made of name characters only, and integer constants
+     * standing on their own, are replaced by '?'. Any other constant is kept,
+     * so two statements of the same shape always parse the same way.
+     */
+    public static String getShape(String query) {
+        int start = 0;
+        while (start < query.length() && query.charAt(start) == ' ') {
+            start++;
+        }
+        if (!isCachedStatement(query, start)) {
+            return null;
+        }
+
+        StringBuilder shape = new StringBuilder(query.length());
+        int length = query.length();
+        int i = start;
+        while (i < length) {
+            char c = query.charAt(i);
+            if (c == '\'') {
+                int end = query.indexOf('\'', i + 1);
+                if (end > 0 && isPlainConstant(query, i + 1, end)) {
+                    shape.append('\'').append(PLACEHOLDER).append('\'');
+                    i = end + 1;
+                    continue;
+                }
+            } else if (isDigit(c) && (i == 0 || !isNameChar(query.charAt(i - 1)))) {
+                int end = i;
+                while (end < length && isDigit(query.charAt(end))) {
+                    end++;
+                }
+                if (end == length || !isNameChar(query.charAt(end))) {
+                    shape.append(PLACEHOLDER);
+                    i = end;
+                    continue;
+                }
+            }
+            shape.append(c);
+            i++;
+        }
+        return shape.toString();
+    }
+
+    private static boolean isCachedStatement(String query, int start) {
+        for (String statement : CACHED_STATEMENTS) {
+            if (query.regionMatches(true, start, statement, 0, statement.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPlainConstant(String query, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isNameChar(query.charAt(i))) {
+                return false;
+            }
+        }
+        for (String keyword : KEYWORDS) {
+            for (int i = from; i + keyword.length() <= to; i++) {
+                if (query.regionMatches(true, i, keyword, 0, keyword.length())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // Characters the grammar accepts in names and string constants
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_'
+                || c == '-' || c == '/';
+    }
+}
@@ -0,0 +1,50 @@
+package fdbs;
+
+/**
+ * What parsing a statement told the federation layer: its QueryTypeConstant,
+ * the table it targets and how that table is partitioned. Statements that only
+ * differ in their constants share one ParsedQuery through the ParseCache, so
+ * the entries of a table have to be removed when its catalog entry changes.
+ */
+public class ParsedQuery {
+
+    private final int queryType;
+    private final String tableName;
+    private final TablePartitioning partitioning;
+
+    public ParsedQuery(int queryType, String tableName) {
+        this(queryType, tableName, null);
+    }
+
+    public ParsedQuery(int queryType, String tableName, TablePartitioning partitioning) {
+        this.queryType = queryType;
+        this.tableName = tableName;
+        this.partitioning = partitioning;
+    }
+
+    public int getQueryType() {
+        return queryType;
+    }
+
+    /*
+     * Upper case name of the (first) table the statement targets, null if it
+     * could not be determined.
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /*
+     * Partitioning of the target table the statement is routed by, null if
+     * the statement goes to every database.
+     */
+    public TablePartitioning getPartitioning() {
+        return partitioning;
+    }
+
+    @Override
+    public String toString() {
+        return "ParsedQuery[type=" + queryType + ", table=" + tableName + ", partitioning="
+                + partitioning + "]";
+    }
+}
@@ -0,0 +1,302 @@
+package fdbs;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The range of partition column values one database holds, parsed from the
+ * SEARCH_CONDITION of a _HORIZ check constraint, e.g. "PNR <= 35",
+ * "PNR between 36 and 70", "FLC > 'KK' and FLC <= 'MM'" or "FLC > 'MM'".
+ * <p>
+ * Bounds are BigDecimal for numeric boundaries and String for string
+ * boundaries; a missing bound is null.
+ */
+public class PartitionRange {
+
+    private final String column;
+    private final boolean numeric;
+    private final Comparable<Object> lower;
+    private final boolean lowerInclusive;
+    private final Comparable<Object> upper;
+    private final boolean upperInclusive;
+
+    private PartitionRange(String column, boolean numeric, Comparable<Object> lower,
+                           boolean lowerInclusive, Comparable<Object> upper, boolean upperInclusive) {
+        this.column = column;
+        this.numeric = numeric;
+        this.lower = lower;
+        this.lowerInclusive = lowerInclusive;
+        this.upper = upper;
+        this.upperInclusive = upperInclusive;
+    }
+
+    /**
+     * Parses a check condition of the form "COLUMN op value" (op one of <, <=,
+     * >, >=), "COLUMN between value and value" or a lower and an upper bound
+     * joined by AND. Returns null if the condition has another form.
+     */
+    public static PartitionRange parse(String searchCondition) {
+        List<String> tokens = tokenize(searchCondition);
+        if (tokens == null || tokens.size() < 3) {
+            return null;
+        }
+
+        String column = tokens.get(0).toUpperCase();
+        String operator = tokens.get(1).toUpperCase();
+        if (!isIdentifier(column)) {
+            return null;
+        }
+
+        if (operator.equals("BETWEEN")) {
+            if (tokens.size() != 5 || !tokens.get(3).equalsIgnoreCase("AND")) {
+                return null;
+            }
+            String lower = tokens.get(2);
+            String upper = tokens.get(4);
+            if (isString(lower) != isString(upper)) {
+                return null;
+            }
+            boolean numeric = !isString(lower);
+            Comparable<Object> lowerValue = toValue(lower, numeric);
+            Comparable<Object> upperValue = toValue(upper, numeric);
+            if (lowerValue == null || upperValue == null) {
+                return null;
+            }
+            return create(column, numeric, lowerValue, true, upperValue, true);
+        }
+
+        if (tokens.size() == 7 && tokens.get(3).equalsIgnoreCase("AND")) {
+            return intersect(parse(tokens.get(0) + " " + tokens.get(1) + " " + tokens.get(2)),
+                    parse(tokens.get(4) + " " + tokens.get(5) + " " + tokens.get(6)));
+        }
+        if (tokens.size() != 3) {
+            return null;
+        }
+        String literal = tokens.get(2);
+        boolean numeric = !isString(literal);
+        Comparable<Object> value = toValue(literal, numeric);
+        if (value == null) {
+            return null;
+        }
+        if (operator.equals("<")) {
+            return create(column, numeric, null, false, value, false);
+        } else if (operator.equals("<=")) {
+            return create(column, numeric, null, false, value, true);
+        } else if (operator.equals(">")) {
+            return create(column, numeric, value, false, null, false);
+        } else if (operator.equals(">=")) {
+            return create(column, numeric, value, true, null, false);
+        }
+        return null;
+    }
+
+    /*
+     * Range of "COLUMN > value AND COLUMN <= value", one range bounded below
+     * and the other above, as created for partitions between string
+     * boundaries.
+     */
+    private static PartitionRange intersect(PartitionRange range, PartitionRange other) {
+        if (range == null || other == null || !range.column.equals(other.column) || range.numeric != other.numeric) {
+            return null;
+        }
+        if (range.upper == null && other.lower == null) {
+            return create(range.column, range.numeric, range.lower, range.lowerInclusive, other.upper,
+                    other.upperInclusive);
+        }
+        if (range.lower == null && other.upper == null) {
+            return intersect(other, range);
+        }
+        return null;
+    }
+
+    private static PartitionRange create(String column, boolean numeric, Comparable<Object> lower,
+                                         boolean lowerInclusive, Comparable<Object> upper,
+                                         boolean upperInclusive) {
+        if (lower == null && upper == null) {
+            return null;
+        }
+        return new PartitionRange(column, numeric, lower, lowerInclusive, upper, upperInclusive);
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    /**
+     * Converts a constant as written in SQL ('ABC', 35, NULL) to a value that
+     * can be compared with this range. Returns null for NULL and for constants
+     * that can not be converted, e.g. expressions or unquoted strings.
+     */
+    public Comparable<Object> toValue(String literal) {
+        if (literal == null || literal.isEmpty() || literal.equalsIgnoreCase("NULL")) {
+            return null;
+        }
+        if (!numeric && !isString(literal)) {
+            return null;
+        }
+        return toValue(literal, numeric);
+    }
+
+    /**
+     * Checks whether the value, as returned by toValue, lies in the range.
+     */
+    public boolean contains(Comparable<Object> value) {
+        if (value == null) {
+            return false;
+        }
+        if (lower != null) {
+            int c = value.compareTo(lower);
+            if (c < 0 || (c == 0 && !lowerInclusive)) {
+                return false;
+            }
+        }
+        if (upper != null) {
+            int c = value.compareTo(upper);
+            if (c > 0 || (c == 0 && !upperInclusive)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a value of the range can satisfy "column operator value",
+     * operator being one of =, <>, <, <=, > and >=. Returns true if the value
+     * is null, i.e. it could not be converted.
+     */
+    public boolean mayMatch(String operator, Comparable<Object> value) {
+        if (value == null) {
+            return true;
+        }
+        if (operator.equals("=")) {
+            return contains(value);
+        } else if (operator.equals("<") || operator.equals("<=")) {
+            if (lower == null) {
+                return true;
+            }
+            int c = lower.compareTo(value);
+            return c < 0 || (c == 0 && lowerInclusive && operator.equals("<="));
+        } else if (operator.equals(">") || operator.equals(">=")) {
+            if (upper == null) {
+                return true;
+            }
+            int c = upper.compareTo(value);
+            return c > 0 || (c == 0 && upperInclusive && operator.equals(">="));
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the other range holds the same values, whatever its
+     * column is named.
+     */
+    public boolean hasSameValues(PartitionRange other) {
+        return numeric == other.numeric && isSameBound(lower, other.lower)
+                && isSameBound(upper, other.upper)
+                && (lower == null || lowerInclusive == other.lowerInclusive)
+                && (upper == null || upperInclusive == other.upperInclusive);
+    }
+
+    private static boolean isSameBound(Comparable<Object> bound, Comparable<Object> other) {
+        return bound == null ? other == null : other != null && bound.compareTo(other) == 0;
+    }
+
+    @Override
+    public String toString() {
+        return (lower == null ? "(-inf" : (lowerInclusive ? "[" : "(") + lower) + ", "
+                + (upper == null ? "+inf)" : upper + (upperInclusive ? "]" : ")"));
+    }
+
+    /*
+     * Returns the constant as BigDecimal or String, or null for a numeric
+     * constant that is not a number.
+     */
+    @SuppressWarnings("unchecked")
+    private static Comparable<Object> toValue(String literal, boolean numeric) {
+        String text = isString(literal) ? unquote(literal) : literal.trim();
+        if (!numeric) {
+            return (Comparable<Object>) (Comparable<?>) text;
+        }
+        try {
+            return (Comparable<Object>) (Comparable<?>) new BigDecimal(text.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isString(String literal) {
+        return literal.length() > 1 && literal.startsWith("'") && literal.endsWith("'");
+    }
+
+    static String unquote(String literal) {
+        return literal.substring(1, literal.length() - 1).replace("''", "'");
+    }
+
+    private static boolean isIdentifier(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '$' && c != '#') {
+                return false;
+            }
+        }
+        return token.length() > 0 && Character.isLetter(token.charAt(0));
+    }
+
+    /*
+     * Splits a condition into identifiers/keywords, numbers, quoted strings and
+     * comparison operators. Returns null on characters it does not expect.
+     */
+    private static List<String> tokenize(String condition) {
+        List<String> tokens = new ArrayList<String>();
+        String text = condition.trim();
+        while (text.startsWith("(") && text.endsWith(")")) {
+            text = text.substring(1, text.length() - 1).trim();
+        }
+
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'') {
+                int end = i + 1;
+                while (end < text.length()) {
+                    if (text.charAt(end) == '\'') {
+                        if (end + 1 < text.length() && text.charAt(end + 1) == '\'') {
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    end++;
+                }
+                if (end >= text.length()) {
+                    return null;
+                }
+                tokens.add(text.substring(i, end + 1));
+                i = end + 1;
+            } else if (c == '<' || c == '>') {
+                boolean withEquals = i + 1 < text.length() && text.charAt(i + 1) == '=';
+                tokens.add(withEquals ? c + "=" : String.valueOf(c));
+                i += withEquals ? 2 : 1;
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '+' || c == '.'
+                    || c == '$' || c == '#' || c == '"') {
+                int end = i + 1;
+                while (end < text.length() && (Character.isLetterOrDigit(text.charAt(end))
+                        || "_.$#\"".indexOf(text.charAt(end)) >= 0)) {
+                    end++;
+                }
+                tokens.add(text.substring(i, end).replace("\"", ""));
+                i = end;
+            } else {
+                return null;
+            }
+        }
+        return tokens;
+    }
+}
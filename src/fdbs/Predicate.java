@@ -0,0 +1,674 @@
+package fdbs;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A parsed search condition, e.g. the WHERE condition of a query. Conditions
+ * are combined with AND, OR, NOT and parens; the simple conditions understood
+ * are comparisons (=, <>, !=, <, <=, >, >=), BETWEEN and IN. Any other simple
+ * condition is kept as an unknown condition that may be true for any row.
+ * <p>
+ * Operands are kept as written in SQL: column names, possibly qualified,
+ * constants like 'KK' or 35 and function calls like COUNT( * ).
+ * <p>
+ * A condition can be evaluated on a row, e.g. the HAVING condition on a group
+ * merged by the federation layer. Evaluation follows SQL: a comparison with
+ * NULL is unknown (null), and only rows where the condition is true qualify.
+ */
+public abstract class Predicate {
+
+    /**
+     * Returns false if no row of the range of the column can satisfy the
+     * condition, i.e. the database holding the range does not have to be
+     * asked. Returns true if it can not be ruled out.
+     */
+    public abstract boolean mayMatch(String column, PartitionRange range);
+
+    /*
+     * Returns the condition that is true where this one is false.
+     */
+    abstract Predicate negate();
+
+    /**
+     * Evaluates the condition, the values of operands that are no constants
+     * are taken from values. Returns null if the result is unknown.
+     */
+    public abstract Boolean evaluate(Values values);
+
+    /*
+     * Checks whether evaluate can decide the condition, i.e. it has no
+     * condition that is not understood.
+     */
+    abstract boolean isEvaluable();
+
+    /*
+     * Adds the operands that are no constants, e.g. columns and aggregates.
+     */
+    abstract void addOperands(List<String> operands);
+
+    /**
+     * Values of the operands of the row a condition is evaluated on.
+     */
+    public interface Values {
+        Object getValue(String operand);
+    }
+
+    /**
+     * Returns the operands of the condition that are no constants.
+     */
+    public List<String> getOperands() {
+        List<String> operands = new ArrayList<String>();
+        addOperands(operands);
+        return operands;
+    }
+
+    /**
+     * Parses the condition, returns null if it is not understood at all.
+     */
+    public static Predicate parse(String condition) {
+        List<String> tokens = tokenize(condition);
+        if (tokens == null) {
+            return null;
+        }
+        Parser parser = new Parser(tokens);
+        try {
+            Predicate predicate = parser.parseOr();
+            return parser.isAtEnd() ? predicate : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Checks whether the operand names the column, with or without table
+     * name or alias.
+     */
+    static boolean isColumn(String operand, String column) {
+        String name = operand.replace("\"", "");
+        return name.equalsIgnoreCase(column)
+                || (name.length() > column.length()
+                && name.charAt(name.length() - column.length() - 1) == '.'
+                && name.regionMatches(true, name.length() - column.length(), column, 0, column.length()));
+    }
+
+    static boolean isConstant(String operand) {
+        char c = operand.charAt(0);
+        return c == '\'' || Character.isDigit(c) || c == '-' || c == '+' || c == '.';
+    }
+
+    private static boolean isNull(String operand) {
+        return operand.equalsIgnoreCase("NULL");
+    }
+
+    private static Object getValue(String operand, Values values) {
+        if (isNull(operand)) {
+            return null;
+        }
+        if (!isConstant(operand)) {
+            return values.getValue(operand);
+        }
+        if (operand.charAt(0) == '\'') {
+            return PartitionRange.unquote(operand);
+        }
+        try {
+            return new BigDecimal(operand);
+        } catch (NumberFormatException e) {
+            return operand;
+        }
+    }
+
+    /*
+     * Compares numbers by value and other values by their string, like the
+     * databases compare a column with a constant.
+     */
+    @SuppressWarnings("unchecked")
+    private static int compare(Object value, Object other) {
+        if (value instanceof Number || other instanceof Number) {
+            try {
+                return toNumber(value).compareTo(toNumber(other));
+            } catch (NumberFormatException e) {
+                // Compared as strings
+            }
+        } else if (value.getClass() == other.getClass() && value instanceof Comparable) {
+            return ((Comparable<Object>) value).compareTo(other);
+        }
+        return value.toString().compareTo(other.toString());
+    }
+
+    private static BigDecimal toNumber(Object value) {
+        return value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString().trim());
+    }
+
+    private static void addOperand(String operand, List<String> operands) {
+        if (!isConstant(operand) && !isNull(operand) && !operands.contains(operand)) {
+            operands.add(operand);
+        }
+    }
+
+    static class And extends Predicate {
+        final Predicate left;
+        final Predicate right;
+
+        And(Predicate left, Predicate right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean mayMatch(String column, PartitionRange range) {
+            return left.mayMatch(column, range) && right.mayMatch(column, range);
+        }
+
+        @Override
+        Predicate negate() {
+            return new Or(left.negate(), right.negate());
+        }
+
+        @Override
+        public Boolean evaluate(Values values) {
+            Boolean value = left.evaluate(values);
+            if (Boolean.FALSE.equals(value)) {
+                return false;
+            }
+            Boolean other = right.evaluate(values);
+            if (Boolean.FALSE.equals(other)) {
+                return false;
+            }
+            return value == null || other == null ? null : true;
+        }
+
+        @Override
+        boolean isEvaluable() {
+            return left.isEvaluable() && right.isEvaluable();
+        }
+
+        @Override
+        void addOperands(List<String> operands) {
+            left.addOperands(operands);
+            right.addOperands(operands);
+        }
+    }
+
+    static class Or extends Predicate {
+        final Predicate left;
+        final Predicate right;
+
+        Or(Predicate left, Predicate right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean mayMatch(String column, PartitionRange range) {
+            return left.mayMatch(column, range) || right.mayMatch(column, range);
+        }
+
+        @Override
+        Predicate negate() {
+            return new And(left.negate(), right.negate());
+        }
+
+        @Override
+        public Boolean evaluate(Values values) {
+            Boolean value = left.evaluate(values);
+            if (Boolean.TRUE.equals(value)) {
+                return true;
+            }
+            Boolean other = right.evaluate(values);
+            if (Boolean.TRUE.equals(other)) {
+                return true;
+            }
+            return value == null || other == null ? null : false;
+        }
+
+        @Override
+        boolean isEvaluable() {
+            return left.isEvaluable() && right.isEvaluable();
+        }
+
+        @Override
+        void addOperands(List<String> operands) {
+            left.addOperands(operands);
+            right.addOperands(operands);
+        }
+    }
+
+    /*
+     * "left operator right", where operator is one of =, <>, <, <=, >, >=.
+     */
+    static class Comparison extends Predicate {
+        final String left;
+        final String operator;
+        final String right;
+
+        Comparison(String left, String operator, String right) {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        public boolean mayMatch(String column, PartitionRange range) {
+            if (isColumn(left, column) && isConstant(right)) {
+                return range.mayMatch(operator, range.toValue(right));
+            }
+            if (isColumn(right, column) && isConstant(left)) {
+                return range.mayMatch(mirror(operator), range.toValue(left));
+            }
+            return true;
+        }
+
+        @Override
+        Predicate negate() {
+            return new Comparison(left, inverse(operator), right);
+        }
+
+        @Override
+        public Boolean evaluate(Values values) {
+            Object value = getValue(left, values);
+            Object other = getValue(right, values);
+            if (value == null || other == null) {
+                return null;
+            }
+            int c = compare(value, other);
+            if (operator.equals("=")) {
+                return c == 0;
+            } else if (operator.equals("<>")) {
+                return c != 0;
+            } else if (operator.equals("<")) {
+                return c < 0;
+            } else if (operator.equals("<=")) {
+                return c <= 0;
+            } else if (operator.equals(">")) {
+                return c > 0;
+            }
+            return c >= 0;
+        }
+
+        @Override
+        boolean isEvaluable() {
+            return true;
+        }
+
+        @Override
+        void addOperands(List<String> operands) {
+            addOperand(left, operands);
+            addOperand(right, operands);
+        }
+
+        private static String mirror(String operator) {
+            if (operator.equals("<")) {
+                return ">";
+            } else if (operator.equals("<=")) {
+                return ">=";
+            } else if (operator.equals(">")) {
+                return "<";
+            } else if (operator.equals(">=")) {
+                return "<=";
+            }
+            return operator;
+        }
+
+        private static String inverse(String operator) {
+            if (operator.equals("=")) {
+                return "<>";
+            } else if (operator.equals("<>")) {
+                return "=";
+            } else if (operator.equals("<")) {
+                return ">=";
+            } else if (operator.equals("<=")) {
+                return ">";
+            } else if (operator.equals(">")) {
+                return "<=";
+            }
+            return "<";
+        }
+    }
+
+    /*
+     * "operand IN (value, ...)", an equality with each of the values.
+     */
+    static class In extends Predicate {
+        final String operand;
+        final List<String> values;
+
+        In(String operand, List<String> values) {
+            this.operand = operand;
+            this.values = values;
+        }
+
+        @Override
+        public boolean mayMatch(String column, PartitionRange range) {
+            if (!isColumn(operand, column)) {
+                return true;
+            }
+            for (String value : values) {
+                if (!isConstant(value) || range.mayMatch("=", range.toValue(value))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        Predicate negate() {
+            return new Unknown();
+        }
+
+        @Override
+        public Boolean evaluate(Values row) {
+            Boolean result = false;
+            for (String value : values) {
+                Boolean isEqual = new Comparison(operand, "=", value).evaluate(row);
+                if (Boolean.TRUE.equals(isEqual)) {
+                    return true;
+                }
+                if (isEqual == null) {
+                    result = null;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        boolean isEvaluable() {
+            return true;
+        }
+
+        @Override
+        void addOperands(List<String> operands) {
+            addOperand(operand, operands);
+            for (String value : values) {
+                addOperand(value, operands);
+            }
+        }
+    }
+
+    /*
+     * A condition that is not understood, e.g. LIKE, IS NULL or a sub query.
+     */
+    static class Unknown extends Predicate {
+
+        @Override
+        public boolean mayMatch(String column, PartitionRange range) {
+            return true;
+        }
+
+        @Override
+        Predicate negate() {
+            return this;
+        }
+
+        @Override
+        public Boolean evaluate(Values values) {
+            return null;
+        }
+
+        @Override
+        boolean isEvaluable() {
+            return false;
+        }
+
+        @Override
+        void addOperands(List<String> operands) {
+        }
+    }
+
+    private static class Parser {
+        private final List<String> tokens;
+        private int position;
+
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        boolean isAtEnd() {
+            return position >= tokens.size();
+        }
+
+        Predicate parseOr() {
+            Predicate predicate = parseAnd();
+            while (accept("OR")) {
+                predicate = new Or(predicate, parseAnd());
+            }
+            return predicate;
+        }
+
+        Predicate parseAnd() {
+            Predicate predicate = parseNot();
+            while (accept("AND")) {
+                predicate = new And(predicate, parseNot());
+            }
+            return predicate;
+        }
+
+        Predicate parseNot() {
+            if (accept("NOT")) {
+                return parseNot().negate();
+            }
+            if (peek("(") && !isSubQuery()) {
+                int start = position;
+                position++;
+                try {
+                    Predicate predicate = parseOr();
+                    expect(")");
+                    return predicate;
+                } catch (IllegalArgumentException e) {
+                    // Not a condition in parens, e.g. "(A + B) > 3"
+                    position = start;
+                }
+            }
+            return parseSimpleCondition();
+        }
+
+        Predicate parseSimpleCondition() {
+            String operand = parseOperand();
+            if (accept("NOT")) {
+                if (accept("BETWEEN")) {
+                    return parseBetween(operand).negate();
+                }
+                if (accept("IN")) {
+                    parseList();
+                    return new Unknown();
+                }
+                skipOperand();
+                return new Unknown();
+            }
+            if (accept("BETWEEN")) {
+                return parseBetween(operand);
+            }
+            if (accept("IN")) {
+                List<String> values = parseList();
+                return values == null ? new Unknown() : new In(operand, values);
+            }
+            if (accept("IS")) {
+                accept("NOT");
+                expect("NULL");
+                return new Unknown();
+            }
+            if (accept("LIKE")) {
+                skipOperand();
+                return new Unknown();
+            }
+
+            String operator = next();
+            if (operator.equals("!=") || operator.equals("^=")) {
+                operator = "<>";
+            }
+            if (!(operator.equals("=") || operator.equals("<>") || operator.equals("<")
+                    || operator.equals("<=") || operator.equals(">") || operator.equals(">="))) {
+                throw new IllegalArgumentException(operator);
+            }
+            return new Comparison(operand, operator, parseOperand());
+        }
+
+        Predicate parseBetween(String operand) {
+            String lower = parseOperand();
+            expect("AND");
+            String upper = parseOperand();
+            return new And(new Comparison(operand, ">=", lower), new Comparison(operand, "<=", upper));
+        }
+
+        /*
+         * Parses "(value, ...)", returns null for a sub query.
+         */
+        List<String> parseList() {
+            if (peek("(") && isSubQuery()) {
+                skipOperand();
+                return null;
+            }
+            expect("(");
+            List<String> values = new ArrayList<String>();
+            values.add(parseOperand());
+            while (accept(",")) {
+                values.add(parseOperand());
+            }
+            expect(")");
+            return values;
+        }
+
+        /*
+         * A column, constant, function call or sub query; the latter two are
+         * returned as one operand with their parens.
+         */
+        String parseOperand() {
+            String token = next();
+            if (isKeyword(token) || token.equals(")") || token.equals(",") || isOperator(token)) {
+                throw new IllegalArgumentException(token);
+            }
+            if (!token.equals("(") && !peek("(")) {
+                return token;
+            }
+
+            StringBuilder operand = new StringBuilder(token);
+            if (!token.equals("(")) {
+                operand.append(next());
+            }
+            int depth = 1;
+            while (depth > 0) {
+                String part = next();
+                if (part.equals("(")) {
+                    depth++;
+                } else if (part.equals(")")) {
+                    depth--;
+                }
+                operand.append(' ').append(part);
+            }
+            return operand.toString();
+        }
+
+        void skipOperand() {
+            parseOperand();
+        }
+
+        boolean isSubQuery() {
+            return position + 1 < tokens.size() && tokens.get(position + 1).equalsIgnoreCase("SELECT");
+        }
+
+        boolean peek(String token) {
+            return position < tokens.size() && tokens.get(position).equalsIgnoreCase(token);
+        }
+
+        boolean accept(String token) {
+            if (peek(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(String token) {
+            if (!accept(token)) {
+                throw new IllegalArgumentException(token);
+            }
+        }
+
+        String next() {
+            if (isAtEnd()) {
+                throw new IllegalArgumentException("end of condition");
+            }
+            return tokens.get(position++);
+        }
+
+        private static boolean isKeyword(String token) {
+            return token.equalsIgnoreCase("AND") || token.equalsIgnoreCase("OR")
+                    || token.equalsIgnoreCase("NOT") || token.equalsIgnoreCase("BETWEEN")
+                    || token.equalsIgnoreCase("IN") || token.equalsIgnoreCase("IS")
+                    || token.equalsIgnoreCase("LIKE");
+        }
+
+        private static boolean isOperator(String token) {
+            return "=<>!^".indexOf(token.charAt(0)) >= 0;
+        }
+    }
+
+    /*
+     * Splits a condition into names, constants, comparison operators and the
+     * characters ( ) , and arithmetic operators. Returns null for an
+     * unterminated string constant.
+     */
+    static List<String> tokenize(String condition) {
+        List<String> tokens = new ArrayList<String>();
+        int i = 0;
+        while (i < condition.length()) {
+            char c = condition.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'') {
+                int end = i + 1;
+                while (end < condition.length()) {
+                    if (condition.charAt(end) == '\'') {
+                        if (end + 1 < condition.length() && condition.charAt(end + 1) == '\'') {
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    end++;
+                }
+                if (end >= condition.length()) {
+                    return null;
+                }
+                tokens.add(condition.substring(i, end + 1));
+                i = end + 1;
+            } else if (c == '<' || c == '>' || c == '!' || c == '^') {
+                char following = i + 1 < condition.length() ? condition.charAt(i + 1) : ' ';
+                if (following == '=' || (c == '<' && following == '>')) {
+                    tokens.add(condition.substring(i, i + 2));
+                    i += 2;
+                } else {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                }
+            } else if (c == '-' && i + 1 < condition.length() && Character.isDigit(condition.charAt(i + 1))
+                    && (tokens.isEmpty() || isOperatorOrKeyword(tokens.get(tokens.size() - 1)))) {
+                int end = i + 1;
+                while (end < condition.length() && (Character.isDigit(condition.charAt(end))
+                        || condition.charAt(end) == '.')) {
+                    end++;
+                }
+                tokens.add(condition.substring(i, end));
+                i = end;
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '"'
+                    || c == '.') {
+                int end = i + 1;
+                while (end < condition.length() && (Character.isLetterOrDigit(condition.charAt(end))
+                        || "_$#\".".indexOf(condition.charAt(end)) >= 0)) {
+                    end++;
+                }
+                tokens.add(condition.substring(i, end));
+                i = end;
+            } else {
+                tokens.add(String.valueOf(c));
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isOperatorOrKeyword(String token) {
+        return Parser.isOperator(token) || Parser.isKeyword(token) || token.equals("(") || token.equals(",");
+    }
+}
@@ -0,0 +1,28 @@
+package fdbs;
+
+/**
+ * A statement converted for the databases and its parse result, see
+ * FederalController.prepareUpdate.
+ */
+public class PreparedUpdate {
+    private final String query;
+    private final ParsedQuery parsedQuery;
+
+    public PreparedUpdate(String query, ParsedQuery parsedQuery) {
+        this.query = query;
+        this.parsedQuery = parsedQuery;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public ParsedQuery getParsedQuery() {
+        return parsedQuery;
+    }
+
+    @Override
+    public String toString() {
+        return "PreparedUpdate[" + query + ", " + parsedQuery + "]";
+    }
+}
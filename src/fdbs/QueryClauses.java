@@ -0,0 +1,242 @@
+package fdbs;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the clauses of a query as it is sent to the databases. Keywords are
+ * only found on the top level of the query, i.e. not inside string constants
+ * or parens, so sub queries and constants like 'WHERE' are skipped.
+ */
+public class QueryClauses {
+
+    // Keywords ending the WHERE condition of a SELECT
+    private static final String[] WHERE_END = {"GROUP", "HAVING", "ORDER"};
+    // Keywords ending the FROM clause of a SELECT
+    private static final String[] FROM_END = {"WHERE", "GROUP", "HAVING", "ORDER"};
+
+    /**
+     * Returns the position of the keyword on the top level of the query,
+     * starting the search at from, or -1. The keyword is matched ignoring case
+     * and only as a whole word.
+     */
+    public static int indexOfKeyword(String query, String keyword, int from) {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = Math.max(from, 0); i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (inString) {
+                if (c == '\'') {
+                    inString = false;
+                }
+            } else if (c == '\'') {
+                inString = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && isWordAt(query, keyword, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static int indexOfKeyword(String query, String keyword) {
+        return indexOfKeyword(query, keyword, 0);
+    }
+
+    /**
+     * Returns the WHERE condition of a SELECT, DELETE or UPDATE on a single
+     * table, without the WHERE keyword. Returns null if there is no WHERE or
+     * the query reads from more than one table.
+     */
+    public static String getWhereCondition(String query) {
+        int where = indexOfKeyword(query, "WHERE");
+        if (where < 0) {
+            return null;
+        }
+
+        if (!isSingleTable(query)) {
+            return null;
+        }
+
+        int end = query.length();
+        for (String keyword : WHERE_END) {
+            int index = indexOfKeyword(query, keyword, where);
+            if (index >= 0 && index < end) {
+                end = index;
+            }
+        }
+        String condition = query.substring(where + "WHERE".length(), end).trim();
+        if (condition.endsWith(";")) {
+            condition = condition.substring(0, condition.length() - 1).trim();
+        }
+        return condition;
+    }
+
+    /**
+     * Checks whether the query reads from one table only, i.e. its FROM clause
+     * has neither ',' nor JOIN. Queries without FROM, like UPDATE, do.
+     */
+    public static boolean isSingleTable(String query) {
+        int from = indexOfKeyword(query, "FROM");
+        if (from < 0) {
+            return true;
+        }
+
+        int end = query.length();
+        for (String keyword : FROM_END) {
+            int index = indexOfKeyword(query, keyword, from);
+            if (index >= 0 && index < end) {
+                end = index;
+            }
+        }
+        String tables = query.substring(from + "FROM".length(), end);
+        return indexOfKeyword(tables, "JOIN") < 0 && indexOf(tables, ',') < 0;
+    }
+
+    /**
+     * Returns the text between the keyword and the next of the end keywords,
+     * or the end of the query. Returns null if the keyword is not on the top
+     * level of the query.
+     */
+    public static String getClause(String query, String keyword, String... endKeywords) {
+        int start = indexOfKeyword(query, keyword);
+        if (start < 0) {
+            return null;
+        }
+        start += keyword.length();
+
+        int end = query.length();
+        for (String endKeyword : endKeywords) {
+            int index = indexOfKeyword(query, endKeyword, start);
+            if (index >= 0 && index < end) {
+                end = index;
+            }
+        }
+        String clause = query.substring(start, end).trim();
+        return clause.endsWith(";") ? clause.substring(0, clause.length() - 1).trim() : clause;
+    }
+
+    /**
+     * Returns the position of the top level ORDER BY of the query, or -1.
+     */
+    public static int indexOfOrderBy(String query) {
+        int order = indexOfKeyword(query, "ORDER");
+        while (order >= 0) {
+            int by = order + "ORDER".length();
+            while (by < query.length() && Character.isWhitespace(query.charAt(by))) {
+                by++;
+            }
+            if (by > order + "ORDER".length() && isWordAt(query, "BY", by)) {
+                return order;
+            }
+            order = indexOfKeyword(query, "ORDER", by);
+        }
+        return -1;
+    }
+
+    /**
+     * Splits the text at the separators on its top level, e.g. the items of a
+     * select list at ','.
+     */
+    public static List<String> split(String text, char separator) {
+        List<String> parts = new ArrayList<String>();
+        int start = 0;
+        int index = indexOf(text, separator, start);
+        while (index >= 0) {
+            parts.add(text.substring(start, index));
+            start = index + 1;
+            index = indexOf(text, separator, start);
+        }
+        parts.add(text.substring(start));
+        return parts;
+    }
+
+    /**
+     * Returns the positions of the ? parameters of a prepared statement. A ?
+     * in a string constant or a quoted name is no parameter.
+     */
+    public static List<Integer> getParameterPositions(String query) {
+        List<Integer> positions = new ArrayList<Integer>();
+        char quote = 0;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '?') {
+                positions.add(i);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Returns the value as SQL constant, e.g. 'O''Neil' for the string O'Neil
+     * and NULL for null.
+     */
+    public static String toLiteral(Object value) {
+        if (value == null) {
+            return "NULL";
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        if (value instanceof Number) {
+            return value.toString();
+        }
+        return "'" + value.toString().replace("'", "''") + "'";
+    }
+
+    /*
+     * Position of the character on the top level of the text, or -1.
+     */
+    private static int indexOf(String text, char character) {
+        return indexOf(text, character, 0);
+    }
+
+    /*
+     * Scans from the start of the text, so constants and parens before from
+     * are taken into account.
+     */
+    private static int indexOf(String text, char character, int from) {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (inString) {
+                inString = c != '\'';
+            } else if (c == '\'') {
+                inString = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && c == character && i >= from) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWordAt(String text, String word, int index) {
+        if (!text.regionMatches(true, index, word, 0, word.length())) {
+            return false;
+        }
+        if (index > 0 && isWordChar(text.charAt(index - 1))) {
+            return false;
+        }
+        int end = index + word.length();
+        return end >= text.length() || !isWordChar(text.charAt(end));
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '.';
+    }
+}
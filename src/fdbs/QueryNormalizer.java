@@ -0,0 +1,498 @@
+package fdbs;
+
+/**
+ * Prepares statements for GepardParser and restores them before they are sent
+ * to the databases.
+ * <p>
+ * This replaces the regex pipeline FederalController used to run on every
+ * statement (tab/line removal, ten rounds of double space removal, literal and
+ * paren rewriting via replaceAll). The rules are the same, but each one is a
+ * forward scan over per-thread char buffers, so no Pattern is compiled and only
+ * the resulting String is allocated.
+ * <p>
+ * The output is the same as the old pipeline's. Like before, every match is
+ * replaced wherever its text occurs, in the order the matches were found. The
+ * old pipeline used the matched text as a regex, so a match containing regex
+ * operators was never replaced (or failed the statement); such matches are
+ * left as they are, and '.' still matches any character.
+ */
+public class QueryNormalizer {
+
+    // Rounds of "  " -> " " the old pipeline ran
+    private static final int SPACE_ROUNDS = 10;
+
+    // Rewrites applied to a match
+    private static final int REMOVE_BLANKS = 0;
+    private static final int BLANKS_TO_DASHES = 1;
+    private static final int REMOVE_PARENS = 2;
+    private static final int DASHES_TO_BLANKS = 3;
+
+    private static final String REGEX_OPERATORS = "\\^$|?*+()[{";
+
+    private static final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    /**
+     * Formats the query the way the parser understands it: whitespace is
+     * collapsed, trailing blanks in string constants are dropped, blanks in two
+     * word string constants become "---", parens around dotted conditions are
+     * removed and umlauts are escaped.
+     */
+    public static String normalize(String query) {
+        Buffers b = buffers.get();
+
+        collapseWhitespace(query, b.text);
+        findTrailingBlanks(b);
+        rewrite(b, REMOVE_BLANKS, true);
+        findInnerBlanks(b);
+        rewrite(b, BLANKS_TO_DASHES, true);
+        findDottedParens(b);
+        rewrite(b, REMOVE_PARENS, false);
+
+        return b.text.toString();
+    }
+
+    /**
+     * Undoes what normalize did to the query so it can be sent to the
+     * databases: umlaut escapes and "---" are replaced back and the brace
+     * placeholders are resolved.
+     */
+    public static String restore(String query) {
+        query = UnicodeManager.replaceUnicodesWithChars(query);
+
+        Buffers b = buffers.get();
+        b.text.set(query);
+        findDashedConstants(b);
+        rewrite(b, DASHES_TO_BLANKS, true);
+        replaceBraces(b);
+
+        return b.text.toString();
+    }
+
+    /*
+     * Tabs and line breaks become blanks, and every blank run is halved as
+     * often as the old "  " -> " " rounds did. Umlauts are escaped on the way,
+     * none of the later rules treat them differently from their escapes.
+     */
+    private static void collapseWhitespace(String query, Buffer out) {
+        out.clear(query.length());
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            if (isBlank(c)) {
+                int run = 0;
+                while (i < length && isBlank(query.charAt(i))) {
+                    run++;
+                    i++;
+                }
+                for (int round = 0; round < SPACE_ROUNDS && run > 1; round++) {
+                    run = (run + 1) / 2;
+                }
+                for (; run > 0; run--) {
+                    out.append(' ');
+                }
+                continue;
+            }
+
+            String unicode = UnicodeManager.getUnicode(c);
+            if (unicode != null) {
+                out.append(unicode);
+            } else {
+                out.append(c);
+            }
+            i++;
+        }
+    }
+
+    /*
+     * Trailing blanks in string constants are redundant, e.g. 'ABC ' becomes
+     * 'ABC'. The parser is unable to parse constants with trailing blanks.
+     */
+    private static void findTrailingBlanks(Buffers b) {
+        Buffer text = b.text;
+        b.matchCount = 0;
+        int i = 0;
+        while (i < text.length) {
+            if (text.chars[i] == '\'') {
+                int wordEnd = skipWord(text, i + 1);
+                int blankEnd = skipSpaces(text, wordEnd);
+                if (wordEnd > i + 1 && blankEnd > wordEnd && blankEnd < text.length
+                        && text.chars[blankEnd] == '\'') {
+                    b.addMatch(i, blankEnd + 1);
+                    i = blankEnd + 1;
+                    continue;
+                }
+            }
+            i++;
+        }
+    }
+
+    /*
+     * Blanks between the two words of a string constant become "---", e.g.
+     * 'ABC XYZ' becomes 'ABC---XYZ', because the parser is unable to handle
+     * blanks in string constants. restore reverts it.
+     */
+    private static void findInnerBlanks(Buffers b) {
+        Buffer text = b.text;
+        b.matchCount = 0;
+        int i = 0;
+        while (i < text.length) {
+            if (text.chars[i] == '\'') {
+                int firstEnd = skipWord(text, i + 1);
+                int blankEnd = skipSpaces(text, firstEnd);
+                int secondEnd = skipWord(text, blankEnd);
+                if (firstEnd > i + 1 && blankEnd > firstEnd && secondEnd > blankEnd
+                        && secondEnd < text.length && text.chars[secondEnd] == '\'') {
+                    b.addMatch(i, secondEnd + 1);
+                    i = secondEnd + 1;
+                    continue;
+                }
+            }
+            i++;
+        }
+    }
+
+    /*
+     * ( and ) are removed from "(TABLE.COLUMN op ...)" because ) is conflicting
+     * in the parser and can not be added to string constants. A match runs from
+     * '(' over the first '.' and the first blank after it up to the next ')',
+     * plus one more ')' if it follows directly.
+     */
+    private static void findDottedParens(Buffers b) {
+        Buffer text = b.text;
+        b.matchCount = 0;
+        int i = 0;
+        while (i < text.length) {
+            if (text.chars[i] != '(') {
+                i++;
+                continue;
+            }
+
+            int dot = indexOf(text, '.', i + 1);
+            int blank = dot < 0 ? -1 : indexOf(text, ' ', dot + 1);
+            int close = blank < 0 ? -1 : indexOf(text, ')', blank + 1);
+            int innerClose = indexOf(text, ')', i + 1);
+            if (close >= 0 && innerClose >= 0 && innerClose < blank
+                    && indexOf(text, ' ', i + 1) > innerClose) {
+                /*
+                 * Parens without a blank inside are function arguments, e.g.
+                 * SUM(T.A) FROM ... WHERE (T.B > 1). Removing everything up to
+                 * the ')' of the condition would remove them too.
+                 */
+                i++;
+                continue;
+            }
+            if (close < 0) {
+                // No later '(' on this line can match either
+                i = indexOfLineTerminator(text, i + 1);
+                continue;
+            }
+
+            int end = close + 1;
+            if (end < text.length && text.chars[end] == ')') {
+                end++;
+            }
+            b.addMatch(i, end);
+            i = end;
+        }
+    }
+
+    /*
+     * Was added to parse successfully because blanks in string constants can
+     * not be handled in the parser. On each line, the text from the first quote
+     * with a dash at least two characters after it (and two before the last
+     * quote) up to the last quote gets its "---" turned back into blanks.
+     */
+    private static void findDashedConstants(Buffers b) {
+        Buffer text = b.text;
+        char[] chars = text.chars;
+        b.matchCount = 0;
+        int lineStart = 0;
+        while (lineStart < text.length) {
+            int lineEnd = indexOfLineTerminator(text, lineStart);
+            int lastQuote = -1;
+            for (int k = lineEnd - 1; k >= lineStart && lastQuote < 0; k--) {
+                if (chars[k] == '\'') {
+                    lastQuote = k;
+                }
+            }
+
+            int dash = lineStart;
+            for (int k = lineStart; k < lastQuote; k++) {
+                if (chars[k] != '\'') {
+                    continue;
+                }
+                dash = Math.max(dash, k + 2);
+                while (dash < lastQuote - 2 && chars[dash] != '-') {
+                    dash++;
+                }
+                if (dash <= lastQuote - 2 && chars[dash] == '-') {
+                    b.addMatch(k, lastQuote + 1);
+                }
+                break;
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    // "(((" becomes "(" and "//////" becomes ")"
+    private static void replaceBraces(Buffers b) {
+        Buffer in = b.text;
+        Buffer out = b.spare;
+        out.clear(in.length);
+        char[] chars = in.chars;
+        int i = 0;
+        while (i < in.length) {
+            if (i + 3 <= in.length && chars[i] == '(' && chars[i + 1] == '('
+                    && chars[i + 2] == '(') {
+                out.append('(');
+                i += 3;
+            } else if (i + 6 <= in.length && regionMatches(chars, i, "//////")) {
+                out.append(')');
+                i += 6;
+            } else {
+                out.append(chars[i++]);
+            }
+        }
+        b.swap();
+    }
+
+    /*
+     * Replaces the text of each match, in order, everywhere it occurs in the
+     * current text. Replacing one match can create or remove occurrences of a
+     * later one, so each match is replaced on the result of the previous one.
+     */
+    private static void rewrite(Buffers b, int rewrite, boolean regex) {
+        if (b.matchCount == 0) {
+            return;
+        }
+
+        // Matches refer to the text as it was before the first replacement
+        Buffer search = b.search;
+        search.clear(b.text.length);
+        for (int m = 0; m < b.matchCount; m += 2) {
+            int start = b.matches[m];
+            int end = b.matches[m + 1];
+            b.matches[m] = search.length;
+            b.matches[m + 1] = search.length + (end - start);
+            search.append(b.text.chars, start, end);
+        }
+
+        for (int m = 0; m < b.matchCount; m += 2) {
+            int from = b.matches[m];
+            int to = b.matches[m + 1];
+            if (regex && containsRegexOperator(search.chars, from, to)) {
+                continue;
+            }
+            rewriteMatch(search.chars, from, to, rewrite, b.replacement);
+            replaceAll(b, search.chars, from, to, regex);
+        }
+    }
+
+    private static void rewriteMatch(char[] chars, int from, int to, int rewrite, Buffer out) {
+        out.clear(to - from);
+        int k = from;
+        while (k < to) {
+            char c = chars[k];
+            if (rewrite == REMOVE_BLANKS && c == ' ') {
+                k++;
+            } else if (rewrite == BLANKS_TO_DASHES && c == ' ') {
+                out.append("---");
+                k++;
+            } else if (rewrite == REMOVE_PARENS && (c == '(' || c == ')')) {
+                k++;
+            } else if (rewrite == DASHES_TO_BLANKS && k + 3 <= to && regionMatches(chars, k, "---")) {
+                out.append(' ');
+                k += 3;
+            } else {
+                out.append(c);
+                k++;
+            }
+        }
+    }
+
+    // Non-overlapping, left to right, like String.replace and replaceAll
+    private static void replaceAll(Buffers b, char[] search, int from, int to, boolean regex) {
+        Buffer in = b.text;
+        Buffer out = b.spare;
+        Buffer replacement = b.replacement;
+        int length = to - from;
+        out.clear(in.length);
+        int i = 0;
+        while (i < in.length) {
+            if (i + length <= in.length && occursAt(in.chars, i, search, from, length, regex)) {
+                out.append(replacement.chars, 0, replacement.length);
+                i += length;
+            } else {
+                out.append(in.chars[i++]);
+            }
+        }
+        b.swap();
+    }
+
+    private static boolean occursAt(char[] chars, int offset, char[] search, int from,
+                                    int length, boolean regex) {
+        for (int k = 0; k < length; k++) {
+            char s = search[from + k];
+            char c = chars[offset + k];
+            if (regex && s == '.' ? isLineTerminator(c) : s != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsRegexOperator(char[] chars, int from, int to) {
+        for (int k = from; k < to; k++) {
+            if (REGEX_OPERATORS.indexOf(chars[k]) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    // Characters regex \s matches
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    // Characters regex . does not match
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    // Skips characters of a string constant word, i.e. [^\s']
+    private static int skipWord(Buffer in, int from) {
+        while (from < in.length && in.chars[from] != '\'' && !isWhitespace(in.chars[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int skipSpaces(Buffer in, int from) {
+        while (from < in.length && in.chars[from] == ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    // Index of c at or after from on the same line, -1 if there is none
+    private static int indexOf(Buffer in, char c, int from) {
+        for (int k = from; k < in.length; k++) {
+            if (in.chars[k] == c) {
+                return k;
+            }
+            if (isLineTerminator(in.chars[k])) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfLineTerminator(Buffer in, int from) {
+        for (int k = from; k < in.length; k++) {
+            if (isLineTerminator(in.chars[k])) {
+                return k;
+            }
+        }
+        return in.length;
+    }
+
+    private static boolean regionMatches(char[] chars, int offset, String str) {
+        for (int k = 0; k < str.length(); k++) {
+            if (chars[offset + k] != str.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Per-thread working set: the current text, the buffer the next rewrite
+     * goes to, the matched texts of the current rule and their replacement.
+     */
+    private static class Buffers {
+        private Buffer text = new Buffer();
+        private Buffer spare = new Buffer();
+        private final Buffer search = new Buffer();
+        private final Buffer replacement = new Buffer();
+
+        // start and end offsets of the matches
+        private int[] matches = new int[16];
+        private int matchCount;
+
+        private void addMatch(int start, int end) {
+            if (matchCount + 2 > matches.length) {
+                int[] grown = new int[matches.length * 2];
+                System.arraycopy(matches, 0, grown, 0, matchCount);
+                matches = grown;
+            }
+            matches[matchCount++] = start;
+            matches[matchCount++] = end;
+        }
+
+        private void swap() {
+            Buffer previous = text;
+            text = spare;
+            spare = previous;
+        }
+    }
+
+    /*
+     * Growable char array reused across calls on the same thread.
+     */
+    private static class Buffer {
+        private char[] chars = new char[256];
+        private int length;
+
+        private void clear(int capacity) {
+            length = 0;
+            ensureCapacity(capacity);
+        }
+
+        private void set(String str) {
+            clear(str.length());
+            str.getChars(0, str.length(), chars, 0);
+            length = str.length();
+        }
+
+        private void append(char c) {
+            ensureCapacity(length + 1);
+            chars[length++] = c;
+        }
+
+        private void append(String str) {
+            ensureCapacity(length + str.length());
+            str.getChars(0, str.length(), chars, length);
+            length += str.length();
+        }
+
+        private void append(char[] src, int from, int to) {
+            ensureCapacity(length + (to - from));
+            System.arraycopy(src, from, chars, length, to - from);
+            length += to - from;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > chars.length) {
+                char[] grown = new char[Math.max(capacity, chars.length * 2)];
+                System.arraycopy(chars, 0, grown, 0, length);
+                chars = grown;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package fdbs;
+
+import java.io.Reader;
+
+/**
+ * Reader over a query string, so GepardParser can read the query without
+ * turning it into bytes first. It is reset for every query and appends the
+ * ';' every query needs to parse, so neither the reader nor the terminated
+ * query has to be allocated per statement.
+ */
+public class QueryReader extends Reader {
+
+    private static final char TERMINATOR = ';';
+
+    private CharSequence query = "";
+    private int position;
+
+    public void reset(CharSequence query) {
+        this.query = query;
+        position = 0;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+        int size = query.length() + 1;
+        if (position >= size) {
+            return -1;
+        }
+
+        int count = Math.min(length, size - position);
+        for (int i = 0; i < count; i++, position++) {
+            buffer[offset + i] = position < query.length() ? query.charAt(position) : TERMINATOR;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release, the reader is reused for the next query
+    }
+}
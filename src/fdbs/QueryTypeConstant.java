@@ -9,7 +9,35 @@ public class QueryTypeConstant {
     public static final int INSERT = 5;
     public static final int UPDATE = 6;
     public static final int SELECT_COUNT_ALL_TABLE = 7;
-    public static final int SELECT_WITH_GROUP = 8;
-    public static final int SELECT_WITHOUT_GROUP = 9;
+    // GepardParser returns 9 for SELECT with COUNT or SUM and GROUP BY
+    public static final int SELECT_WITH_GROUP = 9;
+    public static final int SELECT_WITHOUT_GROUP = 8;
 
+    /*
+     * Name of the query type, e.g. for the metrics of the type.
+     */
+    public static String getName(int queryType) {
+        switch (queryType) {
+            case CREATE_NON_PARTITIONED:
+                return "CREATE_NON_PARTITIONED";
+            case CREATE_PARTITIONED:
+                return "CREATE_PARTITIONED";
+            case DROP:
+                return "DROP";
+            case DELETE:
+                return "DELETE";
+            case INSERT:
+                return "INSERT";
+            case UPDATE:
+                return "UPDATE";
+            case SELECT_COUNT_ALL_TABLE:
+                return "SELECT_COUNT_ALL_TABLE";
+            case SELECT_WITH_GROUP:
+                return "SELECT_WITH_GROUP";
+            case SELECT_WITHOUT_GROUP:
+                return "SELECT_WITHOUT_GROUP";
+            default:
+                return "NONE";
+        }
+    }
 }
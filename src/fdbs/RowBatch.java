@@ -0,0 +1,340 @@
+package fdbs;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Rows held by the federation layer, e.g. the build side of a HashJoin or the
+ * merged groups of a GroupByResultSet, stored by column. Whole numbers are
+ * kept in an int or long array and strings in one char buffer per column,
+ * addressed by start and length, so a value takes no object of its own.
+ * Other values, e.g. numbers with a fraction or dates, are kept as objects.
+ * A bitmap per column marks the values that are not NULL.
+ * <p>
+ * The kind of a column is chosen by its first value and changed when a value
+ * does not fit, e.g. an int column becomes a long column. Numbers are
+ * returned by getObject with the class they were given in, so a row reads
+ * the same as before it was added.
+ */
+public class RowBatch {
+
+    private static final int NONE = 0;
+    private static final int INT = 1;
+    private static final int LONG = 2;
+    private static final int CHARS = 3;
+    private static final int OBJECT = 4;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Column[] columns;
+    private int size;
+    private int capacity;
+
+    public RowBatch(int columnCount) {
+        columns = new Column[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columns[i] = new Column();
+        }
+    }
+
+    /*
+     * The values of one column and the bitmap of the ones that are not NULL.
+     */
+    private static class Column {
+        private int kind = NONE;
+        // Integer, Long or BigDecimal for INT and LONG columns
+        private Class<?> valueClass;
+        private long[] present = new long[0];
+        private int[] ints;
+        private long[] longs;
+        private int[] starts;
+        private int[] lengths;
+        private char[] chars;
+        private int charCount;
+        private Object[] objects;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * Appends a row of NULL values and returns its index.
+     */
+    public int addRow() {
+        if (size == capacity) {
+            grow();
+        }
+        return size++;
+    }
+
+    /**
+     * Appends the values of the row and returns its index.
+     */
+    public int add(Object[] row) {
+        int index = addRow();
+        for (int i = 0; i < row.length; i++) {
+            if (row[i] != null) {
+                set(index, i, row[i]);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the values of the row as objects.
+     */
+    public Object[] getRow(int row) {
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getObject(row, i);
+        }
+        return values;
+    }
+
+    public boolean isNull(int row, int column) {
+        return !isPresent(columns[column], row);
+    }
+
+    public Object getObject(int row, int column) {
+        Column c = columns[column];
+        if (!isPresent(c, row)) {
+            return null;
+        }
+        switch (c.kind) {
+            case INT:
+            case LONG:
+                long value = c.kind == INT ? c.ints[row] : c.longs[row];
+                if (c.valueClass == Integer.class) {
+                    return (int) value;
+                }
+                return c.valueClass == Long.class ? (Object) value : BigDecimal.valueOf(value);
+            case CHARS:
+                return new String(c.chars, c.starts[row], c.lengths[row]);
+            default:
+                return c.objects[row];
+        }
+    }
+
+    /**
+     * Returns the value as a long, 0 for NULL. Whole number columns are read
+     * without an object.
+     */
+    public long getLong(int row, int column) {
+        Column c = columns[column];
+        if (!isPresent(c, row)) {
+            return 0;
+        }
+        if (c.kind == INT) {
+            return c.ints[row];
+        } else if (c.kind == LONG) {
+            return c.longs[row];
+        }
+        Object value = getObject(row, column);
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+    }
+
+    public void set(int row, int column, Object value) {
+        Column c = columns[column];
+        if (value == null) {
+            c.present[row >>> 6] &= ~(1L << row);
+            return;
+        }
+
+        if (c.kind == NONE) {
+            if (isWholeNumber(value)) {
+                c.valueClass = value.getClass();
+                toKind(column, fitsInt(value) ? INT : LONG);
+            } else {
+                toKind(column, value instanceof String ? CHARS : OBJECT);
+            }
+        } else if (c.kind == INT || c.kind == LONG) {
+            if (value.getClass() != c.valueClass || !isWholeNumber(value)) {
+                toKind(column, OBJECT);
+            } else if (c.kind == INT && !fitsInt(value)) {
+                toKind(column, LONG);
+            }
+        } else if (c.kind == CHARS && !(value instanceof String)) {
+            toKind(column, OBJECT);
+        }
+
+        switch (c.kind) {
+            case INT:
+                c.ints[row] = ((Number) value).intValue();
+                break;
+            case LONG:
+                c.longs[row] = ((Number) value).longValue();
+                break;
+            case CHARS:
+                setChars(c, row, (String) value);
+                break;
+            default:
+                c.objects[row] = value;
+        }
+        c.present[row >>> 6] |= 1L << row;
+    }
+
+    /**
+     * Sets a Long value without creating an object if the column holds
+     * Longs already, e.g. a COUNT.
+     */
+    public void setLong(int row, int column, long value) {
+        Column c = columns[column];
+        if (c.valueClass != Long.class || (c.kind == INT && (int) value != value)) {
+            set(row, column, value);
+            return;
+        }
+        if (c.kind == INT) {
+            c.ints[row] = (int) value;
+        } else if (c.kind == LONG) {
+            c.longs[row] = value;
+        } else {
+            set(row, column, value);
+            return;
+        }
+        c.present[row >>> 6] |= 1L << row;
+    }
+
+    /**
+     * Returns the indexes of the rows sorted by the ORDER BY, which is bound
+     * to the columns of the rows. Rows with equal values keep their order.
+     */
+    public int[] sort(int[] rows, final OrderBy orderBy) {
+        final Object[][] keys = new Object[size][];
+        Integer[] sorted = new Integer[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            sorted[i] = rows[i];
+            keys[rows[i]] = orderBy.getKeys(getRow(rows[i]));
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer row, Integer other) {
+                return orderBy.compare(keys[row], keys[other]);
+            }
+        });
+        int[] result = new int[sorted.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sorted[i];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the indexes of all rows in order.
+     */
+    public int[] getRowIndexes() {
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+        return rows;
+    }
+
+    private static boolean isPresent(Column c, int row) {
+        return (c.present[row >>> 6] & (1L << row)) != 0;
+    }
+
+    // Numbers that are read back the same from a long: no fraction, no exponent
+    private static boolean isWholeNumber(Object value) {
+        if (value instanceof Integer || value instanceof Long) {
+            return true;
+        }
+        if (value instanceof BigDecimal) {
+            BigDecimal number = (BigDecimal) value;
+            return number.scale() == 0 && number.unscaledValue().bitLength() < 64;
+        }
+        return false;
+    }
+
+    private static boolean fitsInt(Object value) {
+        long number = ((Number) value).longValue();
+        return (int) number == number;
+    }
+
+    // Old chars of a changed value stay in the buffer, values are rarely changed
+    private static void setChars(Column c, int row, String value) {
+        int length = value.length();
+        if (c.charCount + length > c.chars.length) {
+            c.chars = Arrays.copyOf(c.chars, Math.max(c.chars.length * 2, c.charCount + length));
+        }
+        value.getChars(0, length, c.chars, c.charCount);
+        c.starts[row] = c.charCount;
+        c.lengths[row] = length;
+        c.charCount += length;
+    }
+
+    /*
+     * Changes the kind of the column, the values are kept.
+     */
+    private void toKind(int column, int kind) {
+        Column c = columns[column];
+        if (kind == LONG && c.kind == INT) {
+            c.longs = new long[capacity];
+            for (int i = 0; i < size; i++) {
+                c.longs[i] = c.ints[i];
+            }
+            c.ints = null;
+        } else if (kind == OBJECT && c.kind != NONE) {
+            Object[] objects = new Object[capacity];
+            for (int i = 0; i < size; i++) {
+                if (isPresent(c, i)) {
+                    objects[i] = getObject(i, column);
+                }
+            }
+            c.ints = null;
+            c.longs = null;
+            c.starts = null;
+            c.lengths = null;
+            c.chars = null;
+            c.objects = objects;
+        } else if (kind == INT) {
+            c.ints = new int[capacity];
+        } else if (kind == LONG) {
+            c.longs = new long[capacity];
+        } else if (kind == CHARS) {
+            c.starts = new int[capacity];
+            c.lengths = new int[capacity];
+            c.chars = new char[capacity * 8];
+        } else {
+            c.objects = new Object[capacity];
+        }
+        c.kind = kind;
+        if (kind == OBJECT) {
+            c.valueClass = null;
+        }
+    }
+
+    private void grow() {
+        capacity = capacity == 0 ? INITIAL_CAPACITY : capacity * 2;
+        for (Column c : columns) {
+            c.present = Arrays.copyOf(c.present, (capacity + 63) >>> 6);
+            if (c.ints != null) {
+                c.ints = Arrays.copyOf(c.ints, capacity);
+            }
+            if (c.longs != null) {
+                c.longs = Arrays.copyOf(c.longs, capacity);
+            }
+            if (c.starts != null) {
+                c.starts = Arrays.copyOf(c.starts, capacity);
+                c.lengths = Arrays.copyOf(c.lengths, capacity);
+            }
+            if (c.objects != null) {
+                c.objects = Arrays.copyOf(c.objects, capacity);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("RowBatch[");
+        for (int i = 0; i < size; i++) {
+            text.append(Arrays.toString(getRow(i)));
+        }
+        return text.append("]").toString();
+    }
+}
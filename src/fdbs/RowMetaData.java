@@ -0,0 +1,165 @@
+package fdbs;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Column descriptions copied from the results of the databases, for result
+ * sets built by the federation layer whose columns come from several results
+ * or from results that are closed already.
+ */
+public class RowMetaData implements ResultSetMetaData {
+
+    private final List<String> names = new ArrayList<String>();
+    private final List<String> labels = new ArrayList<String>();
+    private final List<Integer> types = new ArrayList<Integer>();
+    private final List<String> typeNames = new ArrayList<String>();
+    private final List<String> classNames = new ArrayList<String>();
+    private final List<Integer> precisions = new ArrayList<Integer>();
+    private final List<Integer> scales = new ArrayList<Integer>();
+    private final List<Integer> nullables = new ArrayList<Integer>();
+    private final List<String> tableNames = new ArrayList<String>();
+
+    /**
+     * Copies all columns of the metadata.
+     */
+    public static RowMetaData copy(ResultSetMetaData metaData) throws SQLException {
+        RowMetaData copy = new RowMetaData();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            copy.add(metaData, i);
+        }
+        return copy;
+    }
+
+    /**
+     * Appends the column of the metadata.
+     */
+    public void add(ResultSetMetaData metaData, int column) throws SQLException {
+        names.add(metaData.getColumnName(column));
+        labels.add(metaData.getColumnLabel(column));
+        types.add(metaData.getColumnType(column));
+        typeNames.add(metaData.getColumnTypeName(column));
+        classNames.add(metaData.getColumnClassName(column));
+        precisions.add(metaData.getPrecision(column));
+        scales.add(metaData.getScale(column));
+        nullables.add(metaData.isNullable(column));
+        tableNames.add(metaData.getTableName(column));
+    }
+
+    @Override
+    public int getColumnCount() throws SQLException {
+        return names.size();
+    }
+
+    @Override
+    public boolean isAutoIncrement(int column) throws SQLException {
+        return false;
+    }
+
+    @Override
+    public boolean isCaseSensitive(int column) throws SQLException {
+        return true;
+    }
+
+    @Override
+    public boolean isSearchable(int column) throws SQLException {
+        return true;
+    }
+
+    @Override
+    public boolean isCurrency(int column) throws SQLException {
+        return false;
+    }
+
+    @Override
+    public int isNullable(int column) throws SQLException {
+        return nullables.get(column - 1);
+    }
+
+    @Override
+    public boolean isSigned(int column) throws SQLException {
+        return true;
+    }
+
+    @Override
+    public int getColumnDisplaySize(int column) throws SQLException {
+        return precisions.get(column - 1);
+    }
+
+    @Override
+    public String getColumnLabel(int column) throws SQLException {
+        return labels.get(column - 1);
+    }
+
+    @Override
+    public String getColumnName(int column) throws SQLException {
+        return names.get(column - 1);
+    }
+
+    @Override
+    public String getSchemaName(int column) throws SQLException {
+        return "";
+    }
+
+    @Override
+    public int getPrecision(int column) throws SQLException {
+        return precisions.get(column - 1);
+    }
+
+    @Override
+    public int getScale(int column) throws SQLException {
+        return scales.get(column - 1);
+    }
+
+    @Override
+    public String getTableName(int column) throws SQLException {
+        return tableNames.get(column - 1);
+    }
+
+    @Override
+    public String getCatalogName(int column) throws SQLException {
+        return "";
+    }
+
+    @Override
+    public int getColumnType(int column) throws SQLException {
+        return types.get(column - 1);
+    }
+
+    @Override
+    public String getColumnTypeName(int column) throws SQLException {
+        return typeNames.get(column - 1);
+    }
+
+    @Override
+    public boolean isReadOnly(int column) throws SQLException {
+        return true;
+    }
+
+    @Override
+    public boolean isWritable(int column) throws SQLException {
+        return false;
+    }
+
+    @Override
+    public boolean isDefinitelyWritable(int column) throws SQLException {
+        return false;
+    }
+
+    @Override
+    public String getColumnClassName(int column) throws SQLException {
+        return classNames.get(column - 1);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        throw new SQLException("Not a wrapper");
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return false;
+    }
+}
@@ -0,0 +1,77 @@
+package fdbs;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Result set over rows built by the federation layer, e.g. merged groups or
+ * joined rows. Subclasses move through the rows, the values of the current
+ * row are read from getCurrentRow.
+ */
+public abstract class RowResultSet extends AbstractResultSet {
+    private boolean wasNull;
+
+    public RowResultSet(List<ResultSet> list) {
+        super(list);
+    }
+
+    /*
+     * Values of the current row, null if there is no current row
+     */
+    protected abstract Object[] getCurrentRow();
+
+    @Override
+    public Object getObject(int columnIndex) throws SQLException {
+        Object[] row = getCurrentRow();
+        if (row == null) {
+            throw new SQLException("No current row");
+        }
+        Object value = row[columnIndex - 1];
+        wasNull = value == null;
+        return value;
+    }
+
+    @Override
+    public boolean wasNull() throws SQLException {
+        return wasNull;
+    }
+
+    @Override
+    public String getString(int columnIndex) throws SQLException {
+        Object value = getObject(columnIndex);
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public int getInt(int columnIndex) throws SQLException {
+        BigDecimal value = getBigDecimal(columnIndex);
+        return value == null ? 0 : value.intValue();
+    }
+
+    @Override
+    public long getLong(int columnIndex) throws SQLException {
+        BigDecimal value = getBigDecimal(columnIndex);
+        return value == null ? 0 : value.longValue();
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+        Object value = getObject(columnIndex);
+        if (value == null || value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        if (value instanceof Long) {
+            return BigDecimal.valueOf((Long) value);
+        }
+        try {
+            return new BigDecimal(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new SQLException("Not a number: " + value);
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package fdbs;
 
+import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
 
+/**
+ * Result of a SELECT COUNT(*) over several databases. It has one row holding
+ * the sum of the counts of the databases; every count is read once, as a
+ * long, when the row is fetched.
+ */
 public class SelectCountResultSet extends AbstractResultSet {
     private List<ResultSet> list;
+    private long count;
+    // -1 before the row, 0 on the row, 1 after it
+    private int position = -1;
 
     public SelectCountResultSet(List<ResultSet> list) {
         super(list);
@@ -13,21 +22,57 @@ public class SelectCountResultSet extends AbstractResultSet {
     }
 
     @Override
-    public int getInt(int columnIndex) throws SQLException {
-        int i = 0;
-        for (ResultSet rs : list) {
-            i += Integer.parseInt(rs.getString(1));
+    public boolean next() throws SQLException {
+        if (position < 0) {
+            for (ResultSet rs : list) {
+                if (rs.next()) {
+                    count += rs.getLong(1);
+                }
+            }
+        }
+        if (position < 1) {
+            position++;
+        }
+        return position == 0;
+    }
+
+    private void checkRow() throws SQLException {
+        if (position != 0) {
+            throw new SQLException("No current row");
         }
-        return i;
+    }
+
+    @Override
+    public long getLong(int columnIndex) throws SQLException {
+        checkRow();
+        return count;
+    }
+
+    @Override
+    public int getInt(int columnIndex) throws SQLException {
+        return (int) getLong(columnIndex);
     }
 
     @Override
     public String getString(int columnIndex) throws SQLException {
-        int i = 0;
+        return String.valueOf(getLong(columnIndex));
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+        return BigDecimal.valueOf(getLong(columnIndex));
+    }
+
+    @Override
+    public Object getObject(int columnIndex) throws SQLException {
+        return getBigDecimal(columnIndex);
+    }
+
+    @Override
+    public void close() throws SQLException {
         for (ResultSet rs : list) {
-            i += Integer.parseInt(rs.getString(1));
+            rs.close();
         }
-        return i + "";
     }
 
 }
@@ -0,0 +1,98 @@
+package fdbs;
+
+import fdbs.logging.CustomLogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.logging.Level;
+
+/**
+ * Rows the federation layer moves to disk, written with Java serialization
+ * to a temporary file in fdbs.joinSpillDirectory (default: java.io.tmpdir).
+ * Used by HashJoin for the partitions of both sides and by JoinResultSet for
+ * the sorted runs of a join with ORDER BY.
+ */
+class SpillFile {
+
+    // Rows written before the stream forgets the objects written
+    private static final int RESET_INTERVAL = 1000;
+
+    private final File file;
+    private ObjectOutputStream output;
+    private ObjectInputStream input;
+    private int rows;
+
+    private SpillFile(File file) throws IOException {
+        this.file = file;
+        file.deleteOnExit();
+        output = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /**
+     * Creates an empty file, its name starts with fdbs-join- and the name.
+     */
+    static SpillFile create(String name) throws IOException {
+        File directory = new File(System.getProperty(HashJoin.SPILL_DIRECTORY_PROPERTY,
+                System.getProperty("java.io.tmpdir")));
+        return new SpillFile(File.createTempFile("fdbs-join-" + name, ".tmp", directory));
+    }
+
+    void write(Object[] row) throws IOException {
+        output.writeObject(row);
+        if (++rows % RESET_INTERVAL == 0) {
+            output.reset();
+        }
+    }
+
+    /*
+     * Number of rows written
+     */
+    int getRows() {
+        return rows;
+    }
+
+    void finish() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+
+    /**
+     * Returns the next row, starting with the first one written, or null
+     * after the last one. The file is closed for writing on the first call.
+     */
+    Object[] read() throws IOException {
+        if (input == null) {
+            finish();
+            input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+        try {
+            return (Object[]) input.readObject();
+        } catch (EOFException e) {
+            return null;
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    void delete() {
+        try {
+            finish();
+            if (input != null) {
+                input.close();
+                input = null;
+            }
+        } catch (IOException e) {
+            CustomLogger.log(Level.WARNING, "Can not close join file: " + e.getMessage());
+        }
+        file.delete();
+    }
+}
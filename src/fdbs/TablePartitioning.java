@@ -0,0 +1,141 @@
+package fdbs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How a horizontally partitioned table is spread over the databases: the
+ * partition column, its position in the table and the PartitionRange every
+ * database holds. Built by DatabaseCatalog from the _HORIZ check constraints.
+ */
+public class TablePartitioning {
+
+    private final String tableName;
+    private final String column;
+    private final int columnIndex;
+    private final TreeMap<Integer, PartitionRange> ranges;
+
+    public TablePartitioning(String tableName, String column, int columnIndex,
+                             Map<Integer, PartitionRange> ranges) {
+        this.tableName = tableName;
+        this.column = column;
+        this.columnIndex = columnIndex;
+        this.ranges = new TreeMap<Integer, PartitionRange>(ranges);
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    /*
+     * Zero based position of the partition column in the table, -1 if the
+     * column order is not known.
+     */
+    public int getColumnIndex() {
+        return columnIndex;
+    }
+
+    public Map<Integer, PartitionRange> getRanges() {
+        return ranges;
+    }
+
+    /**
+     * Checks whether the other table is partitioned over the same databases
+     * with the same ranges, so rows with equal partition column values are
+     * held by the same database.
+     */
+    public boolean isColocatedWith(TablePartitioning other) {
+        if (!ranges.keySet().equals(other.ranges.keySet())) {
+            return false;
+        }
+        for (Map.Entry<Integer, PartitionRange> entry : ranges.entrySet()) {
+            if (!entry.getValue().hasSameValues(other.ranges.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the database holding the row with the given VALUES of an INSERT,
+     * or null if it can not be determined, i.e. the partition column position
+     * is unknown, the number of values does not match, the value is NULL or no
+     * range contains it.
+     */
+    public Integer getDatabaseForValues(List<String> values) {
+        if (values == null || columnIndex < 0 || columnIndex >= values.size()) {
+            return null;
+        }
+        return getDatabaseForValue(values.get(columnIndex));
+    }
+
+    /**
+     * Returns the database whose range contains the constant, as written in
+     * SQL, or null if there is none.
+     */
+    public Integer getDatabaseForValue(String literal) {
+        for (Map.Entry<Integer, PartitionRange> entry : ranges.entrySet()) {
+            PartitionRange range = entry.getValue();
+            if (range.contains(range.toValue(literal))) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits the part of an INSERT after VALUES, e.g. " ('AB', 12, null)",
+     * into its constants as written in SQL. Commas inside string constants and
+     * nested parens are respected. Returns null if it is not a single row.
+     */
+    public static List<String> getValues(String valuesClause) {
+        int start = valuesClause.indexOf('(');
+        if (start < 0) {
+            return null;
+        }
+
+        List<String> values = new ArrayList<String>();
+        int depth = 0;
+        boolean inString = false;
+        int valueStart = start + 1;
+        for (int i = start + 1; i < valuesClause.length(); i++) {
+            char c = valuesClause.charAt(i);
+            if (inString) {
+                if (c == '\'') {
+                    if (i + 1 < valuesClause.length() && valuesClause.charAt(i + 1) == '\'') {
+                        i++;
+                    } else {
+                        inString = false;
+                    }
+                }
+            } else if (c == '\'') {
+                inString = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ',' && depth == 0) {
+                values.add(valuesClause.substring(valueStart, i).trim());
+                valueStart = i + 1;
+            } else if (c == ')') {
+                if (depth > 0) {
+                    depth--;
+                    continue;
+                }
+                values.add(valuesClause.substring(valueStart, i).trim());
+                String rest = valuesClause.substring(i + 1).trim();
+                return rest.isEmpty() || rest.equals(";") ? values : null;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "TablePartitioning[" + tableName + "." + column + " (" + columnIndex + "), " + ranges + "]";
+    }
+}
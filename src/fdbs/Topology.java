@@ -0,0 +1,174 @@
+package fdbs;
+
+import fdbs.fjdbc.FedException;
+import fdbs.logging.CustomLogger;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+
+/**
+ * The databases of the federation. They are numbered from 1, the number is
+ * the key of the statements in the statement maps, and a partitioned table
+ * is spread over the databases in this order.
+ * <p>
+ * The members are read from the properties file named by the system property
+ * fdbs.topology, e.g.
+ * <pre>
+ * member.1.url = jdbc:oracle:thin:@pinatubo.informatik.hs-fulda.de:1521:oralv8a
+ * member.1.name = pinatubo
+ * member.2.url = jdbc:oracle:thin:@mtsthelens.informatik.hs-fulda.de:1521:oralv9a
+ * </pre>
+ * Members are numbered without gaps; name and sid are optional, the sid is
+ * taken from the end of the URL by default. Without the property the three
+ * databases of ConnectionConstants are used.
+ */
+public class Topology {
+
+    public static final String TOPOLOGY_PROPERTY = "fdbs.topology";
+
+    private static List<Member> members;
+
+    /**
+     * Returns the members in database number order, loading them on first
+     * use.
+     */
+    public static synchronized List<Member> getMembers() throws FedException {
+        if (members == null) {
+            String fileName = System.getProperty(TOPOLOGY_PROPERTY);
+            members = fileName == null ? getDefaultMembers() : load(fileName);
+            CustomLogger.log(Level.INFO, "Federation of " + members.size() + " databases: " + members);
+        }
+        return members;
+    }
+
+    /**
+     * Uses the members of the properties file from now on, e.g. to add a
+     * database without restarting. Open connections keep their databases.
+     */
+    public static synchronized void setTopology(String fileName) throws FedException {
+        members = load(fileName);
+        CustomLogger.log(Level.INFO, "Federation of " + members.size() + " databases: " + members);
+    }
+
+    /**
+     * Returns the sid of the database for log messages, "DB" and its number
+     * if it is not a member.
+     */
+    public static String getSid(Integer dbNumber) {
+        try {
+            List<Member> members = getMembers();
+            if (dbNumber != null && dbNumber >= 1 && dbNumber <= members.size()) {
+                return members.get(dbNumber - 1).getSid();
+            }
+        } catch (FedException e) {
+            // Logged when the topology was loaded
+        }
+        return "DB" + dbNumber;
+    }
+
+    private static List<Member> getDefaultMembers() {
+        List<Member> defaults = new ArrayList<Member>();
+        defaults.add(new Member(1, ConnectionConstants.CONNECTION_1_NAME, ConnectionConstants.CONNECTION_1_URL,
+                ConnectionConstants.CONNECTION_1_SID));
+        defaults.add(new Member(2, ConnectionConstants.CONNECTION_2_NAME, ConnectionConstants.CONNECTION_2_URL,
+                ConnectionConstants.CONNECTION_2_SID));
+        defaults.add(new Member(3, ConnectionConstants.CONNECTION_3_NAME, ConnectionConstants.CONNECTION_3_URL,
+                ConnectionConstants.CONNECTION_3_SID));
+        return Collections.unmodifiableList(defaults);
+    }
+
+    private static List<Member> load(String fileName) throws FedException {
+        Properties properties = new Properties();
+        InputStream input = null;
+        try {
+            input = new FileInputStream(fileName);
+            properties.load(input);
+        } catch (IOException e) {
+            CustomLogger.log(Level.SEVERE, "Can not read topology " + fileName + ": " + e.getMessage());
+            throw new FedException(new Throwable("Can not read topology " + fileName + ": " + e.getMessage()));
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    CustomLogger.log(Level.WARNING, "Can not close topology " + fileName + ": " + e.getMessage());
+                }
+            }
+        }
+
+        List<Member> loaded = new ArrayList<Member>();
+        for (int number = 1; properties.getProperty("member." + number + ".url") != null; number++) {
+            String url = properties.getProperty("member." + number + ".url").trim();
+            String sid = properties.getProperty("member." + number + ".sid", getSidFromUrl(url)).trim();
+            String name = properties.getProperty("member." + number + ".name", sid).trim();
+            loaded.add(new Member(number, name, url, sid));
+        }
+
+        // A gap in the numbers would silently drop the members after it
+        for (String key : properties.stringPropertyNames()) {
+            if (key.matches("member\\.\\d+\\..*")) {
+                int number = Integer.parseInt(key.substring("member.".length(), key.indexOf('.', "member.".length())));
+                if (number < 1 || number > loaded.size()) {
+                    throw new FedException(new Throwable("Topology " + fileName + " has no member."
+                            + (loaded.size() + 1) + ".url before " + key));
+                }
+            }
+        }
+        if (loaded.isEmpty()) {
+            throw new FedException(new Throwable("Topology " + fileName + " has no member.1.url"));
+        }
+        return Collections.unmodifiableList(loaded);
+    }
+
+    /*
+     * Oracle thin URLs end with the sid (host:port:sid) or the service name
+     * (//host:port/service).
+     */
+    private static String getSidFromUrl(String url) {
+        return url.substring(Math.max(url.lastIndexOf(':'), url.lastIndexOf('/')) + 1);
+    }
+
+    /**
+     * One database of the federation.
+     */
+    public static class Member {
+        private final int number;
+        private final String name;
+        private final String url;
+        private final String sid;
+
+        public Member(int number, String name, String url, String sid) {
+            this.number = number;
+            this.name = name;
+            this.url = url;
+            this.sid = sid;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getSid() {
+            return sid;
+        }
+
+        @Override
+        public String toString() {
+            return number + ":" + name + "(" + sid + ")";
+        }
+    }
+}
@@ -1,58 +1,59 @@
 package fdbs;
 
 public class UnicodeManager {
-    public static String replaceUnicodesWithChars(String query) {
-        if (query.contains(getUnicodeFromCharForReplacing("�"))) {
-            query = query.replaceAll(getUnicodeFromCharForReplacing("�"), "�");
-        }
-        if (query.contains(getUnicodeFromCharForReplacing("�"))) {
-            query = query.replaceAll(getUnicodeFromCharForReplacing("�"), "�");
-        }
-        if (query.contains(getUnicodeFromCharForReplacing("�"))) {
-            query = query.replaceAll(getUnicodeFromCharForReplacing("�"), "�");
-        }
-        if (query.contains(getUnicodeFromCharForReplacing("�"))) {
-            query = query.replaceAll(getUnicodeFromCharForReplacing("�"), "�");
-        }
-        if (query.contains(getUnicodeFromCharForReplacing("�"))) {
-            query = query.replaceAll(getUnicodeFromCharForReplacing("�"), "�");
-        }
-        if (query.contains(getUnicodeFromCharForReplacing("�"))) {
-            query = query.replaceAll(getUnicodeFromCharForReplacing("�"), "�");
+
+    /*
+     * Umlauts and the escapes the parser sees instead of them, in replacement
+     * order. The escapes are replacement strings, so the backslashes are
+     * dropped when they are applied.
+     */
+    private static final String[] UMLAUTS = {"�", "�", "�", "�", "�", "�", "�"};
+    private static final String[] UNICODES = {"\\u00c3\\u201e", "\\u00c3\\u0153", "\\u00c3\\u2013",
+            "\\u00c3\\u00a4", "\\u00c3\\u00bc", "\\u00c3\\u00b6", "\\u00c3\\u0178"};
+
+    private static final String[] ESCAPES = new String[UNICODES.length];
+    private static final String[] TOKENS = new String[UMLAUTS.length];
+
+    static {
+        for (int i = 0; i < UMLAUTS.length; i++) {
+            ESCAPES[i] = UNICODES[i].replace("\\", "");
+            TOKENS[i] = getUnicodeFromCharForReplacing(UMLAUTS[i]);
         }
-        if (query.contains(getUnicodeFromCharForReplacing("�"))) {
-            query = query.replaceAll(getUnicodeFromCharForReplacing("�"), "�");
+    }
+
+    public static String replaceUnicodesWithChars(String query) {
+        for (int i = 0; i < TOKENS.length; i++) {
+            if (query.contains(TOKENS[i])) {
+                query = query.replace(TOKENS[i], UMLAUTS[i]);
+            }
         }
 
         return query;
     }
 
     public static String getUnicodedQuery(String query) {
-        if (query.contains("�")) {
-            query = query.replaceAll("�", "\\u00c3\\u201e");
-        }
-        if (query.contains("�")) {
-            query = query.replaceAll("�", "\\u00c3\\u0153");
-        }
-        if (query.contains("�")) {
-            query = query.replaceAll("�", "\\u00c3\\u2013");
-        }
-        if (query.contains("�")) {
-            query = query.replaceAll("�", "\\u00c3\\u00a4");
-        }
-        if (query.contains("�")) {
-            query = query.replaceAll("�", "\\u00c3\\u00bc");
-        }
-        if (query.contains("�")) {
-            query = query.replaceAll("�", "\\u00c3\\u00b6");
-        }
-        if (query.contains("�")) {
-            query = query.replaceAll("�", "\\u00c3\\u0178");
+        for (int i = 0; i < UMLAUTS.length; i++) {
+            if (query.contains(UMLAUTS[i])) {
+                query = query.replace(UMLAUTS[i], ESCAPES[i]);
+            }
         }
 
         return query;
     }
 
+    /*
+     * Returns the escape getUnicodedQuery would put in place of the given
+     * character, or null if the character is not an umlaut.
+     */
+    public static String getUnicode(char c) {
+        for (int i = 0; i < UMLAUTS.length; i++) {
+            if (UMLAUTS[i].charAt(0) == c) {
+                return ESCAPES[i];
+            }
+        }
+        return null;
+    }
+
     private static String getUnicodeFromChar(String c) {
         return "\\u00" + Integer.toHexString(c.toCharArray()[0]);
     }
@@ -0,0 +1,330 @@
+package fdbs.fjdbc;
+
+import fdbs.logging.CustomLogger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * JDBC connections to one database of the federation, kept open between
+ * FedConnections so a session does not pay for the TCP and Oracle handshake.
+ * <p>
+ * The pool holds at most fdbs.poolMaxSize connections (default 8); borrowing
+ * waits up to fdbs.poolMaxWait milliseconds (default 30000) for one to be
+ * returned. Connections idle for more than fdbs.poolIdleTimeout milliseconds
+ * (default 300000) are closed, and connections idle for more than 30 seconds
+ * are validated before they are handed out again. close stops the eviction
+ * and closes the idle connections; borrowed ones are closed when they are
+ * returned.
+ */
+public class ConnectionPool {
+
+    public static final String MAX_SIZE_PROPERTY = "fdbs.poolMaxSize";
+    public static final int DEFAULT_MAX_SIZE = 8;
+    public static final String MAX_WAIT_PROPERTY = "fdbs.poolMaxWait";
+    public static final long DEFAULT_MAX_WAIT = 30000;
+    public static final String IDLE_TIMEOUT_PROPERTY = "fdbs.poolIdleTimeout";
+    public static final long DEFAULT_IDLE_TIMEOUT = 300000;
+
+    private static final long VALIDATION_INTERVAL = 30000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    // ORA-01017: invalid username/password
+    private static final int ORACLE_INVALID_LOGON = 1017;
+
+    private static ScheduledThreadPoolExecutor evictor;
+
+    private final String url;
+    private final String userName;
+    private final String password;
+    private final int maxSize = Integer.getInteger(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE);
+    private final long maxWait = Long.getLong(MAX_WAIT_PROPERTY, DEFAULT_MAX_WAIT);
+    private final long idleTimeout = Long.getLong(IDLE_TIMEOUT_PROPERTY, DEFAULT_IDLE_TIMEOUT);
+
+    // Most recently returned first, so the oldest ones become idle long enough to be closed
+    private final LinkedList<IdleConnection> idle = new LinkedList<IdleConnection>();
+    // Borrowed connections and connections being opened
+    private int active;
+    private boolean isClosed;
+    private final ScheduledFuture<?> eviction;
+
+    private long createdCount;
+    private long borrowCount;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    public ConnectionPool(String url, String userName, String password) {
+        this.url = url;
+        this.userName = userName;
+        this.password = password;
+        eviction = scheduleEviction(this);
+    }
+
+    /**
+     * Returns an open connection, opening one if none is idle and the pool is
+     * not full. Waits for a connection to be returned otherwise.
+     */
+    public Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        while (true) {
+            IdleConnection entry = takeOrReserve(start);
+            if (entry == null) {
+                return open(start);
+            }
+            if (isValid(entry)) {
+                recordBorrow(start);
+                return entry.connection;
+            }
+            CustomLogger.log(Level.INFO, "Discarding invalid connection to " + url);
+            discard(entry.connection);
+        }
+    }
+
+    /**
+     * Takes the connection back. Uncommitted work is rolled back; a connection
+     * that can not be reset is closed.
+     */
+    public void release(Connection connection) {
+        try {
+            if (connection.isClosed() || isClosed()) {
+                discard(connection);
+                return;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            CustomLogger.log(Level.WARNING, "Can not reset connection to " + url + ": " + e.getMessage());
+            discard(connection);
+            return;
+        }
+
+        synchronized (this) {
+            active--;
+            idle.addFirst(new IdleConnection(connection, System.currentTimeMillis()));
+            notifyAll();
+        }
+    }
+
+    /**
+     * Closes the connection instead of taking it back, e.g. because it broke.
+     */
+    public void discard(Connection connection) {
+        close(connection);
+        synchronized (this) {
+            active--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stops the eviction and closes the idle connections. Borrowing fails
+     * afterwards, borrowed connections are closed when they are returned.
+     */
+    public void close() {
+        eviction.cancel(false);
+        List<IdleConnection> closed;
+        synchronized (this) {
+            isClosed = true;
+            closed = new ArrayList<IdleConnection>(idle);
+            idle.clear();
+            notifyAll();
+        }
+        for (IdleConnection entry : closed) {
+            close(entry.connection);
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return isClosed;
+    }
+
+    /**
+     * Checks whether opening a connection failed because the user name or
+     * password is wrong.
+     */
+    public static boolean isAuthenticationFailure(SQLException e) {
+        // SQL state class 28 is "invalid authorization specification"
+        return e.getErrorCode() == ORACLE_INVALID_LOGON
+                || e.getSQLState() != null && e.getSQLState().startsWith("28");
+    }
+
+    /*
+     * Closes the connections that were idle for longer than the idle timeout.
+     */
+    void evictIdle() {
+        List<Connection> expired = new ArrayList<Connection>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Iterator<IdleConnection> iterator = idle.descendingIterator();
+            while (iterator.hasNext()) {
+                IdleConnection entry = iterator.next();
+                if (now - entry.since < idleTimeout) {
+                    break;
+                }
+                iterator.remove();
+                expired.add(entry.connection);
+            }
+        }
+        for (Connection connection : expired) {
+            close(connection);
+        }
+    }
+
+    /*
+     * Returns an idle connection or null if the caller may open a new one,
+     * in both cases counted as active. Waits while the pool is full.
+     */
+    private synchronized IdleConnection takeOrReserve(long start) throws SQLException {
+        if (isClosed) {
+            throw new SQLException("Connection pool of " + url + " is closed");
+        }
+        while (idle.isEmpty() && active >= maxSize) {
+            long remaining = maxWait - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (remaining <= 0) {
+                throw new SQLException("No connection to " + url + " available within " + maxWait + " ms, "
+                        + this);
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection to " + url);
+            }
+            if (isClosed) {
+                throw new SQLException("Connection pool of " + url + " is closed");
+            }
+        }
+        active++;
+        return idle.isEmpty() ? null : idle.removeFirst();
+    }
+
+    private Connection open(long start) throws SQLException {
+        Connection connection;
+        try {
+            connection = FedPseudoDriver.openConnection(url, userName, password);
+        } catch (SQLException e) {
+            synchronized (this) {
+                active--;
+                notifyAll();
+            }
+            throw e;
+        }
+        synchronized (this) {
+            createdCount++;
+        }
+        recordBorrow(start);
+        return connection;
+    }
+
+    private boolean isValid(IdleConnection entry) {
+        if (System.currentTimeMillis() - entry.since < VALIDATION_INTERVAL) {
+            return true;
+        }
+        try {
+            return entry.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private synchronized void recordBorrow(long start) {
+        long waitNanos = System.nanoTime() - start;
+        borrowCount++;
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+    }
+
+    private void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            CustomLogger.log(Level.WARNING, "Can not close connection to " + url + ": " + e.getMessage());
+        }
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /*
+     * Borrowed connections, including the ones being opened
+     */
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /*
+     * Connections opened since the pool was created
+     */
+    public synchronized long getCreatedCount() {
+        return createdCount;
+    }
+
+    public synchronized long getBorrowCount() {
+        return borrowCount;
+    }
+
+    /*
+     * Time borrowers waited for a connection, in milliseconds, including the
+     * time to open or validate it
+     */
+    public synchronized double getAverageWaitMillis() {
+        return borrowCount == 0 ? 0 : totalWaitNanos / 1e6 / borrowCount;
+    }
+
+    public synchronized double getMaxWaitMillis() {
+        return maxWaitNanos / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("ConnectionPool[%s active=%d idle=%d created=%d borrowed=%d wait avg=%.1fms max=%.1fms]",
+                url, active, idle.size(), createdCount, borrowCount, getAverageWaitMillis(), getMaxWaitMillis());
+    }
+
+    private static synchronized ScheduledFuture<?> scheduleEviction(final ConnectionPool pool) {
+        if (evictor == null) {
+            evictor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "fdbs-pool-evictor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // The task of a closed pool must not keep the pool until it would run
+            evictor.setRemoveOnCancelPolicy(true);
+        }
+        long period = Math.max(pool.idleTimeout / 2, 1000);
+        return evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                pool.evictIdle();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static class IdleConnection {
+        final Connection connection;
+        final long since;
+
+        IdleConnection(Connection connection, long since) {
+            this.connection = connection;
+            this.since = since;
+        }
+    }
+}
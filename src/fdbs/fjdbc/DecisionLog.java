@@ -0,0 +1,262 @@
+package fdbs.fjdbc;
+
+import fdbs.logging.CustomLogger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * The log of the two phase commits of TwoPhaseCommit, one line per record:
+ * <pre>
+ * 1502110530123-1 BEGIN 1,2,3
+ * 1502110530123-1 COMMIT
+ * 1502110530123-1 FAILED 2
+ * 1502110530123-1 DONE
+ * </pre>
+ * The COMMIT and ROLLBACK decisions are forced to disk before the databases
+ * are told, so a restarted coordinator knows the outcome of every
+ * transaction that did not finish. A transaction without decision was not
+ * committed anywhere and is rolled back (presumed abort).
+ * <p>
+ * A transaction recover could not finish on some members is recorded as
+ * UNRESOLVED with those members. It is not recovered again and stays in the
+ * log until it is acknowledged after a manual check, which writes DONE.
+ */
+public class DecisionLog {
+
+    public static final String BEGIN = "BEGIN";
+    public static final String COMMIT = "COMMIT";
+    public static final String ROLLBACK = "ROLLBACK";
+    public static final String FAILED = "FAILED";
+    public static final String DONE = "DONE";
+    public static final String UNRESOLVED = "UNRESOLVED";
+
+    private final File file;
+    private FileOutputStream output;
+
+    public DecisionLog(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Appends a record. A forced record is on disk when this method returns.
+     */
+    public synchronized void write(String transactionId, String record, String members, boolean force)
+            throws IOException {
+        if (output == null) {
+            File directory = file.getAbsoluteFile().getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can not create " + directory);
+            }
+            boolean isTorn = endsTorn();
+            output = new FileOutputStream(file, true);
+            if (isTorn) {
+                // Ends the record torn by a crash, so the next one is a line of its own
+                output.write('\n');
+            }
+        }
+        String line = transactionId + " " + record + (members == null ? "" : " " + members) + "\n";
+        output.write(line.getBytes(StandardCharsets.UTF_8));
+        if (force) {
+            output.getFD().sync();
+        }
+    }
+
+    /*
+     * Checks whether the last line of the log was not finished.
+     */
+    private boolean endsTorn() throws IOException {
+        if (file.length() == 0) {
+            return false;
+        }
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            input.seek(file.length() - 1);
+            return input.read() != '\n';
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Reads the transactions that are not DONE, in log order, the
+     * UNRESOLVED ones included.
+     */
+    public synchronized List<Transaction> readUnfinished() throws IOException {
+        Map<String, Transaction> transactions = new LinkedHashMap<String, Transaction>();
+        if (!file.exists()) {
+            return new ArrayList<Transaction>();
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length < 2) {
+                    // A record torn by a crash, it was not forced
+                    continue;
+                }
+                Transaction transaction = transactions.get(parts[0]);
+                try {
+                    if (parts[1].equals(BEGIN) && parts.length == 3) {
+                        transactions.put(parts[0], new Transaction(parts[0], parseMembers(parts[2])));
+                    } else if (transaction == null) {
+                        CustomLogger.log(Level.WARNING, "Transaction log record without BEGIN: " + line);
+                    } else if (parts[1].equals(COMMIT) || parts[1].equals(ROLLBACK)) {
+                        transaction.decision = parts[1];
+                    } else if (parts[1].equals(FAILED) && parts.length == 3) {
+                        transaction.failedMembers.addAll(parseMembers(parts[2]));
+                    } else if (parts[1].equals(UNRESOLVED) && parts.length == 3) {
+                        transaction.unresolvedMembers.addAll(parseMembers(parts[2]));
+                    } else if (parts[1].equals(DONE)) {
+                        transactions.remove(parts[0]);
+                    }
+                } catch (NumberFormatException e) {
+                    CustomLogger.log(Level.WARNING, "Invalid transaction log record: " + line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return new ArrayList<Transaction>(transactions.values());
+    }
+
+    /**
+     * Rewrites the log with the records of the unfinished transactions only,
+     * so it does not grow with every transaction. The new log replaces the
+     * old one when it is on disk.
+     */
+    public synchronized void compact() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        Set<String> unfinished = new HashSet<String>();
+        for (Transaction transaction : readUnfinished()) {
+            unfinished.add(transaction.getId());
+        }
+
+        close();
+        File compacted = new File(file.getPath() + ".tmp");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8));
+        FileOutputStream compactedOutput = new FileOutputStream(compacted);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (unfinished.contains(line.trim().split(" ")[0])) {
+                    compactedOutput.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            compactedOutput.getFD().sync();
+        } finally {
+            reader.close();
+            compactedOutput.close();
+        }
+        if (!file.delete() || !compacted.renameTo(file)) {
+            throw new IOException("Can not replace " + file + " with " + compacted);
+        }
+    }
+
+    public synchronized void close() {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                CustomLogger.log(Level.WARNING, "Can not close transaction log " + file + ": " + e.getMessage());
+            }
+            output = null;
+        }
+    }
+
+    public static String formatMembers(Iterable<Integer> members) {
+        StringBuilder text = new StringBuilder();
+        for (Integer member : members) {
+            text.append(text.length() > 0 ? "," : "").append(member);
+        }
+        return text.toString();
+    }
+
+    private static List<Integer> parseMembers(String text) {
+        List<Integer> members = new ArrayList<Integer>();
+        for (String member : Arrays.asList(text.split(","))) {
+            members.add(Integer.valueOf(member));
+        }
+        return members;
+    }
+
+    /**
+     * A transaction of the log that is not DONE.
+     */
+    public static class Transaction {
+        private final String id;
+        private final List<Integer> members;
+        private final List<Integer> failedMembers = new ArrayList<Integer>();
+        private final List<Integer> unresolvedMembers = new ArrayList<Integer>();
+        private String decision;
+
+        Transaction(String id, List<Integer> members) {
+            this.id = id;
+            this.members = members;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public List<Integer> getMembers() {
+            return members;
+        }
+
+        /*
+         * Members whose commit or rollback failed in the second phase.
+         */
+        public List<Integer> getFailedMembers() {
+            return failedMembers;
+        }
+
+        /*
+         * Members recover could not finish the transaction on, empty unless
+         * it is UNRESOLVED.
+         */
+        public List<Integer> getUnresolvedMembers() {
+            return unresolvedMembers;
+        }
+
+        public boolean isUnresolved() {
+            return !unresolvedMembers.isEmpty();
+        }
+
+        /*
+         * COMMIT, ROLLBACK or null if there was no decision.
+         */
+        public String getDecision() {
+            return decision;
+        }
+
+        @Override
+        public String toString() {
+            return id + " " + (decision == null ? "undecided" : decision) + " " + members
+                    + (failedMembers.isEmpty() ? "" : " failed " + failedMembers)
+                    + (unresolvedMembers.isEmpty() ? "" : " unresolved " + unresolvedMembers);
+        }
+    }
+}
@@ -4,45 +4,39 @@ import fdbs.logging.CustomLogger;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.HashMap;
 import java.util.logging.Level;
 
 public class FedConnection implements FedConnectionInterface {
 
     private HashMap<Integer, Connection> connectionsMap;
+    // Pools the connections are returned to on close, null if they are closed
+    private HashMap<Integer, ConnectionPool> connectionPools;
+    // JDBC Statements of the FedStatements
+    private StatementCache statementCache;
+    // JDBC PreparedStatements of the FedPreparedStatements
+    private PreparedStatementCache preparedStatementCache;
 
     private boolean autoCommit = true;
     private boolean close = true;
 
-    private FedStatement statement;
-
     private String userName;
     private String password;
 
     public FedConnection(HashMap<Integer, Connection> connectionsMap, String userName, String password) {
         this.connectionsMap = connectionsMap;
+        this.statementCache = new StatementCache(connectionsMap);
+        this.preparedStatementCache = new PreparedStatementCache(connectionsMap);
         close = false;
 
-        // FedConnection has to return FedStatement, so initializing it as soon
-        // as FedConnection object is created
-        initializeFedStatement();
+        // Finishes the transactions a crashed run left in the transaction log
+        TwoPhaseCommit.getDefault().recoverOnce(getParticipants());
     }
 
-    private void initializeFedStatement() {
-        HashMap<Integer, Statement> statements = new HashMap<Integer, Statement>();
-
-        // Creating JDBC Statements from JDBC Connection Map to prepare
-        // FedStatement object
-        int i = 0;
-        for (Connection connection : connectionsMap.values()) {
-            try {
-                statements.put(++i, connection.createStatement());
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-        }
-        statement = new FedStatement(this, statements);
+    public FedConnection(HashMap<Integer, Connection> connectionsMap, HashMap<Integer, ConnectionPool> connectionPools,
+                         String userName, String password) {
+        this(connectionsMap, userName, password);
+        this.connectionPools = connectionPools;
     }
 
     public boolean getAutoCommit() throws FedException {
@@ -70,19 +64,28 @@ public class FedConnection implements FedConnectionInterface {
         }
     }
 
+    /*
+     * Commits on all databases or on none, see TwoPhaseCommit. With auto
+     * commit every statement is committed already, there is nothing to do.
+     */
     public void commit() throws FedException {
         CustomLogger.log(Level.INFO, "FJDBC: commit()");
         if (close) {
             throw new FedException(
                     new Throwable("FedConnection resource is closed."));
         }
-        try {
-            for (Connection connection : connectionsMap.values()) {
-                connection.commit();
-            }
-        } catch (SQLException e) {
-            throw new FedException(new Throwable(e.getMessage()));
+        if (autoCommit) {
+            return;
+        }
+        TwoPhaseCommit.getDefault().commit(getParticipants());
+    }
+
+    private HashMap<Integer, JdbcParticipant> getParticipants() {
+        HashMap<Integer, JdbcParticipant> participants = new HashMap<Integer, JdbcParticipant>();
+        for (Integer dbNumber : connectionsMap.keySet()) {
+            participants.put(dbNumber, new JdbcParticipant(connectionsMap.get(dbNumber)));
         }
+        return participants;
     }
 
     public void rollback() throws FedException {
@@ -103,6 +106,13 @@ public class FedConnection implements FedConnectionInterface {
 
     public void close() throws FedException {
         CustomLogger.log(Level.INFO, "Entered FedConnection.close()");
+        statementCache.close();
+        preparedStatementCache.close();
+        if (connectionPools != null) {
+            releaseConnections();
+            CustomLogger.log(Level.INFO, "Exited FedConnection.close()");
+            return;
+        }
         String url;
         try {
             for (Connection connection : connectionsMap.values()) {
@@ -117,8 +127,49 @@ public class FedConnection implements FedConnectionInterface {
         CustomLogger.log(Level.INFO, "Exited FedConnection.close()");
     }
 
+    /*
+     * Returns the connections to their pools. The statements were closed, the
+     * pool rolls back what was not committed.
+     */
+    private void releaseConnections() {
+        if (close) {
+            return;
+        }
+        close = true;
+        for (Integer dbNumber : connectionsMap.keySet()) {
+            ConnectionPool pool = connectionPools.get(dbNumber);
+            pool.release(connectionsMap.get(dbNumber));
+            CustomLogger.log(Level.INFO, "JDBC connection returned to " + pool);
+        }
+    }
+
+    /*
+     * Returns a new FedStatement. It takes JDBC Statements from the
+     * connection for each call only, so a statement costs nothing until it
+     * is used.
+     */
     public FedStatement getStatement() {
-        return statement;
+        return new FedStatement(this);
+    }
+
+    /*
+     * Parses the statement once, its ? parameters are set before each
+     * execution. See FedPreparedStatement.
+     */
+    public FedPreparedStatement prepareStatement(String query) throws FedException {
+        if (close) {
+            throw new FedException(
+                    new Throwable("FedConnection resource is closed."));
+        }
+        return new FedPreparedStatement(this, query);
+    }
+
+    StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    PreparedStatementCache getPreparedStatementCache() {
+        return preparedStatementCache;
     }
 
 }
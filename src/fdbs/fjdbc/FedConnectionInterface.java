@@ -13,4 +13,6 @@ public interface FedConnectionInterface {
     void close() throws FedException;
 
     FedStatement getStatement();
+
+    FedPreparedStatement prepareStatement(String sql) throws FedException;
 }
@@ -0,0 +1,162 @@
+package fdbs.fjdbc;
+
+import fdbs.FederalController;
+import fdbs.PreparedUpdate;
+import fdbs.QueryClauses;
+import fdbs.QueryTypeConstant;
+import fdbs.logging.CustomLogger;
+import fdbs.parser.ParseException;
+
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * A statement with ? parameters, parsed once when it is prepared.
+ * <p>
+ * An INSERT is sent as a JDBC PreparedStatement with the same parameters: the
+ * row goes to the database whose partition holds the value bound to the
+ * partition column, and the PreparedStatements are cached per database by
+ * the FedConnection, so every database parses the INSERT once. Other
+ * statements are executed by the FedStatement of the connection with the
+ * values written into the statement, as their WHERE conditions are rewritten
+ * by the federation layer.
+ */
+public class FedPreparedStatement implements FedPreparedStatementInterface {
+    String fpsClosed = "FedPreparedStatement resource is closed.";
+
+    private FedConnection connection;
+    private String query;
+    private List<Integer> parameterPositions;
+    // Parsed INSERT, null for other statements
+    private PreparedUpdate preparedInsert;
+
+    private Object[] values;
+    private int[] nullTypes;
+    private boolean[] isSet;
+
+    private boolean isClose = true;
+
+    public FedPreparedStatement(FedConnection connection, String query) throws FedException {
+        this.connection = connection;
+        this.query = query.trim();
+        parameterPositions = QueryClauses.getParameterPositions(this.query);
+        values = new Object[parameterPositions.size()];
+        nullTypes = new int[parameterPositions.size()];
+        isSet = new boolean[parameterPositions.size()];
+
+        CustomLogger.log(Level.INFO, "Received FJDBC prepare: {0}", query);
+        if (this.query.toUpperCase().startsWith("INSERT")) {
+            try {
+                preparedInsert = FederalController.prepareUpdate(this.query);
+            } catch (ParseException e) {
+                CustomLogger.log(Level.WARNING, "ParseException; " + e);
+                throw new FedException(new Throwable(e.getMessage()));
+            }
+            if (preparedInsert.getParsedQuery().getQueryType() != QueryTypeConstant.INSERT) {
+                preparedInsert = null;
+            }
+        }
+        isClose = false;
+    }
+
+    public void setInt(int parameterIndex, int value) throws FedException {
+        set(parameterIndex, value, Types.INTEGER);
+    }
+
+    public void setLong(int parameterIndex, long value) throws FedException {
+        set(parameterIndex, value, Types.BIGINT);
+    }
+
+    public void setString(int parameterIndex, String value) throws FedException {
+        set(parameterIndex, value, Types.VARCHAR);
+    }
+
+    public void setBigDecimal(int parameterIndex, BigDecimal value) throws FedException {
+        set(parameterIndex, value, Types.NUMERIC);
+    }
+
+    public void setObject(int parameterIndex, Object value) throws FedException {
+        set(parameterIndex, value, Types.VARCHAR);
+    }
+
+    public void setNull(int parameterIndex, int sqlType) throws FedException {
+        set(parameterIndex, null, sqlType);
+    }
+
+    public void clearParameters() throws FedException {
+        checkOpen();
+        Arrays.fill(values, null);
+        Arrays.fill(isSet, false);
+    }
+
+    public int executeUpdate() throws FedException {
+        checkOpen();
+        checkParameters();
+        if (preparedInsert != null) {
+            return connection.getStatement().executePreparedInsert(preparedInsert, values.clone(),
+                    nullTypes.clone(), connection.getPreparedStatementCache());
+        }
+        return connection.getStatement().executeUpdate(bind());
+    }
+
+    public FedResultSet executeQuery() throws FedException {
+        checkOpen();
+        checkParameters();
+        return connection.getStatement().executeQuery(bind());
+    }
+
+    public FedConnection getConnection() throws FedException {
+        checkOpen();
+        return connection;
+    }
+
+    /*
+     * The JDBC PreparedStatements stay cached by the connection for the next
+     * statement of the same shape.
+     */
+    public void close() throws FedException {
+        isClose = true;
+    }
+
+    private void set(int parameterIndex, Object value, int sqlType) throws FedException {
+        checkOpen();
+        if (parameterIndex < 1 || parameterIndex > values.length) {
+            throw new FedException(new Throwable("Parameter index " + parameterIndex + " out of range 1.."
+                    + values.length));
+        }
+        values[parameterIndex - 1] = value;
+        nullTypes[parameterIndex - 1] = sqlType;
+        isSet[parameterIndex - 1] = true;
+    }
+
+    private void checkOpen() throws FedException {
+        if (isClose) {
+            CustomLogger.log(Level.WARNING, fpsClosed);
+            throw new FedException(new Throwable(fpsClosed));
+        }
+    }
+
+    private void checkParameters() throws FedException {
+        for (int i = 0; i < isSet.length; i++) {
+            if (!isSet[i]) {
+                throw new FedException(new Throwable("No value set for parameter " + (i + 1)));
+            }
+        }
+    }
+
+    /*
+     * The query with the values written as constants in place of the ?.
+     */
+    private String bind() {
+        StringBuilder boundQuery = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < parameterPositions.size(); i++) {
+            boundQuery.append(query, start, parameterPositions.get(i)).append(QueryClauses.toLiteral(values[i]));
+            start = parameterPositions.get(i) + 1;
+        }
+        return boundQuery.append(query.substring(start)).toString();
+    }
+}
@@ -0,0 +1,27 @@
+package fdbs.fjdbc;
+
+import java.math.BigDecimal;
+
+public interface FedPreparedStatementInterface {
+
+    void setInt(int parameterIndex, int value) throws FedException;
+
+    void setLong(int parameterIndex, long value) throws FedException;
+
+    void setString(int parameterIndex, String value) throws FedException;
+
+    void setBigDecimal(int parameterIndex, BigDecimal value) throws FedException;
+
+    void setObject(int parameterIndex, Object value) throws FedException;
+
+    void setNull(int parameterIndex, int sqlType) throws FedException;
+
+    void clearParameters() throws FedException;
+
+    int executeUpdate() throws FedException;
+
+    FedResultSet executeQuery() throws FedException;
+
+    void close() throws FedException;
+
+}
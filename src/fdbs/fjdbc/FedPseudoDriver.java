@@ -1,40 +1,151 @@
 package fdbs.fjdbc;
 
-import fdbs.ConnectionConstants;
+import fdbs.Topology;
 import fdbs.logging.CustomLogger;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.logging.Level;
 
 public class FedPseudoDriver implements FedPseudoDriverInterface {
 
-    // Gets FedConnection. FedConnection has 3 Database Connections in a Map
+    /*
+     * Pooled mode is the default if the system property fdbs.pooled is true
+     */
+    public static final String POOLED_PROPERTY = "fdbs.pooled";
+
+    // Pools by URL and user, shared by all drivers in pooled mode
+    private static final HashMap<String, ConnectionPool> pools = new HashMap<String, ConnectionPool>();
+
+    private final boolean pooled;
+
+    public FedPseudoDriver() {
+        this(Boolean.getBoolean(POOLED_PROPERTY));
+    }
+
+    /*
+     * In pooled mode the JDBC connections are borrowed from a ConnectionPool
+     * per database and returned to it when the FedConnection is closed.
+     */
+    public FedPseudoDriver(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    // Gets FedConnection. FedConnection has a Database Connection per member of the Topology in a Map
     public FedConnection getConnection(String userName, String password)
             throws FedException {
         CustomLogger.log(Level.INFO, "Start FDBS");
-        FedConnection connection = null;
+        if (pooled) {
+            return getPooledConnection(userName, password);
+        }
+
+        HashMap<Integer, Connection> connectionsMap = new HashMap<Integer, Connection>();
+        try {
+            for (Topology.Member member : Topology.getMembers()) {
+                connectionsMap.put(member.getNumber(), openConnection(member.getUrl(), userName, password));
+            }
+        } catch (SQLException e) {
+            // Connections opened before are not used
+            for (Connection connection : connectionsMap.values()) {
+                try {
+                    connection.close();
+                } catch (SQLException closeException) {
+                    CustomLogger.log(Level.WARNING, "Can not close connection: " + closeException.getMessage());
+                }
+            }
+            throw new FedException(new Throwable(e.getMessage()));
+        }
+        return new FedConnection(connectionsMap, userName, password);
+    }
+
+    private FedConnection getPooledConnection(String userName, String password) throws FedException {
+        HashMap<Integer, Connection> connectionsMap = new HashMap<Integer, Connection>();
+        HashMap<Integer, ConnectionPool> connectionPools = new HashMap<Integer, ConnectionPool>();
+        ConnectionPool pool = null;
         try {
-            HashMap<Integer, Connection> connectionsMap = new HashMap<Integer, Connection>();
-
-            connectionsMap.put(1, DriverManager.getConnection(
-                    ConnectionConstants.CONNECTION_1_URL, userName, password));
-            //String info = "FDBS; opened connection to ";
-            //CustomLogger.log(Level.INFO, info + ConnectionConstants.CONNECTION_1_SID);
-            connectionsMap.put(2, DriverManager.getConnection(
-                    ConnectionConstants.CONNECTION_2_URL, userName, password));
-            //CustomLogger.log(Level.INFO, info + ConnectionConstants.CONNECTION_2_SID);
-            connectionsMap.put(3, DriverManager.getConnection(
-                    ConnectionConstants.CONNECTION_3_URL, userName, password));
-            //CustomLogger.log(Level.INFO, info + ConnectionConstants.CONNECTION_3_SID);
-
-            connection = new FedConnection(connectionsMap, userName, password);
+            for (Topology.Member member : Topology.getMembers()) {
+                pool = getPool(member.getUrl(), userName, password);
+                connectionsMap.put(member.getNumber(), pool.borrow());
+                connectionPools.put(member.getNumber(), pool);
+            }
         } catch (SQLException e) {
+            // Connections borrowed before are not used
+            for (Integer dbNumber : connectionsMap.keySet()) {
+                connectionPools.get(dbNumber).release(connectionsMap.get(dbNumber));
+            }
+            if (pool != null && ConnectionPool.isAuthenticationFailure(e)) {
+                // A wrong or changed password, the pool would never be used again
+                dropPool(pool, userName, password);
+            }
             throw new FedException(new Throwable(e.getMessage()));
         }
+        return new FedConnection(connectionsMap, connectionPools, userName, password);
+    }
+
+    /*
+     * Opens a connection to a database of the federation. OrderBy merges
+     * sorted rows comparing strings in binary order, so Oracle sessions have
+     * to sort that way too instead of by the NLS_SORT of the client locale.
+     */
+    static Connection openConnection(String url, String userName, String password) throws SQLException {
+        Connection connection = DriverManager.getConnection(url, userName, password);
+        if (url.startsWith("jdbc:oracle:")) {
+            try {
+                Statement statement = connection.createStatement();
+                try {
+                    statement.execute("ALTER SESSION SET NLS_SORT = BINARY");
+                } finally {
+                    statement.close();
+                }
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        }
         return connection;
     }
 
+    /*
+     * The password is part of the key, so a wrong password never gets a
+     * connection opened with the right one.
+     */
+    private static synchronized ConnectionPool getPool(String url, String userName, String password) {
+        String key = url + "\n" + userName + "\n" + password;
+        ConnectionPool pool = pools.get(key);
+        if (pool == null) {
+            pool = new ConnectionPool(url, userName, password);
+            pools.put(key, pool);
+        }
+        return pool;
+    }
+
+    private static synchronized void dropPool(ConnectionPool pool, String userName, String password) {
+        if (pools.remove(pool.getUrl() + "\n" + userName + "\n" + password, pool)) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Closes the pools of pooled mode, e.g. when the application stops.
+     * Connections borrowed from them are closed when their FedConnection is.
+     */
+    public static synchronized void closePools() {
+        for (ConnectionPool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+
+    /**
+     * Returns the pools of pooled mode, e.g. to read their metrics.
+     */
+    public static synchronized List<ConnectionPool> getPools() {
+        return new ArrayList<ConnectionPool>(pools.values());
+    }
+
 }
@@ -1,11 +1,18 @@
 package fdbs.fjdbc;
 
+import fdbs.OrderBy;
 import fdbs.logging.CustomLogger;
+import fdbs.metrics.MetricsRegistry;
 
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.logging.Level;
 
 /*
@@ -17,40 +24,230 @@ public class FedResultSet implements FedResultSetInterface {
     private boolean isClose = true;
     private String fcrClosed = "FedConnection resource is closed. ";
 
+    /*
+     * Ordered merge mode: every database returns its rows sorted by the ORDER
+     * BY of the query. The merge keeps the current row of every database in a
+     * heap and returns the smallest one, so only one row per database is held
+     * and the result is never materialized.
+     */
+    private OrderBy orderBy;
+    private PriorityQueue<MergeCursor> mergeHeap;
+    private MergeCursor currentCursor;
+    private List<ResultSet> allResultSets;
+
+    // Rows returned so far, recorded under rowsMetric when the rows are read or closed
+    private long rowCount;
+    private String rowsMetric;
+
+    // FedStatement the result set belongs to and the JDBC Statements it reads from
+    private FedStatement statement;
+    private HashMap<Integer, Statement> statements;
+
+    // Columns of the result, the ones after them are only selected to merge; -1 for all
+    private int visibleColumnCount = -1;
+
+    // Rows fetched from a database per round trip, 0 for the driver default
+    private int fetchSize;
+
     public FedResultSet(List<ResultSet> resultSets) {
         this.resultSets = resultSets;
+        allResultSets = new ArrayList<ResultSet>(resultSets);
         currentResultSet = resultSets.remove(0);
         isClose = false;
     }
 
+    /*
+     * Merges the result sets, each sorted by orderBy, into one sorted result.
+     */
+    public FedResultSet(List<ResultSet> resultSets, OrderBy orderBy) {
+        this(resultSets);
+        this.resultSets.add(0, currentResultSet);
+        this.orderBy = orderBy;
+    }
+
+    /*
+     * The current row of one database and the values it is sorted by.
+     */
+    private static class MergeCursor {
+        private final ResultSet resultSet;
+        private final int position;
+        private Object[] keys;
+
+        MergeCursor(ResultSet resultSet, int position) {
+            this.resultSet = resultSet;
+            this.position = position;
+        }
+    }
+
+    private boolean nextMerged() throws FedException {
+        try {
+            if (mergeHeap == null) {
+                mergeHeap = new PriorityQueue<MergeCursor>(Math.max(resultSets.size(), 1),
+                        new Comparator<MergeCursor>() {
+                            @Override
+                            public int compare(MergeCursor cursor, MergeCursor other) {
+                                int c = orderBy.compare(cursor.keys, other.keys);
+                                // Rows with equal values come in database order
+                                return c != 0 ? c : Integer.compare(cursor.position, other.position);
+                            }
+                        });
+                for (int i = 0; i < resultSets.size(); i++) {
+                    advance(new MergeCursor(resultSets.get(i), i));
+                }
+            } else if (currentCursor != null) {
+                advance(currentCursor);
+            }
+        } catch (SQLException e) {
+            CustomLogger.log(Level.WARNING, e.getLocalizedMessage());
+            throw new FedException(new Throwable(e.getMessage()));
+        }
+
+        currentCursor = mergeHeap.poll();
+        if (currentCursor == null) {
+            return false;
+        }
+        currentResultSet = currentCursor.resultSet;
+        return true;
+    }
+
+    // Moves the cursor to the next row of its database and back into the heap
+    private void advance(MergeCursor cursor) throws SQLException {
+        if (cursor.resultSet.next()) {
+            cursor.keys = orderBy.getKeys(cursor.resultSet);
+            mergeHeap.add(cursor);
+        }
+    }
+
     public boolean next() throws FedException {
         if (isClose) {
             CustomLogger.log(Level.WARNING, fcrClosed);
             throw new FedException(new Throwable(fcrClosed));
         }
+        boolean hasNext = orderBy != null ? nextMerged() : nextInOrder();
+        if (hasNext) {
+            rowCount++;
+        } else {
+            recordRows();
+        }
+        return hasNext;
+    }
+
+    /*
+     * Sets the histogram of MetricsRegistry the number of rows of the result
+     * is recorded in.
+     */
+    public void setRowsMetric(String rowsMetric) {
+        this.rowsMetric = rowsMetric;
+    }
 
-        boolean hasNext = false;
+    /*
+     * The JDBC Statements are given back to the statement when the result set
+     * is closed.
+     */
+    void setStatement(FedStatement statement, HashMap<Integer, Statement> statements) {
+        this.statement = statement;
+        this.statements = statements;
+        fetchSize = statement.getFetchSize();
+    }
+
+    /*
+     * Hides the columns after the count, e.g. ORDER BY columns that are only
+     * selected to merge the rows of the databases.
+     */
+    public void setVisibleColumnCount(int visibleColumnCount) {
+        this.visibleColumnCount = visibleColumnCount;
+    }
+
+    /*
+     * Sets the rows fetched per round trip on the result sets of all
+     * databases, 0 for the default of the driver.
+     */
+    public void setFetchSize(int rows) throws FedException {
+        if (rows < 0) {
+            throw new FedException(new Throwable("Fetch size must not be negative: " + rows));
+        }
         try {
-            hasNext = currentResultSet.next();
+            for (ResultSet resultSet : allResultSets) {
+                resultSet.setFetchSize(rows);
+            }
         } catch (SQLException e) {
-            CustomLogger.log(Level.WARNING, fcrClosed + e.getLocalizedMessage());
+            CustomLogger.log(Level.WARNING, "SQLException; " + e.getLocalizedMessage());
             throw new FedException(new Throwable(e.getMessage()));
         }
-        if (hasNext) {
-            return true;
+        fetchSize = rows;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /*
+     * Reads up to rows rows of every database after the current one ahead in
+     * the background, so their first round trips overlap with reading the
+     * current one. Merged results read all databases at once already.
+     */
+    void startPrefetch(int rows) {
+        if (currentResultSet instanceof UnionResultSet) {
+            return;
         }
-        if (resultSets.isEmpty()) {
-            return false;
+        if (orderBy != null || rows <= 0) {
+            return;
         }
+        for (int i = 0; i < resultSets.size(); i++) {
+            ResultSet resultSet = resultSets.get(i);
+            if (resultSet instanceof PrefetchedResultSet) {
+                continue;
+            }
+            PrefetchedResultSet prefetched = new PrefetchedResultSet(resultSet, rows);
+            resultSets.set(i, prefetched);
+            allResultSets.set(allResultSets.indexOf(resultSet), prefetched);
+        }
+    }
 
-        currentResultSet = resultSets.remove(0);
+    /*
+     * Reads the result sets of all databases at once and returns the rows in
+     * the order they arrive, holding at most about queueRows rows that are
+     * not read yet. If the rows can not be read like this they are read one
+     * database after the other.
+     */
+    void startUnion(int queueRows) {
+        if (orderBy != null || queueRows <= 0 || resultSets.isEmpty()) {
+            return;
+        }
+        UnionResultSet union;
         try {
-            hasNext = currentResultSet.next();
+            union = new UnionResultSet(new ArrayList<ResultSet>(allResultSets), queueRows);
         } catch (SQLException e) {
-            CustomLogger.log(Level.WARNING, e.getLocalizedMessage());
-            return false;
+            CustomLogger.log(Level.WARNING, "Reading the databases one after the other; " + e.getLocalizedMessage());
+            return;
         }
-        return hasNext;
+        currentResultSet = union;
+        resultSets.clear();
+        allResultSets = new ArrayList<ResultSet>();
+        allResultSets.add(union);
+    }
+
+    private void recordRows() {
+        if (rowsMetric != null) {
+            MetricsRegistry.record(rowsMetric, "rows", rowCount);
+            rowsMetric = null;
+        }
+    }
+
+    // Databases without rows are skipped, the result ends after the last one
+    private boolean nextInOrder() throws FedException {
+        try {
+            while (!currentResultSet.next()) {
+                if (resultSets.isEmpty()) {
+                    return false;
+                }
+                currentResultSet = resultSets.remove(0);
+            }
+        } catch (SQLException e) {
+            CustomLogger.log(Level.WARNING, fcrClosed + e.getLocalizedMessage());
+            throw new FedException(new Throwable(e.getMessage()));
+        }
+        return true;
     }
 
     public String getString(int columnIndex) throws FedException {
@@ -93,6 +290,9 @@ public class FedResultSet implements FedResultSetInterface {
         int value = 0;
         try {
             value = currentResultSet.getMetaData().getColumnCount();
+            if (visibleColumnCount >= 0 && visibleColumnCount < value) {
+                value = visibleColumnCount;
+            }
         } catch (SQLException e) {
             CustomLogger.log(Level.WARNING,
                     "SQLException; " + e.getLocalizedMessage());
@@ -137,11 +337,19 @@ public class FedResultSet implements FedResultSetInterface {
     }
 
     public void close() throws FedException {
+        recordRows();
         try {
-            currentResultSet.close();
+            for (ResultSet resultSet : allResultSets) {
+                resultSet.close();
+            }
             isClose = true;
         } catch (SQLException e) {
             throw new FedException(new Throwable(e.getMessage()));
+        } finally {
+            if (statement != null) {
+                statement.resultSetClosed(this, statements);
+                statement = null;
+            }
         }
     }
 
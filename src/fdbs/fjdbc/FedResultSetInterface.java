@@ -14,6 +14,10 @@ public interface FedResultSetInterface {
 
     String getColumnType(int index) throws FedException;
 
+    void setFetchSize(int rows) throws FedException;
+
+    int getFetchSize() throws FedException;
+
     void close() throws FedException;
 
 }
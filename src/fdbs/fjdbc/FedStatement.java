@@ -1,33 +1,53 @@
 package fdbs.fjdbc;
 
-import fdbs.DatabaseCatalog;
 import fdbs.FederalController;
+import fdbs.PreparedUpdate;
 import fdbs.logging.CustomLogger;
+import fdbs.metrics.MetricsRegistry;
 import fdbs.parser.ParseException;
 
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 
+/*
+ * Every call takes JDBC Statements from the StatementCache of the connection
+ * and executes on them with a FederalController of its own. An update gives
+ * them back when it is done, a query when its FedResultSet is closed, so the
+ * result sets of several queries can be read at the same time.
+ */
 public class FedStatement implements FedStatementInterface {
+    public static final String FETCH_SIZE_PROPERTY = "fdbs.fetchSize";
+    public static final String PREFETCH_ROWS_PROPERTY = "fdbs.prefetchRows";
+    public static final String UNION_QUEUE_ROWS_PROPERTY = "fdbs.unionQueueRows";
+
     String fsrClosed = "FedStatement resource is closed.";
-    // Map of JDBC Statements
-    private HashMap<Integer, Statement> statementsMap;
 
     private FedConnection connection;
 
     private boolean isClose = true;
 
-    public FedStatement(FedConnection connection,
-                        HashMap<Integer, Statement> statementsMap) {
+    // Statements added by addBatch, in order
+    private List<String> batch = new ArrayList<String>();
+
+    // Result sets of this statement that are not closed yet
+    private final Set<FedResultSet> openResultSets = new LinkedHashSet<FedResultSet>();
+
+    // Rows fetched per round trip by every database, 0 for the driver default
+    private int fetchSize = Integer.getInteger(FETCH_SIZE_PROPERTY, 0);
+    // Rows of the next databases read ahead by a query, 0 to read them in turn only
+    private int prefetchRows = Integer.getInteger(PREFETCH_ROWS_PROPERTY, 0);
+    // Rows queued by a query reading all databases at once, 0 to read them in turn
+    private int unionQueueRows = Integer.getInteger(UNION_QUEUE_ROWS_PROPERTY, 0);
+
+    public FedStatement(FedConnection connection) {
         this.connection = connection;
-        this.statementsMap = statementsMap;
-        DatabaseCatalog.setStatementsMap(statementsMap);
         isClose = false;
-
-        // Initialize query executor to use JDBC statements
-        FederalController.setFedStatement(this);
-        FederalController.setStatementsMap(statementsMap);
     }
 
     public int executeUpdate(String query) throws FedException {
@@ -41,16 +61,138 @@ public class FedStatement implements FedStatementInterface {
             throw new FedException(new Throwable(fsrClosed));
         }
 
-        CustomLogger.log(Level.INFO, "Received FJDBC: " + query);
+        CustomLogger.log(Level.INFO, "Received FJDBC: {0}", query);
+        long start = System.nanoTime();
+        HashMap<Integer, Statement> statements = takeStatements();
         try {
-            result = FederalController.executeUpdate(query);
+            result = new FederalController(this, statements).executeUpdate(query);
         } catch (ParseException e) {
             CustomLogger.log(Level.WARNING, "ParseException; " + e);
             throw new FedException(new Throwable(e.getMessage()));
+        } finally {
+            connection.getStatementCache().release(statements);
+            MetricsRegistry.recordNanos("fjdbc.executeUpdate", System.nanoTime() - start);
         }
         return result;
     }
 
+    private HashMap<Integer, Statement> takeStatements() throws FedException {
+        HashMap<Integer, Statement> statements = null;
+        try {
+            statements = connection.getStatementCache().take();
+            for (Statement statement : statements.values()) {
+                statement.setFetchSize(fetchSize);
+            }
+            return statements;
+        } catch (SQLException e) {
+            if (statements != null) {
+                connection.getStatementCache().release(statements);
+            }
+            CustomLogger.log(Level.WARNING, "SQLException; " + e.getMessage());
+            throw new FedException(new Throwable(e.getMessage()));
+        }
+    }
+
+    /*
+     * Adds the statement to the batch, comments are skipped like in
+     * executeUpdate.
+     */
+    public void addBatch(String query) throws FedException {
+        if (query.trim().startsWith("-") || query.trim().startsWith("//") || query.trim().toLowerCase().startsWith("applies ") || query.trim().startsWith("\\") || query.trim().startsWith("#"))
+            return;
+
+        if (isClose) {
+            CustomLogger.log(Level.WARNING, fsrClosed);
+            throw new FedException(new Throwable(fsrClosed));
+        }
+        CustomLogger.log(Level.INFO, "Received FJDBC: {0}", query);
+        batch.add(query);
+    }
+
+    public void clearBatch() throws FedException {
+        if (isClose) {
+            throw new FedException(new Throwable(fsrClosed));
+        }
+        batch.clear();
+    }
+
+    /*
+     * Executes the statements of the batch in order and returns their update
+     * counts in the same order. INSERTs are sent as one JDBC batch per
+     * database, see FederalController.executeBatch. The batch is empty
+     * afterwards, also if it failed.
+     */
+    public int[] executeBatch() throws FedException {
+        if (isClose) {
+            CustomLogger.log(Level.WARNING, fsrClosed);
+            throw new FedException(new Throwable(fsrClosed));
+        }
+
+        List<String> queries = batch;
+        batch = new ArrayList<String>();
+        CustomLogger.log(Level.INFO, "Executing FJDBC batch of " + queries.size() + " statements");
+        long start = System.nanoTime();
+        HashMap<Integer, Statement> statements = takeStatements();
+        try {
+            return new FederalController(this, statements).executeBatch(queries);
+        } catch (ParseException e) {
+            CustomLogger.log(Level.WARNING, "ParseException; " + e);
+            throw new FedException(new Throwable(e.getMessage()));
+        } finally {
+            connection.getStatementCache().release(statements);
+            MetricsRegistry.recordNanos("fjdbc.executeBatch", System.nanoTime() - start);
+            MetricsRegistry.record("fjdbc.batchSize", "statements", queries.size());
+        }
+    }
+
+    /*
+     * Sets the rows fetched per round trip by the databases for the next
+     * calls, 0 for the default of the driver. A FedResultSet can change it
+     * while it is read.
+     */
+    public void setFetchSize(int rows) throws FedException {
+        if (rows < 0) {
+            throw new FedException(new Throwable("Fetch size must not be negative: " + rows));
+        }
+        fetchSize = rows;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /*
+     * Sets the rows the result sets of the next queries read ahead from every
+     * database after the current one, 0 to switch it off.
+     */
+    public void setPrefetchRows(int rows) throws FedException {
+        if (rows < 0) {
+            throw new FedException(new Throwable("Prefetch rows must not be negative: " + rows));
+        }
+        prefetchRows = rows;
+    }
+
+    public int getPrefetchRows() {
+        return prefetchRows;
+    }
+
+    /*
+     * With rows > 0 the result sets of the next queries without ORDER BY read
+     * all databases at once and return the rows in the order they arrive,
+     * with at most about rows rows waiting to be read. 0 reads the databases
+     * one after the other, in the order of their numbers.
+     */
+    public void setUnionQueueRows(int rows) throws FedException {
+        if (rows < 0) {
+            throw new FedException(new Throwable("Union queue rows must not be negative: " + rows));
+        }
+        unionQueueRows = rows;
+    }
+
+    public int getUnionQueueRows() {
+        return unionQueueRows;
+    }
+
     public FedConnection getConnection() throws FedException {
         if (isClose) {
             throw new FedException(new Throwable(fsrClosed));
@@ -58,30 +200,85 @@ public class FedStatement implements FedStatementInterface {
         return connection;
     }
 
+    /*
+     * Executes a prepared INSERT with the JDBC PreparedStatements of the
+     * cache, see FederalController.executePreparedInsert.
+     */
+    int executePreparedInsert(PreparedUpdate update, Object[] values, int[] nullTypes,
+                              PreparedStatementCache cache) throws FedException {
+        if (isClose) {
+            throw new FedException(new Throwable(fsrClosed));
+        }
+        HashMap<Integer, Statement> statements = takeStatements();
+        try {
+            return new FederalController(this, statements).executePreparedInsert(update, values, nullTypes,
+                    cache);
+        } finally {
+            connection.getStatementCache().release(statements);
+        }
+    }
+
+    /*
+     * Closes the result sets that are still open, which gives their JDBC
+     * Statements back to the connection.
+     */
     public void close() throws FedException {
-//        try {
-//            // Closes all JDBC Statements
-//            for (Statement statement : statementsMap.values()) {
-//                statement.close();
-//            }
-//            isClose = true;
-//        } catch (SQLException e) {
-//            CustomLogger.log(Level.WARNING, "FedException; " + e.getMessage());
-//            throw new FedException(new Throwable(e.getMessage()));
-//        }
+        if (isClose) {
+            return;
+        }
+        isClose = true;
+        batch.clear();
+        FedException exception = null;
+        for (FedResultSet resultSet : new ArrayList<FedResultSet>(openResultSets)) {
+            try {
+                resultSet.close();
+            } catch (FedException e) {
+                CustomLogger.log(Level.WARNING, "FedException; " + e.getMessage());
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /*
+     * Called by a FedResultSet of this statement when it is closed.
+     */
+    void resultSetClosed(FedResultSet resultSet, HashMap<Integer, Statement> statements) {
+        openResultSets.remove(resultSet);
+        connection.getStatementCache().release(statements);
     }
 
     public FedResultSet executeQuery(String sql) throws FedException {
         if (sql.trim().startsWith("-") || sql.trim().startsWith("//") || sql.trim().toLowerCase().startsWith("applies ") || sql.trim().startsWith("\\") || sql.trim().startsWith("#"))
             return null;
 
-        CustomLogger.log(Level.INFO, "Received FJDBC: " + sql);
+        CustomLogger.log(Level.INFO, "Received FJDBC: {0}", sql);
         if (isClose) {
             throw new FedException(new Throwable(fsrClosed));
         }
 
-        FedResultSet instance = FederalController.executeSelectQuery(sql);
-
-        return instance;
+        long start = System.nanoTime();
+        HashMap<Integer, Statement> statements = takeStatements();
+        FedResultSet resultSet = null;
+        try {
+            resultSet = new FederalController(this, statements).executeSelectQuery(sql);
+        } finally {
+            // The result set gives the statements back when it is closed
+            if (resultSet == null) {
+                connection.getStatementCache().release(statements);
+            } else {
+                resultSet.setStatement(this, statements);
+                if (unionQueueRows > 0) {
+                    resultSet.startUnion(unionQueueRows);
+                } else {
+                    resultSet.startPrefetch(prefetchRows);
+                }
+                openResultSets.add(resultSet);
+            }
+            MetricsRegistry.recordNanos("fjdbc.executeQuery", System.nanoTime() - start);
+        }
+        return resultSet;
     }
 }
\ No newline at end of file
@@ -6,6 +6,16 @@ public interface FedStatementInterface {
 
     FedResultSet executeQuery(String sql) throws FedException;
 
+    void addBatch(String sql) throws FedException;
+
+    void clearBatch() throws FedException;
+
+    int[] executeBatch() throws FedException;
+
+    void setFetchSize(int rows) throws FedException;
+
+    int getFetchSize() throws FedException;
+
     FedConnection getConnection() throws FedException;
 
     void close() throws FedException;
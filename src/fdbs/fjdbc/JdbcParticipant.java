@@ -0,0 +1,57 @@
+package fdbs.fjdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A database of a FedConnection taking part in a TwoPhaseCommit through its
+ * JDBC connection.
+ * <p>
+ * Preparing checks the deferred constraints of the transaction (SET
+ * CONSTRAINTS ALL IMMEDIATE), the usual reason for a commit to fail; on a
+ * broken connection the statement fails too. The connections come from
+ * DriverManager and are no XA connections, so a database that fails between
+ * prepare and commit rolls back, and work not committed before a crash is
+ * rolled back by the database. Whether a commit lost after the decision
+ * reached the database can not be told, recover leaves such a transaction
+ * UNRESOLVED for a manual check.
+ */
+public class JdbcParticipant implements TwoPhaseCommit.Participant {
+
+    private final Connection connection;
+
+    public JdbcParticipant(Connection connection) {
+        this.connection = connection;
+    }
+
+    @Override
+    public void prepare(String transactionId) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("SET CONSTRAINTS ALL IMMEDIATE");
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Override
+    public void commit(String transactionId) throws SQLException {
+        connection.commit();
+    }
+
+    @Override
+    public void rollback(String transactionId) throws SQLException {
+        connection.rollback();
+    }
+
+    /*
+     * The database rolled back what was not committed when the connection of
+     * the earlier run was closed. Whether a decided commit reached it can not
+     * be told, so it is reported as not recovered.
+     */
+    @Override
+    public boolean recover(String transactionId, boolean commit) throws SQLException {
+        return !commit;
+    }
+}
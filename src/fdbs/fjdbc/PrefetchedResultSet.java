@@ -0,0 +1,190 @@
+package fdbs.fjdbc;
+
+import fdbs.DaemonThreadPool;
+import fdbs.FanOut;
+import fdbs.RowResultSet;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * The result set of a database that is read ahead in the background while a
+ * FedResultSet still reads the databases before it. Up to a limit of rows
+ * are copied by a thread of a bounded daemon pool of its own, so a slow
+ * database does not hold up the FanOut pool. Its size is fdbs.fanOutThreads
+ * too. The copied rows are returned first, the rest is read from the result
+ * set itself.
+ * <p>
+ * The result set is only used by the reading thread once the copy is done,
+ * every method waits for it.
+ */
+class PrefetchedResultSet extends RowResultSet {
+
+    private static ThreadPoolExecutor executor;
+
+    private final ResultSet resultSet;
+    private final int limit;
+    private final Future<List<Object[]>> prefetch;
+
+    // Rows read ahead, null until the copy is done
+    private List<Object[]> rows;
+    // Failure of the copy, thrown by every later call
+    private SQLException failure;
+    private int position = -1;
+    // After the rows read ahead, the values come from the result set
+    private boolean isLive;
+
+    PrefetchedResultSet(final ResultSet resultSet, final int limit) {
+        super(Collections.singletonList(resultSet));
+        this.resultSet = resultSet;
+        this.limit = limit;
+        prefetch = getExecutor().submit(new Callable<List<Object[]>>() {
+            @Override
+            public List<Object[]> call() throws SQLException {
+                int columnCount = resultSet.getMetaData().getColumnCount();
+                List<Object[]> prefetched = new ArrayList<Object[]>();
+                while (prefetched.size() < limit && resultSet.next()) {
+                    Object[] row = new Object[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        row[i] = resultSet.getObject(i + 1);
+                    }
+                    prefetched.add(row);
+                }
+                return prefetched;
+            }
+        });
+    }
+
+    /*
+     * The copies do not wait for the reader, so a bounded pool is enough,
+     * sized like the FanOut pool.
+     */
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = DaemonThreadPool.newBoundedPool("fdbs-prefetch",
+                    Integer.getInteger(FanOut.THREADS_PROPERTY, FanOut.DEFAULT_THREADS));
+        }
+        return executor;
+    }
+
+    private void awaitPrefetch() throws SQLException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (rows != null) {
+            return;
+        }
+        boolean isInterrupted = false;
+        try {
+            while (rows == null) {
+                try {
+                    rows = prefetch.get();
+                } catch (InterruptedException e) {
+                    // The result set must not be used while the copy runs
+                    isInterrupted = true;
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof SQLException ? (SQLException) e.getCause()
+                            : new SQLException(e.getCause());
+                    throw failure;
+                }
+            }
+        } finally {
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+        awaitPrefetch();
+        if (position + 1 < rows.size()) {
+            position++;
+            return true;
+        }
+        position = rows.size();
+        // Fewer rows than the limit, the copy reached the end
+        if (rows.size() < limit) {
+            return false;
+        }
+        isLive = true;
+        return resultSet.next();
+    }
+
+    @Override
+    protected Object[] getCurrentRow() {
+        return rows != null && position >= 0 && position < rows.size() ? rows.get(position) : null;
+    }
+
+    @Override
+    public Object getObject(int columnIndex) throws SQLException {
+        return isLive ? resultSet.getObject(columnIndex) : super.getObject(columnIndex);
+    }
+
+    @Override
+    public boolean wasNull() throws SQLException {
+        return isLive ? resultSet.wasNull() : super.wasNull();
+    }
+
+    @Override
+    public String getString(int columnIndex) throws SQLException {
+        return isLive ? resultSet.getString(columnIndex) : super.getString(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) throws SQLException {
+        return isLive ? resultSet.getInt(columnIndex) : super.getInt(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) throws SQLException {
+        return isLive ? resultSet.getLong(columnIndex) : super.getLong(columnIndex);
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+        return isLive ? resultSet.getBigDecimal(columnIndex) : super.getBigDecimal(columnIndex);
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        awaitPrefetch();
+        return resultSet.getMetaData();
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        awaitPrefetch();
+        resultSet.setFetchSize(rows);
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        awaitPrefetch();
+        return resultSet.getFetchSize();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            awaitPrefetch();
+        } catch (SQLException e) {
+            // The result set is closed anyway
+        }
+        resultSet.close();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return (rows != null || failure != null) && resultSet.isClosed();
+    }
+}
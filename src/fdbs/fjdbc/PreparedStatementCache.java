@@ -0,0 +1,114 @@
+package fdbs.fjdbc;
+
+import fdbs.logging.CustomLogger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * The JDBC PreparedStatements of one FedConnection, per database and SQL
+ * text. A statement is prepared once per database and shape, so the
+ * database parses it once and the following executions only bind values.
+ * <p>
+ * Each database keeps at most fdbs.preparedStatementCacheSize statements
+ * (default 64); the least recently used one is closed when another one is
+ * added.
+ */
+public class PreparedStatementCache {
+
+    public static final String SIZE_PROPERTY = "fdbs.preparedStatementCacheSize";
+    public static final int DEFAULT_SIZE = 64;
+
+    private final int maxSize = Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE);
+
+    private final HashMap<Integer, Connection> connectionsMap;
+    private final HashMap<Integer, LinkedHashMap<String, PreparedStatement>> statements =
+            new HashMap<Integer, LinkedHashMap<String, PreparedStatement>>();
+
+    private long hitCount;
+    private long missCount;
+
+    public PreparedStatementCache(HashMap<Integer, Connection> connectionsMap) {
+        this.connectionsMap = connectionsMap;
+    }
+
+    /**
+     * Returns the statement of the database for the SQL text, preparing it if
+     * it is not cached.
+     */
+    public synchronized PreparedStatement get(Integer dbNumber, String sql) throws SQLException {
+        LinkedHashMap<String, PreparedStatement> cache = statements.get(dbNumber);
+        if (cache == null) {
+            cache = createCache();
+            statements.put(dbNumber, cache);
+        }
+
+        PreparedStatement statement = cache.get(sql);
+        if (statement != null && !statement.isClosed()) {
+            hitCount++;
+            return statement;
+        }
+        missCount++;
+        Connection connection = connectionsMap.get(dbNumber);
+        if (connection == null) {
+            throw new SQLException("No connection to database " + dbNumber);
+        }
+        statement = connection.prepareStatement(sql);
+        cache.put(sql, statement);
+        return statement;
+    }
+
+    /**
+     * Closes all statements, e.g. before the connections are closed or
+     * returned to their pools.
+     */
+    public synchronized void close() {
+        for (LinkedHashMap<String, PreparedStatement> cache : statements.values()) {
+            for (PreparedStatement statement : cache.values()) {
+                close(statement);
+            }
+        }
+        statements.clear();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private LinkedHashMap<String, PreparedStatement> createCache() {
+        return new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= maxSize) {
+                    return false;
+                }
+                close(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    private static void close(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            CustomLogger.log(Level.WARNING, "Can not close prepared statement: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PreparedStatementCache[hits=" + hitCount + " misses=" + missCount + "]";
+    }
+}
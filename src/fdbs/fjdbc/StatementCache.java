@@ -0,0 +1,136 @@
+package fdbs.fjdbc;
+
+import fdbs.logging.CustomLogger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * The JDBC Statements of one FedConnection. Every call of a FedStatement
+ * takes a set of one Statement per database; a query keeps its set until
+ * its FedResultSet is closed, so several result sets of a connection can be
+ * read at the same time without closing each other.
+ * <p>
+ * Sets given back are kept for the next calls, up to
+ * fdbs.statementCacheSize sets (default 4); further ones are closed.
+ */
+public class StatementCache {
+
+    public static final String SIZE_PROPERTY = "fdbs.statementCacheSize";
+    public static final int DEFAULT_SIZE = 4;
+
+    private final int maxSize = Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE);
+
+    private final HashMap<Integer, Connection> connectionsMap;
+    private final ArrayDeque<HashMap<Integer, Statement>> idle = new ArrayDeque<HashMap<Integer, Statement>>();
+    // Sets taken and not given back yet, they are closed with the cache
+    private final Set<HashMap<Integer, Statement>> inUse =
+            Collections.newSetFromMap(new IdentityHashMap<HashMap<Integer, Statement>, Boolean>());
+    private boolean isClosed;
+
+    private long hitCount;
+    private long missCount;
+
+    public StatementCache(HashMap<Integer, Connection> connectionsMap) {
+        this.connectionsMap = connectionsMap;
+    }
+
+    /**
+     * Returns a set of Statements by database number, which must be given
+     * back with release.
+     */
+    public synchronized HashMap<Integer, Statement> take() throws SQLException {
+        if (isClosed) {
+            throw new SQLException("FedConnection resource is closed.");
+        }
+        HashMap<Integer, Statement> statements = idle.pollFirst();
+        if (statements != null) {
+            hitCount++;
+        } else {
+            missCount++;
+            statements = create();
+        }
+        inUse.add(statements);
+        return statements;
+    }
+
+    private HashMap<Integer, Statement> create() throws SQLException {
+        HashMap<Integer, Statement> statements = new HashMap<Integer, Statement>();
+        try {
+            for (Integer dbNumber : connectionsMap.keySet()) {
+                statements.put(dbNumber, connectionsMap.get(dbNumber).createStatement());
+            }
+        } catch (SQLException e) {
+            close(statements);
+            throw e;
+        }
+        return statements;
+    }
+
+    /**
+     * Gives the set back after the call, or after the result set of a query
+     * was closed. A set given back twice is ignored.
+     */
+    public synchronized void release(HashMap<Integer, Statement> statements) {
+        if (!inUse.remove(statements)) {
+            return;
+        }
+        if (isClosed || idle.size() >= maxSize) {
+            close(statements);
+        } else {
+            idle.addFirst(statements);
+        }
+    }
+
+    /**
+     * Closes all Statements, also the ones in use, e.g. before the
+     * connections are closed or returned to their pools.
+     */
+    public synchronized void close() {
+        isClosed = true;
+        List<HashMap<Integer, Statement>> all = new ArrayList<HashMap<Integer, Statement>>(idle);
+        all.addAll(inUse);
+        for (HashMap<Integer, Statement> statements : all) {
+            close(statements);
+        }
+        idle.clear();
+        inUse.clear();
+    }
+
+    public synchronized int getInUseCount() {
+        return inUse.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private static void close(HashMap<Integer, Statement> statements) {
+        for (Statement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                CustomLogger.log(Level.WARNING, "Can not close statement: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "StatementCache[idle=" + idle.size() + " inUse=" + inUse.size() + " hits=" + hitCount
+                + " misses=" + missCount + "]";
+    }
+}
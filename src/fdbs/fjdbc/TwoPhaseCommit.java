@@ -0,0 +1,417 @@
+package fdbs.fjdbc;
+
+import fdbs.FanOut;
+import fdbs.logging.CustomLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Commits the work of a FedConnection on all databases or on none of them.
+ * <p>
+ * First every participant is asked to prepare, at the same time. If all of
+ * them can commit, COMMIT is written to the DecisionLog and they commit,
+ * otherwise ROLLBACK is written and they roll back. The decision is on disk
+ * before any database commits, so after a crash recover finishes the
+ * transactions of the log the way they were decided. A transaction a
+ * participant can not tell the outcome of stays in the log as UNRESOLVED
+ * until it is acknowledged, see application.UnresolvedTransactions.
+ * <p>
+ * The log is the file named by the system property fdbs.transactionLog
+ * (default logs/fedtx.log). It is compacted every
+ * fdbs.transactionLogCompaction transactions (default 1000), the records of
+ * unfinished ones are kept. The time of both phases is measured and logged
+ * per transaction.
+ */
+public class TwoPhaseCommit {
+
+    public static final String LOG_PROPERTY = "fdbs.transactionLog";
+    public static final String DEFAULT_LOG = "logs/fedtx.log";
+    public static final String COMPACTION_PROPERTY = "fdbs.transactionLogCompaction";
+    public static final int DEFAULT_COMPACTION = 1000;
+
+    private static TwoPhaseCommit defaultCoordinator;
+
+    /**
+     * A database taking part in a transaction.
+     */
+    public interface Participant {
+        /**
+         * Returns if the database can commit the transaction, throws
+         * otherwise.
+         */
+        void prepare(String transactionId) throws SQLException;
+
+        void commit(String transactionId) throws SQLException;
+
+        void rollback(String transactionId) throws SQLException;
+
+        /**
+         * Finishes a transaction of an earlier run that was decided but maybe
+         * not finished on this database. Returns false if the database can
+         * not tell whether it did.
+         */
+        boolean recover(String transactionId, boolean commit) throws SQLException;
+    }
+
+    private final DecisionLog log;
+    // Transaction ids of this run start with the time the coordinator was created
+    private final String idPrefix = Long.toString(System.currentTimeMillis(), 36) + "-";
+    private final AtomicLong sequence = new AtomicLong();
+    // Transactions written to the log between two compactions
+    private final int compaction;
+    private final AtomicLong loggedCount = new AtomicLong();
+    private boolean isRecovered;
+
+    private long commitCount;
+    private long rollbackCount;
+    private long totalPrepareNanos;
+    private long maxPrepareNanos;
+    private long totalCommitNanos;
+    private long maxCommitNanos;
+
+    public TwoPhaseCommit(DecisionLog log) {
+        this(log, Integer.getInteger(COMPACTION_PROPERTY, DEFAULT_COMPACTION));
+    }
+
+    public TwoPhaseCommit(DecisionLog log, int compaction) {
+        this.log = log;
+        this.compaction = Math.max(1, compaction);
+    }
+
+    /**
+     * Returns the coordinator of all FedConnections, logging to the file of
+     * fdbs.transactionLog.
+     */
+    public static synchronized TwoPhaseCommit getDefault() {
+        if (defaultCoordinator == null) {
+            defaultCoordinator = new TwoPhaseCommit(new DecisionLog(
+                    new File(System.getProperty(LOG_PROPERTY, DEFAULT_LOG))));
+        }
+        return defaultCoordinator;
+    }
+
+    /**
+     * Commits the transaction on all participants, or rolls it back on all
+     * of them if one can not commit. A single participant is committed
+     * without the protocol.
+     */
+    public void commit(Map<Integer, ? extends Participant> participants) throws FedException {
+        final String transactionId = idPrefix + sequence.incrementAndGet();
+        if (participants.size() <= 1) {
+            long start = System.nanoTime();
+            for (Participant participant : participants.values()) {
+                try {
+                    participant.commit(transactionId);
+                } catch (SQLException e) {
+                    throw new FedException(new Throwable(e.getMessage()));
+                }
+            }
+            record(true, 0, System.nanoTime() - start);
+            return;
+        }
+
+        String members = DecisionLog.formatMembers(new TreeMap<Integer, Participant>(participants).keySet());
+        List<String> prepareFailures = new ArrayList<String>();
+        try {
+            log.write(transactionId, DecisionLog.BEGIN, members, false);
+        } catch (IOException e) {
+            prepareFailures.add("Can not write transaction log " + log.getFile() + ": " + e.getMessage());
+        }
+
+        // Phase 1
+        long prepareStart = System.nanoTime();
+        if (prepareFailures.isEmpty()) {
+            for (FanOut.Result<Void> result : FanOut.execute(participants, new FanOut.Work<Participant, Void>() {
+                @Override
+                public Void execute(Integer dbNumber, Participant participant) throws SQLException {
+                    participant.prepare(transactionId);
+                    return null;
+                }
+            })) {
+                if (result.getException() != null) {
+                    prepareFailures.add("Database " + result.getDBNumber() + " can not commit: "
+                            + result.getException().getMessage());
+                }
+            }
+        }
+        boolean commit = prepareFailures.isEmpty();
+        if (commit) {
+            try {
+                log.write(transactionId, DecisionLog.COMMIT, null, true);
+            } catch (IOException e) {
+                // Without the decision on disk no database may commit
+                prepareFailures.add("Can not write transaction log " + log.getFile() + ": " + e.getMessage());
+                commit = false;
+            }
+        }
+        if (!commit) {
+            try {
+                log.write(transactionId, DecisionLog.ROLLBACK, null, true);
+            } catch (IOException e) {
+                // Presumed abort, a transaction without decision is rolled back
+                CustomLogger.log(Level.WARNING, "Can not write transaction log " + log.getFile() + ": "
+                        + e.getMessage());
+            }
+        }
+        long prepareNanos = System.nanoTime() - prepareStart;
+
+        // Phase 2
+        long commitStart = System.nanoTime();
+        final boolean isCommit = commit;
+        List<Integer> failedMembers = new ArrayList<Integer>();
+        List<String> commitFailures = new ArrayList<String>();
+        for (FanOut.Result<Void> result : FanOut.execute(participants, new FanOut.Work<Participant, Void>() {
+            @Override
+            public Void execute(Integer dbNumber, Participant participant) throws SQLException {
+                if (isCommit) {
+                    participant.commit(transactionId);
+                } else {
+                    participant.rollback(transactionId);
+                }
+                return null;
+            }
+        })) {
+            if (result.getException() != null) {
+                failedMembers.add(result.getDBNumber());
+                commitFailures.add("Database " + result.getDBNumber() + ": " + result.getException().getMessage());
+            }
+        }
+        try {
+            if (!failedMembers.isEmpty()) {
+                log.write(transactionId, DecisionLog.FAILED, DecisionLog.formatMembers(failedMembers), true);
+            } else {
+                log.write(transactionId, DecisionLog.DONE, null, false);
+            }
+        } catch (IOException e) {
+            CustomLogger.log(Level.WARNING, "Can not write transaction log " + log.getFile() + ": " + e.getMessage());
+        }
+        long commitNanos = System.nanoTime() - commitStart;
+        if (loggedCount.incrementAndGet() % compaction == 0) {
+            compactLog();
+        }
+
+        record(commit, prepareNanos, commitNanos);
+        CustomLogger.log(Level.INFO, String.format("Transaction %s on %s: %s, prepare %.1f ms, %s %.1f ms",
+                transactionId, members, commit ? "COMMIT" : "ROLLBACK", toMillis(prepareNanos),
+                commit ? "commit" : "rollback", toMillis(commitNanos)));
+
+        if (!commit) {
+            CustomLogger.log(Level.SEVERE, "Transaction " + transactionId + " rolled back: " + prepareFailures);
+            throw new FedException(new Throwable("Transaction rolled back. " + String.join("; ", prepareFailures)));
+        }
+        if (!commitFailures.isEmpty()) {
+            CustomLogger.log(Level.SEVERE, "Transaction " + transactionId + " is committed, but not on "
+                    + failedMembers + ": " + commitFailures);
+            throw new FedException(new Throwable("Transaction " + transactionId + " is committed, but the commit failed on "
+                    + String.join("; ", commitFailures)));
+        }
+    }
+
+    /**
+     * Finishes the transactions of earlier runs the log holds as unfinished,
+     * the first time it is called. See recover.
+     */
+    public synchronized List<DecisionLog.Transaction> recoverOnce(Map<Integer, ? extends Participant> participants) {
+        if (isRecovered) {
+            return new ArrayList<DecisionLog.Transaction>();
+        }
+        isRecovered = true;
+        return recover(participants);
+    }
+
+    /**
+     * Finishes the transactions of earlier runs the log holds as unfinished:
+     * decided ones the way they were decided, undecided ones are rolled back.
+     * A transaction a member is not reachable for, or fails to recover, is
+     * tried again by the next recover. One a participant can not tell the
+     * outcome of is recorded as UNRESOLVED and returned: it is not tried
+     * again, its data has to be checked and the transaction acknowledged,
+     * see acknowledge.
+     */
+    public List<DecisionLog.Transaction> recover(Map<Integer, ? extends Participant> participants) {
+        List<DecisionLog.Transaction> unresolved = new ArrayList<DecisionLog.Transaction>();
+        List<DecisionLog.Transaction> unfinished;
+        try {
+            unfinished = log.readUnfinished();
+        } catch (IOException e) {
+            CustomLogger.log(Level.SEVERE, "Can not read transaction log " + log.getFile() + ": " + e.getMessage());
+            return unresolved;
+        }
+
+        List<String> unacknowledged = new ArrayList<String>();
+        for (DecisionLog.Transaction transaction : unfinished) {
+            if (transaction.getId().startsWith(idPrefix)) {
+                // Still running in this run
+                continue;
+            }
+            if (transaction.isUnresolved()) {
+                unacknowledged.add(transaction.getId());
+                continue;
+            }
+            boolean commit = DecisionLog.COMMIT.equals(transaction.getDecision());
+            // Members not recorded as failed finished the second phase
+            List<Integer> members = transaction.getFailedMembers().isEmpty() ? transaction.getMembers()
+                    : transaction.getFailedMembers();
+            List<Integer> notRecovered = new ArrayList<Integer>();
+            List<Integer> notReached = new ArrayList<Integer>();
+            for (Integer member : members) {
+                Participant participant = participants.get(member);
+                try {
+                    if (participant == null) {
+                        notReached.add(member);
+                    } else if (!participant.recover(transaction.getId(), commit)) {
+                        notRecovered.add(member);
+                    }
+                } catch (SQLException e) {
+                    CustomLogger.log(Level.WARNING, "Can not recover transaction " + transaction.getId()
+                            + " on database " + member + ": " + e.getMessage());
+                    notReached.add(member);
+                }
+            }
+
+            try {
+                if (!notReached.isEmpty()) {
+                    CustomLogger.log(Level.WARNING, "Transaction " + transaction + " is not recovered on databases "
+                            + notReached + ", the next recover tries again");
+                } else if (!notRecovered.isEmpty()) {
+                    unresolved.add(transaction);
+                    log.write(transaction.getId(), DecisionLog.UNRESOLVED, DecisionLog.formatMembers(notRecovered),
+                            true);
+                    CustomLogger.log(Level.SEVERE, "Transaction " + transaction + " can not be recovered on databases "
+                            + notRecovered + ", their data has to be checked and the transaction acknowledged");
+                } else {
+                    CustomLogger.log(Level.INFO, "Recovered transaction " + transaction);
+                    log.write(transaction.getId(), DecisionLog.DONE, null, false);
+                }
+            } catch (IOException e) {
+                CustomLogger.log(Level.WARNING, "Can not write transaction log " + log.getFile() + ": "
+                        + e.getMessage());
+            }
+        }
+        if (!unacknowledged.isEmpty()) {
+            CustomLogger.log(Level.WARNING, "Unresolved transactions of " + log.getFile()
+                    + " wait for acknowledgement: " + unacknowledged);
+        }
+
+        compactLog();
+        return unresolved;
+    }
+
+    /**
+     * Returns the UNRESOLVED transactions of the log, the ones waiting for a
+     * manual check.
+     */
+    public List<DecisionLog.Transaction> getUnresolved() throws FedException {
+        List<DecisionLog.Transaction> unresolved = new ArrayList<DecisionLog.Transaction>();
+        try {
+            for (DecisionLog.Transaction transaction : log.readUnfinished()) {
+                if (transaction.isUnresolved()) {
+                    unresolved.add(transaction);
+                }
+            }
+        } catch (IOException e) {
+            throw new FedException(new Throwable("Can not read transaction log " + log.getFile() + ": "
+                    + e.getMessage()));
+        }
+        return unresolved;
+    }
+
+    /**
+     * Marks an UNRESOLVED transaction DONE once the data of its members was
+     * checked, and drops it from the log.
+     */
+    public void acknowledge(String transactionId) throws FedException {
+        boolean isUnresolved = false;
+        for (DecisionLog.Transaction transaction : getUnresolved()) {
+            isUnresolved |= transaction.getId().equals(transactionId);
+        }
+        if (!isUnresolved) {
+            throw new FedException(new Throwable("No unresolved transaction " + transactionId + " in "
+                    + log.getFile()));
+        }
+        try {
+            log.write(transactionId, DecisionLog.DONE, null, true);
+        } catch (IOException e) {
+            throw new FedException(new Throwable("Can not write transaction log " + log.getFile() + ": "
+                    + e.getMessage()));
+        }
+        CustomLogger.log(Level.INFO, "Acknowledged unresolved transaction " + transactionId);
+        compactLog();
+    }
+
+    /*
+     * Transactions running at the same time keep their records, compact
+     * keeps the ones that are not DONE and blocks their writes meanwhile.
+     */
+    private void compactLog() {
+        try {
+            log.compact();
+        } catch (IOException e) {
+            CustomLogger.log(Level.WARNING, "Can not compact transaction log " + log.getFile() + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void record(boolean commit, long prepareNanos, long commitNanos) {
+        if (commit) {
+            commitCount++;
+        } else {
+            rollbackCount++;
+        }
+        totalPrepareNanos += prepareNanos;
+        maxPrepareNanos = Math.max(maxPrepareNanos, prepareNanos);
+        totalCommitNanos += commitNanos;
+        maxCommitNanos = Math.max(maxCommitNanos, commitNanos);
+    }
+
+    public synchronized long getCommitCount() {
+        return commitCount;
+    }
+
+    public synchronized long getRollbackCount() {
+        return rollbackCount;
+    }
+
+    /*
+     * Average time of the first phase in milliseconds, 0 for transactions
+     * of a single database
+     */
+    public synchronized double getAveragePrepareMillis() {
+        long count = commitCount + rollbackCount;
+        return count == 0 ? 0 : toMillis(totalPrepareNanos) / count;
+    }
+
+    public synchronized double getMaxPrepareMillis() {
+        return toMillis(maxPrepareNanos);
+    }
+
+    /*
+     * Average time of the second phase, commit or rollback, in milliseconds
+     */
+    public synchronized double getAverageCommitMillis() {
+        long count = commitCount + rollbackCount;
+        return count == 0 ? 0 : toMillis(totalCommitNanos) / count;
+    }
+
+    public synchronized double getMaxCommitMillis() {
+        return toMillis(maxCommitNanos);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("TwoPhaseCommit[commits=%d rollbacks=%d prepare avg=%.1fms max=%.1fms"
+                        + " commit avg=%.1fms max=%.1fms]", commitCount, rollbackCount, getAveragePrepareMillis(),
+                getMaxPrepareMillis(), getAverageCommitMillis(), getMaxCommitMillis());
+    }
+}
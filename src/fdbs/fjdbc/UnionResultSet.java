@@ -0,0 +1,231 @@
+package fdbs.fjdbc;
+
+import fdbs.DaemonThreadPool;
+import fdbs.RowMetaData;
+import fdbs.RowResultSet;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The rows of the result sets of all databases in the order they arrive. One
+ * producer per database reads its result set and puts the rows into a
+ * bounded queue in chunks, next takes them from there. A full scan so takes
+ * as long as the slowest database instead of all of them one after the
+ * other, and producers wait while the queue holds the given number of rows.
+ * <p>
+ * The producers run in an unbounded pool of daemon threads of their own: they
+ * wait for the reader of the result set, which must not hold up the FanOut
+ * pool, and queued behind other producers they could wait for each other.
+ */
+class UnionResultSet extends RowResultSet {
+
+    private static final int CHUNK_ROWS = 64;
+    // Put by a producer after its last row, compared by identity
+    private static final List<Object[]> END = new ArrayList<Object[]>(0);
+
+    private static ThreadPoolExecutor executor;
+
+    private final List<ResultSet> resultSets;
+    private final RowMetaData metaData;
+    private final int chunkRows;
+    private final BlockingQueue<List<Object[]>> queue;
+    private final List<Future<?>> producers = new ArrayList<Future<?>>();
+
+    private volatile boolean isClosed;
+    // First failure of a producer, thrown by every call of next from then on
+    private volatile SQLException failure;
+
+    // Producers that did not put END yet
+    private int running;
+    private List<Object[]> chunk = new ArrayList<Object[]>(0);
+    private int position;
+    private Object[] currentRow;
+
+    UnionResultSet(List<ResultSet> resultSets, int queueRows) throws SQLException {
+        super(resultSets);
+        this.resultSets = resultSets;
+        // The result sets are read by the producers, the reader only sees the copy
+        metaData = RowMetaData.copy(resultSets.get(0).getMetaData());
+        chunkRows = Math.max(1, Math.min(CHUNK_ROWS, queueRows / resultSets.size()));
+        queue = new ArrayBlockingQueue<List<Object[]>>(Math.max(1, queueRows / chunkRows));
+        running = resultSets.size();
+        for (final ResultSet resultSet : resultSets) {
+            producers.add(getExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    produce(resultSet);
+                }
+            }));
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = DaemonThreadPool.newCachedPool("fdbs-union");
+        }
+        return executor;
+    }
+
+    private void produce(ResultSet resultSet) {
+        try {
+            int columnCount = metaData.getColumnCount();
+            List<Object[]> rows = new ArrayList<Object[]>(chunkRows);
+            while (!isClosed && resultSet.next()) {
+                Object[] row = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    row[i] = resultSet.getObject(i + 1);
+                }
+                rows.add(row);
+                if (rows.size() == chunkRows) {
+                    put(rows);
+                    rows = new ArrayList<Object[]>(chunkRows);
+                }
+            }
+            if (!rows.isEmpty()) {
+                put(rows);
+            }
+        } catch (SQLException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            // E.g. a driver failing in getObject, next has to throw it instead of missing the rows
+            fail(new SQLException(e));
+        } finally {
+            put(END);
+        }
+    }
+
+    private synchronized void fail(SQLException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    // Waits for room in the queue until the result set is closed
+    private void put(List<Object[]> rows) {
+        boolean isInterrupted = false;
+        while (!isClosed) {
+            try {
+                if (queue.offer(rows, 10, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                // The reader waits for END, so it is put anyway
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+        if (isClosed) {
+            throw new SQLException("Result set is closed");
+        }
+        // Thrown on every call, the rows of the other databases are not the whole result
+        checkFailure();
+        while (position >= chunk.size()) {
+            if (running == 0) {
+                currentRow = null;
+                return false;
+            }
+            List<Object[]> rows = take();
+            if (rows == END) {
+                running--;
+                checkFailure();
+            } else {
+                chunk = rows;
+                position = 0;
+            }
+        }
+        currentRow = chunk.get(position++);
+        return true;
+    }
+
+    private void checkFailure() throws SQLException {
+        if (failure != null) {
+            currentRow = null;
+            throw failure;
+        }
+    }
+
+    private List<Object[]> take() throws SQLException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for rows of the databases");
+        }
+    }
+
+    @Override
+    protected Object[] getCurrentRow() {
+        return currentRow;
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        return metaData;
+    }
+
+    /*
+     * Stops the producers and closes the result sets of the databases once
+     * they are done with them.
+     */
+    @Override
+    public void close() throws SQLException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        queue.clear();
+        boolean isInterrupted = false;
+        for (Future<?> producer : producers) {
+            while (true) {
+                try {
+                    producer.get();
+                    break;
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        queue.clear();
+        currentRow = null;
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        SQLException closeFailure = null;
+        for (ResultSet resultSet : resultSets) {
+            try {
+                resultSet.close();
+            } catch (SQLException e) {
+                if (closeFailure == null) {
+                    closeFailure = e;
+                }
+            }
+        }
+        if (closeFailure != null) {
+            throw closeFailure;
+        }
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return isClosed;
+    }
+}
@@ -3,43 +3,99 @@
  */
 package fdbs.logging;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.logging.FileHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Handler;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
+import java.util.logging.StreamHandler;
 
 /**
  * Logger Wrapper Class
  * The logger will be used by several part of the application to log several info.
  * It sets the configuration. For example, file name, formatting of the texts etc.
+ * <p>
+ * Records are written to logs/fedprot.txt by a background thread, so a
+ * statement does not wait for the file. The records are buffered in a ring
+ * of fdbs.logBufferSize records (default 8192) and written and flushed in
+ * batches; a caller only waits if the ring is full. Records still buffered
+ * are written when the JVM exits. With fdbs.logAsync=false every record is
+ * written and flushed by the caller, like before.
+ * <p>
+ * Records below fdbs.logLevel (default INFO) are dropped before their message
+ * is built: the message is either a pattern with parameters, formatted by the
+ * writer thread, or built by a Supplier.
  *
  * @author Jahan
  */
 public class CustomLogger {
 
-    static Logger logger;
-    public FileHandler fh;
+    public static final String ASYNC_PROPERTY = "fdbs.logAsync";
+    public static final String BUFFER_SIZE_PROPERTY = "fdbs.logBufferSize";
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    public static final String LEVEL_PROPERTY = "fdbs.logLevel";
+
+    private static final int BATCH_SIZE = 512;
+    private static final long SHUTDOWN_TIMEOUT = 5000;
+
+    static volatile Logger logger;
+    private static Handler handler;
+    private static BlockingQueue<LogRecord> buffer;
+    private static Thread writer;
+
+    // Records put into the buffer and records written by the writer thread
+    private static final AtomicLong bufferedCount = new AtomicLong();
+    private static long writtenCount;
+    private static final Object writtenLock = new Object();
 
     /**
      * @param null
      */
     private CustomLogger() throws IOException {
-        //instance the logger
-        logger = Logger.getLogger(CustomLogger.class.getName());
+        //instance the logger, it is published when it is set up, as log calls do not lock
+        Logger newLogger = Logger.getLogger(CustomLogger.class.getName());
+        newLogger.setLevel(Level.parse(System.getProperty(LEVEL_PROPERTY, Level.INFO.getName())));
         //FileHandler fh;
         System.setProperty("java.util.logging.SimpleFormatter.format", "<%1$tT.%1$tL>%5$s %n");
-        //instance the filehandler
-        fh = new FileHandler("logs/fedprot.txt");
-
-        //instance formatter, set formatting, and handler
-        SimpleFormatter formatter = new SimpleFormatter();
-        fh.setFormatter(formatter);
-        logger.addHandler(fh);
 
         // disable output to console
-        logger.setUseParentHandlers(false);
+        newLogger.setUseParentHandlers(false);
 
+        try {
+            //instance the handler, it is flushed by the writer after each batch
+            handler = new StreamHandler(new FileOutputStream("logs/fedprot.txt"), new SimpleFormatter());
+            handler.setLevel(Level.ALL);
+
+            if (Boolean.parseBoolean(System.getProperty(ASYNC_PROPERTY, "true"))) {
+                buffer = new ArrayBlockingQueue<LogRecord>(
+                        Math.max(Integer.getInteger(BUFFER_SIZE_PROPERTY, DEFAULT_BUFFER_SIZE), 1));
+                writer = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeBatches();
+                    }
+                }, "fdbs-log-writer");
+                writer.setDaemon(true);
+                writer.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        shutdown();
+                    }
+                }, "fdbs-log-shutdown"));
+            }
+        } finally {
+            logger = newLogger;
+        }
     }
 
     /**
@@ -47,10 +103,14 @@ public class CustomLogger {
      */
     private static Logger getLogger() {
         if (logger == null) {
-            try {
-                new CustomLogger();
-            } catch (IOException e) {
-                e.printStackTrace();
+            synchronized (CustomLogger.class) {
+                if (logger == null) {
+                    try {
+                        new CustomLogger();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
             }
         }
         return logger;
@@ -60,8 +120,138 @@ public class CustomLogger {
      * @param level msg
      */
     public static void log(Level level, String msg) {
-        getLogger().log(level, msg);
+        if (isLoggable(level)) {
+            publish(new LogRecord(level, msg));
+        }
+    }
+
+    /**
+     * Logs a message in the format of java.text.MessageFormat, e.g.
+     * "Sending to {0}: {1}". The message is formatted when the record is
+     * written, the parameters must not change after the call.
+     */
+    public static void log(Level level, String pattern, Object... parameters) {
+        if (isLoggable(level)) {
+            LogRecord record = new LogRecord(level, pattern);
+            record.setParameters(parameters);
+            publish(record);
+        }
+    }
+
+    /**
+     * Logs the message of the supplier, which is only called if the level is
+     * logged.
+     */
+    public static void log(Level level, Supplier<String> msg) {
+        if (isLoggable(level)) {
+            publish(new LogRecord(level, msg.get()));
+        }
+    }
+
+    /**
+     * Returns if messages of the level are logged, to skip work done for the
+     * log only.
+     */
+    public static boolean isLoggable(Level level) {
+        return getLogger().isLoggable(level);
+    }
+
+    /**
+     * Waits until the records logged so far are written to the file.
+     */
+    public static void flush() {
+        getLogger();
+        if (buffer == null) {
+            return;
+        }
+        long target = bufferedCount.get();
+        synchronized (writtenLock) {
+            try {
+                while (writtenCount < target && writer.isAlive()) {
+                    writtenLock.wait(100);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void publish(LogRecord record) {
+        // The caller is not looked up in the stack, the format does not show it
+        record.setSourceClassName(null);
+        record.setLoggerName(logger.getName());
+        if (handler == null) {
+            return;
+        }
+        if (buffer == null || !writer.isAlive()) {
+            // Synchronous, or the JVM exits and the writer is done
+            synchronized (handler) {
+                handler.publish(record);
+                handler.flush();
+            }
+            return;
+        }
+        bufferedCount.incrementAndGet();
+        try {
+            buffer.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            bufferedCount.decrementAndGet();
+        }
+    }
+
+    /*
+     * Runs on the writer thread until it is interrupted by shutdown, then
+     * writes what is left in the buffer.
+     */
+    private static void writeBatches() {
+        List<LogRecord> batch = new ArrayList<LogRecord>(BATCH_SIZE);
+        boolean isRunning = true;
+        while (isRunning) {
+            try {
+                LogRecord first = buffer.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                isRunning = false;
+            }
+            buffer.drainTo(batch, BATCH_SIZE - batch.size());
+            write(batch);
+        }
+        while (!buffer.isEmpty()) {
+            buffer.drainTo(batch, BATCH_SIZE);
+            write(batch);
+        }
+    }
 
+    private static void write(List<LogRecord> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        synchronized (handler) {
+            for (LogRecord record : batch) {
+                handler.publish(record);
+            }
+            handler.flush();
+        }
+        synchronized (writtenLock) {
+            writtenCount += batch.size();
+            writtenLock.notifyAll();
+        }
+        batch.clear();
     }
 
+    private static void shutdown() {
+        writer.interrupt();
+        try {
+            writer.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (handler) {
+            handler.close();
+        }
+    }
 }
@@ -0,0 +1,147 @@
+package fdbs.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values, e.g. latencies in nanoseconds, in
+ * buckets like the ones of HdrHistogram: values below 64 have a bucket each,
+ * above that every power of two is split into 32 buckets. A percentile is
+ * thus off by at most 1/32 of the value, at a fixed size of 1888 counters
+ * for the whole range of long.
+ * <p>
+ * Recording does not lock, so the databases of a fan out can record at the
+ * same time. A histogram read while values are recorded may miss some of
+ * them.
+ */
+public class Histogram {
+
+    public static final String NANOSECONDS = "ns";
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + LINEAR_BUCKETS - SUB_BUCKETS;
+
+    private final String unit;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+    /*
+     * The unit is only shown, NANOSECONDS are shown in milliseconds.
+     */
+    public Histogram(String unit) {
+        this.unit = unit;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(getBucket(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+            // Another thread changed the minimum, compare again
+        }
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Another thread changed the maximum, compare again
+        }
+    }
+
+    /*
+     * Values below 64 are their own bucket. Above, the bucket is given by the
+     * highest bit and the 5 bits below it.
+     */
+    static int getBucket(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /*
+     * Highest value of the bucket.
+     */
+    static long getBucketLimit(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket - shift * SUB_BUCKETS;
+        long limit = ((subBucket + 1) << shift) - 1;
+        return limit < 0 ? Long.MAX_VALUE : limit;
+    }
+
+    /**
+     * Returns the value that percentile percent of the recorded values are
+     * less than or equal to, e.g. getValueAtPercentile(99) for the 99th
+     * percentile. Returns 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long recorded = count.get();
+        if (recorded == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * recorded));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(getBucketLimit(bucket), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    public long getMin() {
+        return count.get() == 0 ? 0 : min.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long recorded = count.get();
+        return recorded == 0 ? 0 : (double) total.get() / recorded;
+    }
+
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts.set(bucket, 0);
+        }
+        count.set(0);
+        total.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        if (NANOSECONDS.equals(unit)) {
+            return String.format("count=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms", getCount(),
+                    getMean() / 1e6, getValueAtPercentile(50) / 1e6, getValueAtPercentile(90) / 1e6,
+                    getValueAtPercentile(99) / 1e6, getMax() / 1e6);
+        }
+        return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d %s", getCount(), getMean(),
+                getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99), getMax(), unit);
+    }
+}
@@ -0,0 +1,161 @@
+package fdbs.metrics;
+
+import fdbs.logging.CustomLogger;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * The histograms of the federation layer by name. FedStatement records the
+ * time of its calls as fjdbc.executeUpdate, fjdbc.executeQuery and
+ * fjdbc.executeBatch. FederalController records per QueryTypeConstant, e.g.
+ * for INSERT:
+ * <pre>
+ * statement.INSERT        time of the statement in the federation layer
+ * normalize.INSERT        time to prepare the query for the parser and back
+ * parse.INSERT            time to parse it, or to find it in the ParseCache
+ * fanout.INSERT           databases the statement was sent to
+ * member.INSERT           time of the statement on a database
+ * member.&lt;sid&gt;.INSERT  the same for the database of the sid
+ * rows.SELECT_WITH_GROUP  rows returned by a result set
+ * </pre>
+ * <p>
+ * Recording can be switched off with fdbs.metrics=false. With
+ * fdbs.metricsDumpInterval set to a number of milliseconds all histograms
+ * are written to the log in that interval.
+ */
+public class MetricsRegistry {
+
+    public static final String ENABLED_PROPERTY = "fdbs.metrics";
+    public static final String DUMP_INTERVAL_PROPERTY = "fdbs.metricsDumpInterval";
+
+    private static final boolean isEnabled = Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+    private static ScheduledThreadPoolExecutor dumper;
+    private static ScheduledFuture<?> dump;
+
+    static {
+        long interval = Long.getLong(DUMP_INTERVAL_PROPERTY, 0);
+        if (interval > 0) {
+            startDump(interval);
+        }
+    }
+
+    public static boolean isEnabled() {
+        return isEnabled;
+    }
+
+    /**
+     * Records a time in nanoseconds, e.g. measured with System.nanoTime.
+     */
+    public static void recordNanos(String name, long nanos) {
+        record(name, Histogram.NANOSECONDS, nanos);
+    }
+
+    /**
+     * Records a value of the histogram, which is created with the unit on
+     * first use.
+     */
+    public static void record(String name, String unit, long value) {
+        if (!isEnabled) {
+            return;
+        }
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram(unit);
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        histogram.record(value);
+    }
+
+    /**
+     * Returns the histogram of the name or null if nothing was recorded for
+     * it.
+     */
+    public static Histogram getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    /**
+     * Returns all histograms by name, sorted by name.
+     */
+    public static Map<String, Histogram> getHistograms() {
+        return new TreeMap<String, Histogram>(histograms);
+    }
+
+    /**
+     * Returns the histograms whose name starts with the prefix, e.g. "member."
+     * for the execution times of the databases.
+     */
+    public static Map<String, Histogram> getHistograms(String prefix) {
+        Map<String, Histogram> selected = new TreeMap<String, Histogram>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                selected.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Drops all recorded values.
+     */
+    public static void reset() {
+        histograms.clear();
+    }
+
+    /**
+     * Returns one line per histogram.
+     */
+    public static String dump() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Histogram> entry : getHistograms().entrySet()) {
+            text.append(entry.getKey()).append(' ').append(entry.getValue()).append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes the histograms to the log every interval milliseconds, instead
+     * of the interval given before.
+     */
+    public static synchronized void startDump(long interval) {
+        if (dumper == null) {
+            dumper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "fdbs-metrics-dump");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        stopDump();
+        dump = dumper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (!histograms.isEmpty()) {
+                    CustomLogger.log(Level.INFO, "Metrics:" + System.lineSeparator() + dump());
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized void stopDump() {
+        if (dump != null) {
+            dump.cancel(false);
+            dump = null;
+        }
+    }
+}